@@ -11,21 +11,26 @@ import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.birdbraintechnologies.birdblox.Robots.RobotScheduler;
 import com.birdbraintechnologies.birdblox.Robots.RobotType;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+import com.birdbraintechnologies.birdblox.Util.Metrics;
 import com.birdbraintechnologies.birdblox.Util.NamingHandler;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.birdbraintechnologies.birdblox.MainWebView.bbxEncode;
-import static com.birdbraintechnologies.birdblox.MainWebView.mainWebViewContext;
 import static com.birdbraintechnologies.birdblox.MainWebView.runJavascript;
 import static com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.RobotRequestHandler.connectToRobot;
 import static com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.RobotRequestHandler.fluttersToConnect;
@@ -40,6 +45,9 @@ import static com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.Rob
 public class BluetoothHelper {
     private static final String TAG = "BluetoothHelper";
     private static final int SCAN_DURATION = 5000;  /* Length of time to perform a scan, in milliseconds */
+    private static final int UPDATE_INTERVAL_IN_MILLIS = 250;  /* At most 4 updates of the discovered list per second */
+    private static final AtomicLong scanResults = Metrics.counter("discovery_scan_results");
+    private static final AtomicLong discoveryUpdates = Metrics.counter("discovery_updates");
     public static boolean currentlyScanning;
     private BluetoothAdapter btAdapter;
     private Handler handler;
@@ -47,40 +55,44 @@ public class BluetoothHelper {
     private Context context;
     public static HashMap<String, BluetoothDevice> deviceList;
     private BluetoothLeScanner scanner;
+    private final DiscoveryCache discovered;
+    private ScheduledFuture<?> reportFuture;
 
     /* Callback for populating the device list */
     private ScanCallback populateDevices = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
+            scanResults.incrementAndGet();
+            BluetoothDevice device = result.getDevice();
+            String address = device.getAddress();
             synchronized (deviceList) {
-                deviceList.put(result.getDevice().getAddress(), result.getDevice());
-                List<BluetoothDevice> BLEDeviceList = (new ArrayList<>(deviceList.values()));
-                if (lastScanType.equals("hummingbird") && hummingbirdsToConnect != null) {
-                    if (hummingbirdsToConnect.contains(result.getDevice().getAddress())) {
-                        connectToRobot(RobotType.Hummingbird, result.getDevice().getAddress());
-                    }
-                } else if (lastScanType.equals("flutter") && fluttersToConnect != null) {
-                    if (fluttersToConnect.contains(result.getDevice().getAddress())) {
-                        connectToRobot(RobotType.Flutter, result.getDevice().getAddress());
-                    }
+                deviceList.put(address, device);
+            }
+            // Only updates this device's entry: the list is reported by reportDiscovered
+            discovered.onResult(address, result.getRssi(), SystemClock.elapsedRealtime());
+            if (lastScanType.equals("hummingbird") && hummingbirdsToConnect != null) {
+                if (hummingbirdsToConnect.contains(address)) {
+                    connectToRobot(RobotType.Hummingbird, address);
                 }
-                JSONArray robots = new JSONArray();
-                for (BluetoothDevice device : BLEDeviceList) {
-                    String name = NamingHandler.GenerateName(mainWebViewContext.getApplicationContext(), device.getAddress());
-                    JSONObject robot = new JSONObject();
-                    try {
-                        robot.put("id", device.getAddress());
-                        robot.put("name", name);
-                    } catch (JSONException e) {
-                        Log.e("JSON", "JSONException while discovering " + lastScanType);
-                    }
-                    robots.put(robot);
+            } else if (lastScanType.equals("flutter") && fluttersToConnect != null) {
+                if (fluttersToConnect.contains(address)) {
+                    connectToRobot(RobotType.Flutter, address);
                 }
-                runJavascript("CallbackManager.robot.discovered('" + lastScanType + "', '" + bbxEncode(robots.toString()) + "');");
             }
         }
     };
 
+    /* Reports the list of discovered robots to the frontend, if it changed since it was last reported */
+    private final Runnable reportDiscovered = new Runnable() {
+        @Override
+        public void run() {
+            discovered.expire(SystemClock.elapsedRealtime());
+            if (discovered.takeChanges() == 0) return;
+            discoveryUpdates.incrementAndGet();
+            runJavascript("CallbackManager.robot.discovered('" + lastScanType + "', '" + bbxEncode(getDiscoveredRobots().toString()) + "');");
+        }
+    };
+
     /**
      * Initializes a Bluetooth helper
      *
@@ -91,6 +103,13 @@ public class BluetoothHelper {
         this.btScanning = false;
         this.handler = new Handler();
         deviceList = new HashMap<>();
+        final Context appContext = context.getApplicationContext();
+        this.discovered = new DiscoveryCache(new DiscoveryCache.NameSource() {
+            @Override
+            public String nameFor(String address) {
+                return NamingHandler.GenerateName(appContext, address);
+            }
+        });
 
         // Acquire Bluetooth service
         final BluetoothManager btManager =
@@ -111,9 +130,9 @@ public class BluetoothHelper {
      * @param scanFilters List of Bluetooth.le.ScanFilter to filter by
      */
     public void scanDevices(List<ScanFilter> scanFilters) {
-        Log.d("BLEScan", "About to start scan");
+        DebugLog.d("BLEScan", "About to start scan");
         if (currentlyScanning) {
-            Log.d("BLEScan", "Scan already running.");
+            DebugLog.d("BLEScan", "Scan already running.");
             return;
         }
         if (scanner == null) {
@@ -126,9 +145,11 @@ public class BluetoothHelper {
                     btScanning = false;
                     if (scanner != null) {
                         scanner.stopScan(populateDevices);
-                        Log.d("BLEScan", "Stopped scan.");
+                        DebugLog.d("BLEScan", "Stopped scan.");
                         scanner = null;
                     }
+                    stopReporting();
+                    reportDiscovered.run();
                     currentlyScanning = false;
                     runJavascript("CallbackManager.robot.discoverTimeOut('" + lastScanType + "');");
                 }
@@ -139,6 +160,8 @@ public class BluetoothHelper {
                     .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
                     .build();
             currentlyScanning = true;
+            discovered.clear();
+            startReporting();
             scanner.startScan(scanFilters, scanSettings, populateDevices);
         } else {
             currentlyScanning = true;
@@ -190,13 +213,48 @@ public class BluetoothHelper {
         if (scanner != null) {
             scanner.stopScan(populateDevices);
             scanner = null;
-            Log.d("BLEScan", "Stopped scan.");
+            DebugLog.d("BLEScan", "Stopped scan.");
         }
+        stopReporting();
         if (deviceList != null) {
             deviceList.clear();
         }
+        discovered.clear();
         currentlyScanning = false;
 
     }
 
+    /**
+     * @return The robots seen during the current (or last) scan, each with its id, name and RSSI
+     */
+    public JSONArray getDiscoveredRobots() {
+        JSONArray robots = new JSONArray();
+        for (DiscoveryCache.Entry entry : discovered.snapshot()) {
+            JSONObject robot = new JSONObject();
+            try {
+                robot.put("id", entry.address);
+                robot.put("name", entry.name);
+                robot.put("rssi", entry.rssi);
+            } catch (JSONException e) {
+                Log.e("JSON", "JSONException while discovering " + lastScanType);
+            }
+            robots.put(robot);
+        }
+        return robots;
+    }
+
+    private synchronized void startReporting() {
+        if (reportFuture == null) {
+            reportFuture = RobotScheduler.getExecutor().scheduleAtFixedRate(reportDiscovered,
+                    UPDATE_INTERVAL_IN_MILLIS, UPDATE_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopReporting() {
+        if (reportFuture != null) {
+            reportFuture.cancel(false);
+            reportFuture = null;
+        }
+    }
+
 }
\ No newline at end of file
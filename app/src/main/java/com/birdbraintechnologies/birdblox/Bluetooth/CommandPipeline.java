@@ -0,0 +1,178 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * Matches the OK/FAIL responses of a batch of commands that were written back to back, without
+ * waiting for the response of each before writing the next.
+ * <p>
+ * The device answers the commands in order, so the responses are matched to the outstanding
+ * commands first in, first out. Several responses may arrive in one notification, and a response
+ * may be split across two. Anything else that arrives (up to a separator or the end of a
+ * notification) counts as one failed response, as it would have for a single command.
+ */
+final class CommandPipeline {
+
+    private static final byte[] OK = "OK".getBytes();
+    private static final byte[] FAIL = "FAIL".getBytes();
+
+    /* Results of the current batch, and how many of its commands were written and answered */
+    private boolean[] results;
+    private int expected = 0;
+    private int matched = 0;
+    private boolean active = false;
+
+    /* Start of a response that was split across notifications */
+    private final byte[] token = new byte[FAIL.length];
+    private int tokenLength = 0;
+    private boolean garbage = false;
+    private int unexpected = 0;
+
+    /**
+     * Starts a batch. Every command of the batch fails unless it is answered with OK.
+     *
+     * @param results Filled with the result of each command of the batch, in order
+     */
+    synchronized void begin(boolean[] results) {
+        Arrays.fill(results, false);
+        this.results = results;
+        expected = 0;
+        matched = 0;
+        tokenLength = 0;
+        garbage = false;
+        unexpected = 0;
+        active = true;
+    }
+
+    /**
+     * Records that the next count commands of the batch are about to be written, so their
+     * responses are expected. Must be called before writing them, as they may be answered before
+     * the write returns.
+     */
+    synchronized void expect(int count) {
+        expected += count;
+    }
+
+    /**
+     * Records that the last count commands expected were not written after all (so they fail
+     * without a response)
+     */
+    synchronized void cancel(int count) {
+        expected = Math.max(matched, expected - count);
+        notifyAll();
+    }
+
+    /**
+     * Matches the responses in a notification to the outstanding commands
+     *
+     * @param value Value of the notification
+     * @return False if no batch was in progress (and the notification wasn't consumed)
+     */
+    synchronized boolean offer(byte[] value) {
+        if (!active) return false;
+        for (byte b : value) {
+            if (b == '\r' || b == '\n' || b == ' ' || b == 0) {
+                endToken();
+                continue;
+            }
+            if (garbage) continue;
+            token[tokenLength++] = b;
+            if (matches(OK)) {
+                respond(true);
+            } else if (matches(FAIL)) {
+                respond(false);
+            } else if (!isPrefix(OK) && !isPrefix(FAIL)) {
+                tokenLength = 0;
+                garbage = true;
+            }
+        }
+        // A notification ends anything that can't be the start of a response
+        if (garbage) endToken();
+        return true;
+    }
+
+    /**
+     * Waits for every command written so far to be answered
+     *
+     * @param timeoutMillis Longest time to wait, in milliseconds
+     * @return True if every command was answered in time
+     */
+    synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (matched < expected && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return matched >= expected;
+    }
+
+    /**
+     * Ends the batch. Responses that arrive afterwards are not consumed.
+     *
+     * @return The number of commands answered with OK
+     */
+    synchronized int end() {
+        active = false;
+        int ok = 0;
+        for (int i = 0; i < matched; i++) {
+            if (results[i]) ok++;
+        }
+        results = null;
+        return ok;
+    }
+
+    /**
+     * @return The number of responses of the current (or last) batch that were neither OK nor FAIL
+     */
+    synchronized int getUnexpected() {
+        return unexpected;
+    }
+
+    /**
+     * Finds how many commands, starting at a given one, fit in a single write
+     *
+     * @param ends      End offset of each command, in the buffer that holds them back to back
+     * @param count     Number of commands
+     * @param first     First command of the write
+     * @param maxLength Largest number of bytes in a write
+     * @return Index of the command after the last one that fits (a command longer than maxLength
+     * is written on its own)
+     */
+    static int pack(int[] ends, int count, int first, int maxLength) {
+        int start = (first == 0) ? 0 : ends[first - 1];
+        int next = first + 1;
+        while (next < count && ends[next] - start <= maxLength) {
+            next++;
+        }
+        return next;
+    }
+
+    private void endToken() {
+        if (garbage || tokenLength > 0) {
+            unexpected++;
+            respond(false);
+        }
+        garbage = false;
+    }
+
+    private void respond(boolean ok) {
+        tokenLength = 0;
+        if (matched < expected) {
+            results[matched++] = ok;
+            if (matched == expected) notifyAll();
+        }
+    }
+
+    private boolean matches(byte[] response) {
+        return tokenLength == response.length && isPrefix(response);
+    }
+
+    private boolean isPrefix(byte[] response) {
+        if (tokenLength > response.length) return false;
+        for (int i = 0; i < tokenLength; i++) {
+            if (token[i] != response[i]) return false;
+        }
+        return true;
+    }
+}
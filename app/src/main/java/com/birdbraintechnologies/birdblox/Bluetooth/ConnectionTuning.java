@@ -0,0 +1,124 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * The negotiated parameters of a connection (its MTU and connection priority), and the policy
+ * that tunes its priority to what the robot is doing.
+ * <p>
+ * While a program is using the robot (setting outputs or reading sensors), the connection runs
+ * at CONNECTION_PRIORITY_HIGH, for the shortest connection interval. Once the robot has been
+ * idle for BALANCED_AFTER_IDLE_IN_MILLIS (or right away when the program stops all outputs), it
+ * drops back to balanced, and after LOW_POWER_AFTER_IDLE_IN_MILLIS to low power. Marking the
+ * connection active is cheap enough to do on every request.
+ */
+public final class ConnectionTuning {
+
+    /**
+     * Asks the Bluetooth stack for a connection priority (BluetoothGatt.requestConnectionPriority)
+     */
+    public interface PriorityRequester {
+        boolean requestConnectionPriority(int priority);
+    }
+
+    /* MTU requested on connect: a 244 byte payload fits in one LE data packet with DLE */
+    public static final int DESIRED_MTU = 247;
+    public static final int DEFAULT_MTU = 23;
+    private static final int ATT_HEADER_LENGTH = 3;
+
+    static final int BALANCED_AFTER_IDLE_IN_MILLIS = 5000;
+    static final int LOW_POWER_AFTER_IDLE_IN_MILLIS = 60000;
+
+    private final PriorityRequester requester;
+
+    private volatile int mtu = DEFAULT_MTU;
+    private volatile int priority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private volatile long lastActiveMillis;
+
+    public ConnectionTuning(PriorityRequester requester) {
+        this.requester = requester;
+    }
+
+    /**
+     * Records that a program is using the robot, and switches to high priority if needed
+     *
+     * @param nowMillis Current time, in milliseconds
+     */
+    public void markActive(long nowMillis) {
+        lastActiveMillis = nowMillis;
+        if (priority != BluetoothGatt.CONNECTION_PRIORITY_HIGH) {
+            setPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        }
+    }
+
+    /**
+     * Records that the program stopped using the robot, and drops back to balanced right away
+     *
+     * @param nowMillis Current time, in milliseconds
+     */
+    public void markIdle(long nowMillis) {
+        lastActiveMillis = nowMillis - BALANCED_AFTER_IDLE_IN_MILLIS;
+        checkIdle(nowMillis);
+    }
+
+    /**
+     * Lowers the priority if the robot has been idle long enough (called periodically)
+     *
+     * @param nowMillis Current time, in milliseconds
+     */
+    public void checkIdle(long nowMillis) {
+        long idle = nowMillis - lastActiveMillis;
+        if (idle >= LOW_POWER_AFTER_IDLE_IN_MILLIS) {
+            if (priority != BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER) {
+                setPriority(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER);
+            }
+        } else if (idle >= BALANCED_AFTER_IDLE_IN_MILLIS && priority == BluetoothGatt.CONNECTION_PRIORITY_HIGH) {
+            setPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+        }
+    }
+
+    /**
+     * Called from BluetoothGattCallback.onMtuChanged
+     */
+    public void onMtuChanged(int mtu, boolean success) {
+        if (success) {
+            this.mtu = mtu;
+        }
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return The largest number of bytes that fit in one write
+     */
+    public int getMaxWriteLength() {
+        return mtu - ATT_HEADER_LENGTH;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return "high", "balanced" or "lowPower"
+     */
+    public String getPriorityName() {
+        switch (priority) {
+            case BluetoothGatt.CONNECTION_PRIORITY_HIGH:
+                return "high";
+            case BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER:
+                return "lowPower";
+            default:
+                return "balanced";
+        }
+    }
+
+    private synchronized void setPriority(int newPriority) {
+        if (priority == newPriority) return;
+        // Recorded even if the stack refuses, so that it isn't asked again on every request
+        priority = newPriority;
+        requester.requestConnectionPriority(newPriority);
+    }
+}
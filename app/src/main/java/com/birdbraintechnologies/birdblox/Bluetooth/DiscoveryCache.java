@@ -0,0 +1,130 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The robots seen during a scan, with their name and signal strength, and what changed about
+ * them since the list was last reported.
+ * <p>
+ * A scan result only updates the entry of its own device: the name of a device is generated once,
+ * when it is first seen, and the list only counts as changed if a device was added, or its RSSI
+ * moved by at least RSSI_CHANGE_THRESHOLD. A device that hasn't advertised for
+ * DEVICE_TTL_IN_MILLIS is removed when the cache is next expired.
+ */
+final class DiscoveryCache {
+
+    /**
+     * Generates the name of a device, from its MAC address
+     */
+    interface NameSource {
+        String nameFor(String address);
+    }
+
+    /**
+     * A device in the list
+     */
+    static final class Entry {
+        final String address;
+        final String name;
+        int rssi;
+        long lastSeenMillis;
+
+        Entry(String address, String name, int rssi, long lastSeenMillis) {
+            this.address = address;
+            this.name = name;
+            this.rssi = rssi;
+            this.lastSeenMillis = lastSeenMillis;
+        }
+    }
+
+    /* A device disappears from the list if it hasn't advertised for this long */
+    static final int DEVICE_TTL_IN_MILLIS = 3000;
+    /* Smaller RSSI changes are just noise, and aren't reported */
+    static final int RSSI_CHANGE_THRESHOLD = 5;
+
+    private final NameSource names;
+
+    /* Guarded by this, in the order the devices were first seen */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private int added = 0;
+    private int removed = 0;
+    private int updated = 0;
+
+    DiscoveryCache(NameSource names) {
+        this.names = names;
+    }
+
+    /**
+     * Records a scan result
+     *
+     * @param address   MAC address of the device
+     * @param rssi      Its RSSI, in dBm
+     * @param nowMillis Current time, in milliseconds
+     * @return True if the device is new to the list
+     */
+    synchronized boolean onResult(String address, int rssi, long nowMillis) {
+        Entry entry = entries.get(address);
+        if (entry == null) {
+            entries.put(address, new Entry(address, names.nameFor(address), rssi, nowMillis));
+            added++;
+            return true;
+        }
+        entry.lastSeenMillis = nowMillis;
+        if (Math.abs(rssi - entry.rssi) >= RSSI_CHANGE_THRESHOLD) {
+            entry.rssi = rssi;
+            updated++;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the devices that haven't advertised for DEVICE_TTL_IN_MILLIS
+     *
+     * @param nowMillis Current time, in milliseconds
+     */
+    synchronized void expire(long nowMillis) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (nowMillis - it.next().lastSeenMillis >= DEVICE_TTL_IN_MILLIS) {
+                it.remove();
+                removed++;
+            }
+        }
+    }
+
+    /**
+     * @return The number of devices added, removed or whose RSSI changed since the last call
+     * (0 if the list hasn't changed), and starts counting again
+     */
+    synchronized int takeChanges() {
+        int changes = added + removed + updated;
+        added = removed = updated = 0;
+        return changes;
+    }
+
+    /**
+     * @return A copy of the devices in the list
+     */
+    synchronized List<Entry> snapshot() {
+        List<Entry> copy = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            copy.add(new Entry(entry.address, entry.name, entry.rssi, entry.lastSeenMillis));
+        }
+        return copy;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Empties the list, at the end of a scan
+     */
+    synchronized void clear() {
+        entries.clear();
+        added = removed = updated = 0;
+    }
+}
@@ -0,0 +1,126 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A GATT operation (a characteristic write or read, or a descriptor write) submitted to a
+ * GattOperationQueue. The caller can wait for it, be called back when it completes, or cancel it.
+ */
+public abstract class GattOperation {
+
+    /**
+     * Called when an operation completes (successfully or not, including when it times out or is
+     * cancelled). Runs on the thread that completed it, so it must not block.
+     */
+    public interface Callback {
+        void onComplete(GattOperation operation);
+    }
+
+    private final long timeoutMillis;
+    private final boolean awaitsResponse;
+    private final Callback callback;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicBoolean completed = new AtomicBoolean(false);
+
+    /* Only changed by the queue, while holding its lock */
+    boolean started = false;
+    boolean written = false;
+    byte[] earlyResponse;
+
+    private volatile boolean success = false;
+    private volatile boolean cancelled = false;
+    private volatile byte[] value;
+
+    /**
+     * @param timeoutMillis  Longest time the operation may take, from when it starts, in milliseconds
+     * @param awaitsResponse True if the operation is only complete once the device answers it
+     *                       with a notification (after the write completes)
+     * @param callback       Called when the operation completes (may be null)
+     */
+    protected GattOperation(long timeoutMillis, boolean awaitsResponse, Callback callback) {
+        this.timeoutMillis = timeoutMillis;
+        this.awaitsResponse = awaitsResponse;
+        this.callback = callback;
+    }
+
+    /**
+     * Issues the operation to the Bluetooth stack
+     *
+     * @return False if the stack didn't accept it (e.g. because it is busy), so it must be retried
+     */
+    protected abstract boolean start();
+
+    /**
+     * Tells the response to this operation apart from the other notifications (such as streamed
+     * sensor frames), for operations that await a response
+     *
+     * @param frame Value of a notification received while the operation is in progress
+     * @return True if the frame is the response (by default, any frame is)
+     */
+    protected boolean isResponse(byte[] frame) {
+        return true;
+    }
+
+    /**
+     * @return How long to wait before retrying, after start() returned false, in milliseconds
+     */
+    protected long retryDelayMillis() {
+        return GattOperationQueue.RETRY_DELAY_IN_MILLIS;
+    }
+
+    /**
+     * Waits for the operation to complete
+     *
+     * @param timeoutMillis Longest time to wait, in milliseconds
+     * @return True if the operation completed successfully
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS) && success;
+    }
+
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    public boolean isSuccessful() {
+        return success;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The value read, or the response to a write that awaits one (null otherwise)
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    boolean awaitsResponse() {
+        return awaitsResponse;
+    }
+
+    void markCancelled() {
+        cancelled = true;
+    }
+
+    /**
+     * Completes the operation (only the first completion counts)
+     */
+    void complete(boolean success, byte[] value) {
+        if (!completed.compareAndSet(false, true)) return;
+        this.success = success && !cancelled;
+        this.value = value;
+        done.countDown();
+        if (callback != null) {
+            callback.onComplete(this);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the GATT operations of a connection one at a time, in the order they are submitted, as
+ * Android requires, without making the callers wait for each other.
+ * <p>
+ * Submitting an operation never blocks: it starts right away if the connection is idle, or as
+ * soon as the operation before it completes (from the GATT callback), so the link stays busy
+ * back to back. If the Bluetooth stack doesn't accept an operation, it is retried after
+ * RETRY_DELAY_IN_MILLIS (or the operation's own delay) instead of spinning. Every operation has a deadline, after which it
+ * fails and the next one starts, and can be cancelled until it completes.
+ * <p>
+ * The retries and deadlines of every connection run on a timer thread of their own (see
+ * getTimers()), never on threads that may be blocked waiting for an operation, so an operation
+ * always ends by its deadline.
+ */
+public class GattOperationQueue {
+
+    static final int RETRY_DELAY_IN_MILLIS = 5;
+
+    private static final AtomicLong operationsTimedOut = Metrics.counter("gatt_operations_timed_out");
+    private static final AtomicLong operationsRetried = Metrics.counter("gatt_operations_retried");
+
+    /* Shared by the queues of all connections: its tasks are short and never block */
+    private static final ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "GattTimers");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        timers.setRemoveOnCancelPolicy(true);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final ArrayDeque<GattOperation> pending = new ArrayDeque<>();
+    private GattOperation current;
+    private ScheduledFuture<?> deadline;
+    private boolean closed = false;
+    /* Operations that ended unsuccessfully while holding the lock */
+    private final List<GattOperation> failed = new ArrayList<>();
+
+    /**
+     * @param scheduler Runs the retries and deadlines of operations (normally getTimers())
+     */
+    public GattOperationQueue(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return The timer thread for the retries and deadlines of the connections' operations
+     */
+    public static ScheduledExecutorService getTimers() {
+        return timers;
+    }
+
+    /**
+     * Submits an operation, which starts once every operation submitted before it has completed
+     *
+     * @param operation The operation
+     * @return The operation (which fails right away if the queue is closed)
+     */
+    public GattOperation submit(GattOperation operation) {
+        synchronized (this) {
+            if (closed) {
+                failed.add(operation);
+            } else {
+                pending.add(operation);
+                startNext();
+            }
+        }
+        completeFailed();
+        return operation;
+    }
+
+    /**
+     * Cancels an operation. If it hasn't started, it is removed from the queue; if it is in
+     * progress, it still holds the connection until the stack completes it, but fails.
+     *
+     * @param operation The operation
+     * @return False if the operation had already completed
+     */
+    public boolean cancel(GattOperation operation) {
+        synchronized (this) {
+            if (operation.isDone()) return false;
+            operation.markCancelled();
+            if (pending.remove(operation)) {
+                failed.add(operation);
+            } else if (current == operation && !operation.started) {
+                failed.add(advance());
+            }
+        }
+        completeFailed();
+        return true;
+    }
+
+    /**
+     * Called from the GATT callback that completes a write or read
+     *
+     * @param success True if the status of the callback was GATT_SUCCESS
+     * @param value   Value of the characteristic, for reads
+     */
+    public void onOperationComplete(boolean success, byte[] value) {
+        GattOperation done;
+        byte[] result = value;
+        synchronized (this) {
+            if (current == null || !current.started) return;
+            if (success && current.awaitsResponse()) {
+                current.written = true;
+                if (current.earlyResponse == null) return;
+                result = current.earlyResponse;
+            }
+            done = advance();
+        }
+        done.complete(success, result);
+        completeFailed();
+    }
+
+    /**
+     * Called with every notification received, which is the response to the operation in
+     * progress if it awaits one and recognizes the notification as its response
+     *
+     * @param value Value of the notification
+     * @return True if the notification was the response (otherwise it belongs to the stream)
+     */
+    public boolean onNotification(byte[] value) {
+        GattOperation done;
+        synchronized (this) {
+            if (current == null || !current.started || !current.awaitsResponse()
+                    || current.earlyResponse != null || !current.isResponse(value)) {
+                return false;
+            }
+            if (!current.written) {
+                // The notification can arrive before the write callback
+                current.earlyResponse = value;
+                return true;
+            }
+            done = advance();
+        }
+        done.complete(true, value);
+        completeFailed();
+        return true;
+    }
+
+    /**
+     * Fails every pending operation, and any submitted later (e.g. when disconnecting)
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (current != null) {
+                failed.add(current);
+                endCurrent();
+            }
+            failed.addAll(pending);
+            pending.clear();
+        }
+        completeFailed();
+    }
+
+    /**
+     * @return The number of operations in progress or waiting to start
+     */
+    public synchronized int size() {
+        return pending.size() + ((current == null) ? 0 : 1);
+    }
+
+    /**
+     * Ends the current operation and starts the next one. Must hold the lock.
+     *
+     * @return The operation that ended, to be completed once the lock is released
+     */
+    private GattOperation advance() {
+        GattOperation ended = current;
+        endCurrent();
+        startNext();
+        return ended;
+    }
+
+    private void endCurrent() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        current = null;
+    }
+
+    /**
+     * Starts the next pending operation, unless one is in progress. Must hold the lock.
+     */
+    private void startNext() {
+        while (current == null && !pending.isEmpty()) {
+            final GattOperation operation = pending.poll();
+            current = operation;
+            deadline = scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expire(operation);
+                }
+            }, operation.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            if (!tryStart(operation)) {
+                endCurrent();
+                failed.add(operation);
+            }
+        }
+    }
+
+    /**
+     * Issues an operation to the stack, or schedules a retry if the stack doesn't accept it.
+     * Must hold the lock.
+     *
+     * @return False if the operation can't be issued at all
+     */
+    private boolean tryStart(final GattOperation operation) {
+        try {
+            if (operation.start()) {
+                operation.started = true;
+                return true;
+            }
+        } catch (RuntimeException e) {
+            // e.g. the connection isn't set up
+            return false;
+        }
+        operationsRetried.incrementAndGet();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GattOperationQueue.this) {
+                    if (current != operation || operation.started) return;
+                    if (!tryStart(operation)) {
+                        failed.add(advance());
+                    }
+                }
+                completeFailed();
+            }
+        }, operation.retryDelayMillis(), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private void expire(GattOperation operation) {
+        synchronized (this) {
+            if (current != operation) return;
+            failed.add(advance());
+        }
+        operationsTimedOut.incrementAndGet();
+        completeFailed();
+    }
+
+    /**
+     * Fails the operations that ended unsuccessfully, once the lock is released (so their
+     * callbacks don't run while holding it)
+     */
+    private void completeFailed() {
+        GattOperation[] operations;
+        synchronized (this) {
+            if (failed.isEmpty()) return;
+            operations = failed.toArray(new GattOperation[failed.size()]);
+            failed.clear();
+        }
+        for (GattOperation operation : operations) {
+            operation.complete(false, null);
+        }
+    }
+}
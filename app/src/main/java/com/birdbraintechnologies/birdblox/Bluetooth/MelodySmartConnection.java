@@ -10,6 +10,9 @@ import android.os.Handler;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.birdbraintechnologies.birdblox.Robots.RobotScheduler;
+import com.birdbraintechnologies.birdblox.Robots.RobotStatusTracker;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
 import com.birdbraintechnologies.birdblox.Util.NamingHandler;
 
 import java.util.Arrays;
@@ -17,9 +20,7 @@ import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
-import static com.birdbraintechnologies.birdblox.MainWebView.bbxEncode;
 import static com.birdbraintechnologies.birdblox.MainWebView.mainWebViewContext;
-import static com.birdbraintechnologies.birdblox.MainWebView.runJavascript;
 
 
 /**
@@ -43,6 +44,27 @@ public class MelodySmartConnection extends BluetoothGattCallback {
     private CountDownLatch doneLatch = new CountDownLatch(1);
     private CountDownLatch resultLatch = new CountDownLatch(1);
 
+    /* Matches the responses of pipelined commands, which don't use the latches above */
+    private final CommandPipeline pipeline = new CommandPipeline();
+    private volatile boolean writeSucceeded;
+
+    /* Negotiated MTU, and connection priority following whether the robot is in use */
+    private final ConnectionTuning tuning = new ConnectionTuning(new ConnectionTuning.PriorityRequester() {
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return btGatt != null && btGatt.requestConnectionPriority(priority);
+        }
+    });
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            tuning.checkIdle(System.currentTimeMillis());
+        }
+    };
+    /* Counted down when the notification descriptor has been written, and when the MTU has changed */
+    private final CountDownLatch descriptorLatch = new CountDownLatch(1);
+    private final CountDownLatch mtuLatch = new CountDownLatch(1);
+
     private int connectionState;
     private BluetoothGatt btGatt;
     private BluetoothGattCharacteristic dataBus;
@@ -64,8 +86,9 @@ public class MelodySmartConnection extends BluetoothGattCallback {
 
         establishConnection(context, device);
         // TODO: Handle failure to establish UART connection
+        RobotScheduler.addHealthCheck(idleCheck);
 
-        runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(btGatt.getDevice().getAddress()) + "', true);");
+        RobotStatusTracker.report(btGatt.getDevice().getAddress(), true);
     }
 
     /**
@@ -119,9 +142,34 @@ public class MelodySmartConnection extends BluetoothGattCallback {
 
         this.bluetoothDevice = device;
 
+        if (res) {
+            negotiateMtu();
+        }
         return res;
     }
 
+    /**
+     * Asks for a larger MTU (once the descriptor write is done, as only one request can be in
+     * progress), so that pipelined commands fit in fewer writes
+     */
+    private void negotiateMtu() {
+        try {
+            if (!descriptorLatch.await(AWAIT_MAX, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Timed out waiting for the descriptor write");
+                return;
+            }
+            if (!btGatt.requestMtu(ConnectionTuning.DESIRED_MTU)) {
+                Log.e(TAG, "Unable to request MTU");
+                return;
+            }
+            if (!mtuLatch.await(AWAIT_MAX, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Timed out waiting for the MTU");
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Error: " + e);
+        }
+    }
+
 
     /**
      * Sends a byte array to the device across the data bus
@@ -187,6 +235,74 @@ public class MelodySmartConnection extends BluetoothGattCallback {
         return new byte[]{};
     }
 
+    /**
+     * Sends several CR-terminated commands across the data bus, packing as many of them as fit
+     * into each write (of up to the negotiated MTU, less the ATT header). The next write goes out as soon as the previous one is done, without
+     * waiting for the responses; the OK/FAIL response of each command is matched as it arrives.
+     *
+     * @param commands Buffer holding the commands back to back
+     * @param ends     End offset of each command in the buffer
+     * @param count    Number of commands
+     * @param results  Filled with whether each command was answered with OK
+     * @return The number of commands that were answered with OK
+     */
+    synchronized public int writeCommands(byte[] commands, int[] ends, int count, boolean[] results) {
+        pipeline.begin(results);
+        try {
+            int first = 0;
+            while (first < count) {
+                int next = CommandPipeline.pack(ends, count, first, tuning.getMaxWriteLength());
+                int start = (first == 0) ? 0 : ends[first - 1];
+                pipeline.expect(next - first);
+                if (!writeDataBus(Arrays.copyOfRange(commands, start, ends[next - 1]))) {
+                    pipeline.cancel(next - first);
+                    break;
+                }
+                first = next;
+            }
+            if (!pipeline.await(AWAIT_MAX)) {
+                Log.e(TAG, "Error waiting for the responses of pipelined commands");
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Error: " + e);
+        }
+        int ok = pipeline.end();
+        if (pipeline.getUnexpected() > 0) {
+            Log.e(TAG, "Expected OK or FAIL, received " + pipeline.getUnexpected() + " other responses");
+        }
+        return ok;
+    }
+
+    /**
+     * Writes a value to the data bus and waits for the write (but not any response) to complete
+     *
+     * @return True if the write succeeded
+     */
+    private boolean writeDataBus(byte[] value) throws InterruptedException {
+        startLatch = new CountDownLatch(1);
+        doneLatch = new CountDownLatch(1);
+
+        dataBus.setValue(value);
+        boolean success;
+        int retryCount = 0;
+        while (!(success = btGatt.writeCharacteristic(dataBus))) {
+            if (retryCount > MAX_RETRIES) {
+                break;
+            }
+            retryCount++;
+        }
+        if (!success) {
+            Log.e(TAG, "Unable to write bytes");
+            return false;
+        }
+        startLatch.countDown();
+        if (!doneLatch.await(AWAIT_MAX, TimeUnit.MILLISECONDS)) {
+            Log.e(TAG, "Error waiting for a write callback");
+            return false;
+        }
+        return writeSucceeded;
+    }
+
 
     @Override
     public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
@@ -195,7 +311,7 @@ public class MelodySmartConnection extends BluetoothGattCallback {
             if (newState == BluetoothGatt.STATE_CONNECTED) {
                 gatt.discoverServices();
             } else {
-                runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(gatt.getDevice().getAddress()) + "', false);");
+                RobotStatusTracker.report(gatt.getDevice().getAddress(), false);
             }
         }
     }
@@ -207,7 +323,7 @@ public class MelodySmartConnection extends BluetoothGattCallback {
             // Notify that the setup process is completed
             doneLatch.countDown();
         } else {
-            runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(gatt.getDevice().getAddress()) + "', false);");
+            RobotStatusTracker.report(gatt.getDevice().getAddress(), false);
         }
     }
 
@@ -220,8 +336,9 @@ public class MelodySmartConnection extends BluetoothGattCallback {
             Log.e(TAG, "Error: " + e);
         }
 
-        if (status == BluetoothGatt.GATT_SUCCESS) {
-            Log.v(TAG, "Successfully wrote " + Arrays.toString(characteristic.getValue()));
+        writeSucceeded = (status == BluetoothGatt.GATT_SUCCESS);
+        if (writeSucceeded) {
+            DebugLog.v(TAG, "Successfully wrote %s", characteristic.getValue());
         } else {
             Log.e(TAG, "Error writing " + Arrays.toString(characteristic.getValue()));
         }
@@ -234,6 +351,11 @@ public class MelodySmartConnection extends BluetoothGattCallback {
 
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        // Responses to pipelined commands
+        if (pipeline.offer(characteristic.getValue())) {
+            return;
+        }
+
         // For serializing read operations
         try {
             startLatch.await();
@@ -241,7 +363,7 @@ public class MelodySmartConnection extends BluetoothGattCallback {
             Log.e(TAG, "Error: " + e);
         }
         byte[] newValue = characteristic.getValue();
-        Log.v(TAG, "Got response " + Arrays.toString(newValue));
+        DebugLog.v(TAG, "Got response %s", newValue);
 
         // TODO: Inidcate write success/failure to main thread
 
@@ -249,6 +371,23 @@ public class MelodySmartConnection extends BluetoothGattCallback {
         resultLatch.countDown();
     }
 
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        descriptorLatch.countDown();
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        tuning.onMtuChanged(mtu, status == BluetoothGatt.GATT_SUCCESS);
+        mtuLatch.countDown();
+    }
+
+    /**
+     * @return The negotiated parameters of this connection, which also tune its priority
+     */
+    public ConnectionTuning getTuning() {
+        return tuning;
+    }
 
     /**
      * Returns whether or not this connection is connected
@@ -263,6 +402,7 @@ public class MelodySmartConnection extends BluetoothGattCallback {
      * Disconnects and closes the connection with the device
      */
     public void disconnect() {
+        RobotScheduler.removeHealthCheck(idleCheck);
         btGatt.disconnect();
         btGatt.close();
     }
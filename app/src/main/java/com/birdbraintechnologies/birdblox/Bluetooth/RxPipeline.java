@@ -0,0 +1,131 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes the notifications of a connection off the binder thread, and routes each one either to
+ * the operation waiting for a response, or to the stream listeners.
+ * <p>
+ * The GATT callback only copies the notification into a preallocated ring of slots and returns;
+ * a dedicated thread takes them from the ring in order. A notification is the response to the
+ * operation in progress if that operation awaits one and recognizes it (see
+ * GattOperation.isResponse), so a streaming sensor frame can't be mistaken for the reply to a
+ * command. Every other notification is a stream frame. If the ring is full (the listeners fell
+ * behind), new notifications are dropped and counted.
+ */
+final class RxPipeline implements Runnable {
+
+    /**
+     * Receives the stream frames, on the pipeline's thread
+     */
+    interface StreamListener {
+        /**
+         * @param frame The frame (a copy that the listener may keep)
+         */
+        void onStreamFrame(byte[] frame);
+    }
+
+    /* Notifications waiting for the pipeline's thread, and the longest value of a characteristic */
+    static final int CAPACITY = 64;
+    static final int MAX_FRAME_LENGTH = 512;
+
+    private static final AtomicLong framesDropped = Metrics.counter("rx_frames_dropped");
+    private static final AtomicLong listenerErrors = Metrics.counter("rx_listener_errors");
+
+    private final GattOperationQueue operations;
+    private final StreamListener streamListener;
+    private final Thread thread;
+
+    /* Guarded by this: frames are written at tail and read at head */
+    private final byte[][] slots = new byte[CAPACITY][MAX_FRAME_LENGTH];
+    private final int[] lengths = new int[CAPACITY];
+    private long head = 0;
+    private long tail = 0;
+    private boolean closed = false;
+
+    /**
+     * @param name           Name of the pipeline's thread
+     * @param operations     Queue of the connection, whose operations may await responses
+     * @param streamListener Receives every frame that isn't a response
+     */
+    RxPipeline(String name, GattOperationQueue operations, StreamListener streamListener) {
+        this.operations = operations;
+        this.streamListener = streamListener;
+        this.thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Called from the GATT callback with a notification: copies it into the ring and returns
+     *
+     * @param value Value of the notification
+     * @return False if it was dropped
+     */
+    boolean offer(byte[] value) {
+        synchronized (this) {
+            if (closed) return false;
+            if (tail - head < CAPACITY) {
+                int slot = (int) (tail % CAPACITY);
+                int length = Math.min(value.length, MAX_FRAME_LENGTH);
+                System.arraycopy(value, 0, slots[slot], 0, length);
+                lengths[slot] = length;
+                if (tail++ == head) notify();
+                return true;
+            }
+        }
+        framesDropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stops the pipeline's thread, once it has routed the frames already received
+     */
+    void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            byte[] frame;
+            synchronized (this) {
+                try {
+                    while (head == tail && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (head == tail) return;
+                int slot = (int) (head % CAPACITY);
+                frame = Arrays.copyOf(slots[slot], lengths[slot]);
+                head++;
+            }
+            route(frame);
+        }
+    }
+
+    /**
+     * Routes a frame to the operation awaiting it, or else to the stream listener
+     */
+    void route(byte[] frame) {
+        try {
+            if (!operations.onNotification(frame)) {
+                streamListener.onStreamFrame(frame);
+            }
+        } catch (RuntimeException e) {
+            // Keep the pipeline running for the next frames
+            listenerErrors.incrementAndGet();
+        }
+    }
+}
@@ -8,10 +8,13 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.content.Context;
 import android.util.Log;
 
-import java.util.ArrayList;
+import com.birdbraintechnologies.birdblox.Robots.RobotScheduler;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -23,18 +26,43 @@ import java.util.concurrent.TimeUnit;
  */
 public class UARTConnection extends BluetoothGattCallback {
     private static final String TAG = UARTConnection.class.getName();
-    private static final int MAX_RETRIES = 100;
     private static final int CONNECTION_TIMEOUT_IN_SECS = 15;
-
-    /* Latches to handle serialization of async reads/writes */
-    private CountDownLatch startLatch = new CountDownLatch(1);
-    private CountDownLatch doneLatch = new CountDownLatch(1);
-    private CountDownLatch resultLatch = new CountDownLatch(1);
+    /* Deadline of an operation once it starts, and longest wait for one (including its turn) */
+    private static final int OPERATION_TIMEOUT_IN_MILLIS = 5000;
+    private static final int CALLER_TIMEOUT_IN_MILLIS = 30000;
+    /* Writes without response handed to the stack per connection interval */
+    private static final int NO_RESPONSE_WINDOW = 4;
+    private static final int CONNECTION_INTERVAL_IN_MILLIS = 15;
+
+    /* Counted down once the services are discovered */
+    private final CountDownLatch servicesLatch = new CountDownLatch(1);
+    /* Serializes the writes and reads, without making their callers wait for each other */
+    private final GattOperationQueue operations = new GattOperationQueue(GattOperationQueue.getTimers());
+    /* Output frames are written without response (with flow control) when enabled */
+    private volatile boolean writeWithoutResponse = false;
+    private final WriteCredits credits = new WriteCredits(NO_RESPONSE_WINDOW,
+            TimeUnit.MILLISECONDS.toNanos(CONNECTION_INTERVAL_IN_MILLIS), System.nanoTime());
+
+    /* Negotiated MTU, and connection priority following whether the robot is in use */
+    private final ConnectionTuning tuning = new ConnectionTuning(new ConnectionTuning.PriorityRequester() {
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return btGatt != null && btGatt.requestConnectionPriority(priority);
+        }
+    });
+    private final Runnable idleCheck = new Runnable() {
+        @Override
+        public void run() {
+            tuning.checkIdle(System.currentTimeMillis());
+        }
+    };
 
     /* UUIDs for the communication lines */
     private UUID uartUUID, txUUID, rxUUID, rxConfigUUID;
 
-    private List<RXDataListener> rxListeners = new ArrayList<>();
+    private final List<RXDataListener> rxListeners = new CopyOnWriteArrayList<>();
+    /* Routes notifications to the operation awaiting them or to rxListeners, off the binder thread */
+    private final RxPipeline rxPipeline;
 
     private int connectionState;
     private BluetoothGatt btGatt;
@@ -59,8 +87,19 @@ public class UARTConnection extends BluetoothGattCallback {
 
         this.bluetoothDevice = device;
 
+        rxPipeline = new RxPipeline("RX-" + device.getAddress(), operations, new RxPipeline.StreamListener() {
+            @Override
+            public void onStreamFrame(byte[] frame) {
+                for (RXDataListener l : rxListeners) {
+                    l.onRXData(frame);
+                }
+            }
+        });
+        rxPipeline.start();
+
         establishUARTConnection(context, device);
         // TODO: Handle failure to establish UART connection
+        RobotScheduler.addHealthCheck(idleCheck);
     }
 
     /**
@@ -69,77 +108,177 @@ public class UARTConnection extends BluetoothGattCallback {
      * @param bytes byte array to send
      * @return True on success, false otherwise
      */
-    synchronized public boolean writeBytes(byte[] bytes) {
-        try {
-            startLatch = new CountDownLatch(1);
-            doneLatch = new CountDownLatch(1);
-
-            tx.setValue(bytes);
-            boolean res;
-            int retryCount = 0;
-            while (!(res = btGatt.writeCharacteristic(tx))) {
-                if (retryCount > MAX_RETRIES) {
-                    break;
-                }
-                retryCount++;
+    public boolean writeBytes(byte[] bytes) {
+        return await(submitWrite(bytes, null));
+    }
+
+    /**
+     * Sends a byte array across TX, expecting a response on the RX line. Returns the response.
+     *
+     * @param bytes Byte array to send to the device
+     * @return Response from the device
+     */
+    public byte[] writeBytesWithResponse(byte[] bytes) {
+        return writeBytesWithResponse(bytes, null);
+    }
+
+    /**
+     * Sends a byte array across TX, expecting a response on the RX line that the filter
+     * recognizes (other notifications, such as streamed sensor frames, go to the RX listeners).
+     * Returns the response.
+     *
+     * @param bytes  Byte array to send to the device
+     * @param filter Recognizes the response (null for the first notification)
+     * @return Response from the device
+     */
+    public byte[] writeBytesWithResponse(byte[] bytes, ResponseFilter filter) {
+        GattOperation operation = submitWriteWithResponse(bytes, filter, null);
+        if (await(operation)) {
+            return operation.getValue();
+        }
+        Log.e(TAG, "Unable to write bytes to tx");
+        return new byte[]{};
+    }
+
+    /**
+     * Sends an output frame across TX: a frame that the device doesn't answer, and that is
+     * superseded by the next one. It is written without response when that is enabled, and like
+     * writeBytes otherwise.
+     *
+     * @param bytes Frame to send
+     * @return True on success, false otherwise
+     */
+    public boolean writeOutputFrame(byte[] bytes) {
+        return await(submitOutputFrame(bytes, null));
+    }
+
+    /**
+     * Queues an output frame (see writeOutputFrame), and returns without waiting for it
+     *
+     * @param bytes    Frame to send
+     * @param callback Called when the write completes (may be null)
+     * @return The write, which can be waited for or cancelled
+     */
+    public GattOperation submitOutputFrame(byte[] bytes, GattOperation.Callback callback) {
+        if (!writeWithoutResponse) {
+            return submitWrite(bytes, callback);
+        }
+        return submitWriteWithoutResponse(bytes, callback);
+    }
+
+    /**
+     * Sets whether output frames are written without response. Such writes complete as soon as
+     * the stack buffers them, instead of after the device acknowledges them, and at most
+     * NO_RESPONSE_WINDOW of them are written per connection interval so the buffer never
+     * overflows. Writes that expect a response always use acknowledged writes.
+     *
+     * @param enabled True to write output frames without response
+     */
+    public void setWriteWithoutResponse(boolean enabled) {
+        this.writeWithoutResponse = enabled;
+    }
+
+    /**
+     * Queues a write of a byte array to TX, and returns without waiting for it
+     *
+     * @param bytes    Byte array to send
+     * @param callback Called when the write completes (may be null)
+     * @return The write, which can be waited for or cancelled
+     */
+    public GattOperation submitWrite(final byte[] bytes, GattOperation.Callback callback) {
+        return operations.submit(new GattOperation(OPERATION_TIMEOUT_IN_MILLIS, false, callback) {
+            @Override
+            protected boolean start() {
+                tx.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                tx.setValue(bytes);
+                return btGatt.writeCharacteristic(tx);
             }
+        });
+    }
 
-            // Wait for operation to complete
-            startLatch.countDown();
-            try {
-                doneLatch.await();
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Error: " + e);
-                return false;
+    /**
+     * Queues a write of a byte array to TX that the device answers on RX, and returns without
+     * waiting for it. The operation's value is the response.
+     *
+     * @param bytes    Byte array to send
+     * @param filter   Recognizes the response (null for the first notification)
+     * @param callback Called when the response arrives, or the write fails (may be null)
+     * @return The write, which can be waited for or cancelled
+     */
+    public GattOperation submitWriteWithResponse(final byte[] bytes, final ResponseFilter filter,
+                                                 GattOperation.Callback callback) {
+        return operations.submit(new GattOperation(OPERATION_TIMEOUT_IN_MILLIS, true, callback) {
+            @Override
+            protected boolean start() {
+                tx.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                tx.setValue(bytes);
+                return btGatt.writeCharacteristic(tx);
             }
 
-            return res;
-        } catch (Exception e) {
-        }
-        return false;
+            @Override
+            protected boolean isResponse(byte[] frame) {
+                return filter == null || filter.isResponse(frame);
+            }
+        });
     }
 
     /**
-     * Sends a byte array across TX, expecting a response on the RX line. Returns the response.
+     * Queues a write without response of a byte array to TX, once a write credit is available,
+     * and returns without waiting for it
      *
-     * @param bytes Byte array to send to the device
-     * @return Response from the device
+     * @param bytes    Byte array to send
+     * @param callback Called when the stack has buffered the write (may be null)
+     * @return The write, which can be waited for or cancelled
      */
-    synchronized public byte[] writeBytesWithResponse(byte[] bytes) {
-        try {
-            startLatch = new CountDownLatch(1);
-            doneLatch = new CountDownLatch(1);
-            resultLatch = new CountDownLatch(1);
-
-            tx.setValue(bytes);
-            boolean success;
-            int retryCount = 0;
-            while (!(success = btGatt.writeCharacteristic(tx))) {
-                if (retryCount > MAX_RETRIES) {
-                    break;
-                }
-                retryCount++;
+    public GattOperation submitWriteWithoutResponse(final byte[] bytes, GattOperation.Callback callback) {
+        return operations.submit(new GattOperation(OPERATION_TIMEOUT_IN_MILLIS, false, callback) {
+            @Override
+            protected boolean start() {
+                if (!credits.tryAcquire(System.nanoTime())) return false;
+                tx.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+                tx.setValue(bytes);
+                return btGatt.writeCharacteristic(tx);
             }
-            if (success) {
-                // Wait for a successful write and a response
-                startLatch.countDown();
-                try {
-                    doneLatch.await();
-                    resultLatch.await();
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "Error: " + e);
-                    return new byte[]{};
-                }
 
-                // Retrieve and return response
-                byte[] res = rx.getValue();
-                return Arrays.copyOf(res, res.length);
+            @Override
+            protected long retryDelayMillis() {
+                long nanos = credits.nanosUntilCredit(System.nanoTime());
+                return (nanos > 0) ? TimeUnit.NANOSECONDS.toMillis(nanos) + 1 : super.retryDelayMillis();
+            }
+        });
+    }
+
+    /**
+     * Queues a read of RX, and returns without waiting for it. The operation's value is the
+     * value read.
+     *
+     * @param callback Called when the read completes (may be null)
+     * @return The read, which can be waited for or cancelled
+     */
+    public GattOperation submitRead(GattOperation.Callback callback) {
+        return operations.submit(new GattOperation(OPERATION_TIMEOUT_IN_MILLIS, false, callback) {
+            @Override
+            protected boolean start() {
+                return btGatt.readCharacteristic(rx);
             }
-        } catch (Exception e) {
+        });
+    }
 
+    /**
+     * Waits for an operation, cancelling it if it takes too long
+     *
+     * @return True if the operation succeeded
+     */
+    private boolean await(GattOperation operation) {
+        try {
+            if (operation.await(CALLER_TIMEOUT_IN_MILLIS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Error: " + e);
         }
-        Log.e(TAG, "Unable to write bytes to tx");
-        return new byte[]{};
+        operations.cancel(operation);
+        return false;
     }
 
     /**
@@ -153,10 +292,8 @@ public class UARTConnection extends BluetoothGattCallback {
     private boolean establishUARTConnection(Context context, final BluetoothDevice device) {
         // Connect to device
         this.btGatt = device.connectGatt(context, false, this);
-        // Initialize serialization
-        startLatch.countDown();
         try {
-            if (!doneLatch.await(CONNECTION_TIMEOUT_IN_SECS, TimeUnit.SECONDS)) {
+            if (!servicesLatch.await(CONNECTION_TIMEOUT_IN_SECS, TimeUnit.SECONDS)) {
                 return false;
             }
         } catch (InterruptedException e) {
@@ -168,13 +305,30 @@ public class UARTConnection extends BluetoothGattCallback {
             Log.e(TAG, "Unable to set characteristic notification");
             return false;
         }
-        BluetoothGattDescriptor descriptor = rx.getDescriptor(rxConfigUUID);
-        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        if (!btGatt.writeDescriptor(descriptor)) {
-            Log.e(TAG, "Unable to set descriptor");
-            return false;
-        }
-        Log.d(TAG, "Successfully established connection to " + device);
+        final BluetoothGattDescriptor descriptor = rx.getDescriptor(rxConfigUUID);
+        // Queued like any other operation, so writes only start once it is done
+        operations.submit(new GattOperation(OPERATION_TIMEOUT_IN_MILLIS, false, new GattOperation.Callback() {
+            @Override
+            public void onComplete(GattOperation operation) {
+                if (!operation.isSuccessful()) {
+                    Log.e(TAG, "Unable to set descriptor");
+                }
+            }
+        }) {
+            @Override
+            protected boolean start() {
+                descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+                return btGatt.writeDescriptor(descriptor);
+            }
+        });
+        // Then a larger MTU, if both ends support one
+        operations.submit(new GattOperation(OPERATION_TIMEOUT_IN_MILLIS, false, null) {
+            @Override
+            protected boolean start() {
+                return btGatt.requestMtu(ConnectionTuning.DESIRED_MTU);
+            }
+        });
+        DebugLog.d(TAG, "Successfully established connection to %s", device);
         return true;
     }
 
@@ -194,49 +348,51 @@ public class UARTConnection extends BluetoothGattCallback {
             tx = gatt.getService(uartUUID).getCharacteristic(txUUID);
             rx = gatt.getService(uartUUID).getCharacteristic(rxUUID);
             // Notify that the setup process is completed
-            doneLatch.countDown();
+            servicesLatch.countDown();
         }
     }
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        // For serializing write operations
-        try {
-            startLatch.await();
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Error: " + e);
-        }
-
         if (status == BluetoothGatt.GATT_SUCCESS) {
-            Log.v(TAG, "Successfully wrote " + Arrays.toString(characteristic.getValue()) + " to TX");
+            DebugLog.v(TAG, "Successfully wrote %s to TX", characteristic.getValue());
         } else {
             Log.e(TAG, "Error writing " + Arrays.toString(characteristic.getValue()) + " to TX");
         }
+        operations.onOperationComplete(status == BluetoothGatt.GATT_SUCCESS, null);
+    }
 
-        // TODO: Indicate write success/failure to main thread
+    @Override
+    public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+        byte[] value = characteristic.getValue();
+        operations.onOperationComplete(status == BluetoothGatt.GATT_SUCCESS,
+                (value == null) ? null : Arrays.copyOf(value, value.length));
+    }
 
-        // For serializing write operations
-        doneLatch.countDown();
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        operations.onOperationComplete(status == BluetoothGatt.GATT_SUCCESS, null);
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        tuning.onMtuChanged(mtu, status == BluetoothGatt.GATT_SUCCESS);
+        operations.onOperationComplete(status == BluetoothGatt.GATT_SUCCESS, null);
     }
 
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        // For serializing read operations
-        try {
-            startLatch.await();
-        } catch (InterruptedException e) {
-            Log.e(TAG, "Error: " + e);
+        // Routed (to the operation awaiting it, or the RX listeners) on the pipeline's thread
+        if (!rxPipeline.offer(characteristic.getValue())) {
+            Log.e(TAG, "Dropped notification from RX");
         }
-        byte[] newValue = characteristic.getValue();
-        Log.v(TAG, "Got response " + Arrays.toString(newValue) + " from RX");
-        for (RXDataListener l : rxListeners) {
-            l.onRXData(newValue);
-        }
-
-        // TODO: Indicate write success/failure to main thread
+    }
 
-        // For serializing read operations
-        resultLatch.countDown();
+    /**
+     * @return The negotiated parameters of this connection, which also tune its priority
+     */
+    public ConnectionTuning getTuning() {
+        return tuning;
     }
 
     /**
@@ -252,6 +408,9 @@ public class UARTConnection extends BluetoothGattCallback {
      * Disconnects and closes the connection with the device
      */
     public void disconnect() {
+        RobotScheduler.removeHealthCheck(idleCheck);
+        operations.close();
+        rxPipeline.close();
         btGatt.disconnect();
         btGatt.close();
         this.bluetoothDevice = null;
@@ -273,7 +432,19 @@ public class UARTConnection extends BluetoothGattCallback {
     }
 
     /**
-     * Listener for new data coming in on RX
+     * Recognizes the response to a command among the notifications on RX
+     */
+    public interface ResponseFilter {
+        /**
+         * @param frame Value of a notification
+         * @return True if it is the response
+         */
+        boolean isResponse(byte[] frame);
+    }
+
+    /**
+     * Listener for new data coming in on RX (the notifications that aren't responses), called
+     * on the connection's RX thread
      */
     public interface RXDataListener {
         /**
@@ -0,0 +1,60 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+/**
+ * Flow control for writes without response: at most window of them are handed to the Bluetooth
+ * stack per connection interval, which is about as many as go on air in one connection event.
+ * <p>
+ * Writes without response complete as soon as the stack buffers them, so without a limit a fast
+ * sender fills the stack's buffer, and the writes that don't fit are dropped. Each write takes a
+ * credit, and the credits are all returned at the start of every interval.
+ */
+final class WriteCredits {
+
+    private final int window;
+    private final long intervalNanos;
+
+    private int credits;
+    private long lastRefillNanos;
+
+    /**
+     * @param window        Number of writes per interval
+     * @param intervalNanos Length of an interval, in nanoseconds
+     * @param nowNanos      Current time, in nanoseconds
+     */
+    WriteCredits(int window, long intervalNanos, long nowNanos) {
+        this.window = window;
+        this.intervalNanos = intervalNanos;
+        this.credits = window;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Takes a credit, if one is left in the current interval
+     *
+     * @param nowNanos Current time, in nanoseconds
+     * @return True if the write may go ahead
+     */
+    synchronized boolean tryAcquire(long nowNanos) {
+        refill(nowNanos);
+        if (credits == 0) return false;
+        credits--;
+        return true;
+    }
+
+    /**
+     * @param nowNanos Current time, in nanoseconds
+     * @return How long until a credit is available (0 if one is now), in nanoseconds
+     */
+    synchronized long nanosUntilCredit(long nowNanos) {
+        refill(nowNanos);
+        return (credits > 0) ? 0 : lastRefillNanos + intervalNanos - nowNanos;
+    }
+
+    private void refill(long nowNanos) {
+        long intervals = (nowNanos - lastRefillNanos) / intervalNanos;
+        if (intervals > 0) {
+            credits = window;
+            lastRefillNanos += intervals * intervalNanos;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.birdbraintechnologies.birdblox;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.webkit.WebView;
+
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs JavaScript in the main webview on behalf of any thread, with at most one
+ * evaluateJavascript call per display frame.
+ * <p>
+ * Scripts are queued as they come in, and all the scripts queued during a frame are merged into
+ * a single batch, which is evaluated on the next frame (using the Choreographer). Each script in
+ * a batch is run in its own try/catch, so that one failing script doesn't stop the others.
+ * <p>
+ * Callbacks that only report the latest state of something (e.g. the status of a robot, or the
+ * list of discovered robots) supersede any queued callback for the same thing: only the newest
+ * one is run, in the position of the newest one. Counters for the number of scripts queued,
+ * superseded and evaluated batches are available in /debug/metrics.
+ */
+class JavascriptDispatcher implements Choreographer.FrameCallback {
+
+    /*
+     * Callbacks that can be superseded. Two of these supersede each other when their scripts are
+     * the same up to the first comma (e.g. "CallbackManager.robot.updateStatus('<id>'").
+     */
+    private static final String[] SUPERSEDABLE_CALLBACKS = {
+            "CallbackManager.robot.updateStatus(",
+            "CallbackManager.robot.discovered(",
+            "CallbackManager.robot.sensorChanged(",
+            "CallbackManager.discovered("
+    };
+
+    private final AtomicLong scriptsQueued = Metrics.counter("js_scripts_queued");
+    private final AtomicLong scriptsCoalesced = Metrics.counter("js_scripts_coalesced");
+    private final AtomicLong batchesEvaluated = Metrics.counter("js_batches_evaluated");
+
+    private final WebView webView;
+    private final Looper mainLooper;
+    private final Handler mainHandler;
+
+    private final Object lock = new Object();
+    /* Scripts queued for the next frame (superseded ones are replaced by null) */
+    private ArrayList<String> pending = new ArrayList<>();
+    private ArrayList<String> running = new ArrayList<>();
+    private final HashMap<String, Integer> pendingIndexByKey = new HashMap<>();
+    private boolean frameScheduled = false;
+
+    private final StringBuilder batch = new StringBuilder();
+
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(JavascriptDispatcher.this);
+        }
+    };
+
+    /**
+     * @param webView Webview to run the scripts in (must have been created on the main thread)
+     */
+    JavascriptDispatcher(WebView webView) {
+        this.webView = webView;
+        this.mainLooper = Looper.getMainLooper();
+        this.mainHandler = new Handler(mainLooper);
+    }
+
+    /**
+     * Queues a script, to be run in the webview on the next frame. Can be called from any thread.
+     *
+     * @param script The script
+     */
+    void post(String script) {
+        if (script == null) return;
+        String key = supersedeKey(script);
+        boolean scheduleNow = false;
+        synchronized (lock) {
+            if (key != null) {
+                Integer superseded = pendingIndexByKey.put(key, pending.size());
+                if (superseded != null) {
+                    pending.set(superseded, null);
+                    scriptsCoalesced.incrementAndGet();
+                }
+            }
+            pending.add(script);
+            if (!frameScheduled) {
+                frameScheduled = true;
+                scheduleNow = true;
+            }
+        }
+        scriptsQueued.incrementAndGet();
+        if (scheduleNow) {
+            if (Looper.myLooper() == mainLooper) {
+                scheduleFrame.run();
+            } else {
+                mainHandler.post(scheduleFrame);
+            }
+        }
+    }
+
+    /**
+     * Runs all the scripts queued since the last frame, as a single batch.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        ArrayList<String> scripts;
+        synchronized (lock) {
+            scripts = pending;
+            pending = running;
+            running = scripts;
+            pendingIndexByKey.clear();
+            frameScheduled = false;
+        }
+        batch.setLength(0);
+        for (String script : scripts) {
+            if (script == null) continue;
+            batch.append("try {\n").append(script).append("\n} catch (e) { console.error(e); }\n");
+        }
+        scripts.clear();
+        if (batch.length() == 0) return;
+        String batchScript = batch.toString();
+        webView.evaluateJavascript(batchScript, null);
+        batchesEvaluated.incrementAndGet();
+        DebugLog.d("RUNJS", batchScript);
+    }
+
+    /**
+     * @param script A script
+     * @return The key of the callback that the script is, if it can be superseded, or null
+     */
+    private static String supersedeKey(String script) {
+        for (String callback : SUPERSEDABLE_CALLBACKS) {
+            if (script.startsWith(callback)) {
+                int comma = script.indexOf(',', callback.length());
+                return (comma < 0) ? null : script.substring(0, comma);
+            }
+        }
+        return null;
+    }
+}
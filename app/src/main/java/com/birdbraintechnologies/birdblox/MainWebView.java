@@ -19,7 +19,6 @@ import android.media.AudioTrack;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.NetworkOnMainThreadException;
 import android.provider.MediaStore;
 import android.support.v4.app.ActivityCompat;
@@ -124,6 +123,7 @@ public class MainWebView extends AppCompatActivity {
 
     LocalBroadcastManager bManager;
     private static WebView webView;
+    private static JavascriptDispatcher jsDispatcher;
     private long back_pressed;
     private BroadcastReceiver bReceiver = new BroadcastReceiver() {
         @Override
@@ -228,6 +228,7 @@ public class MainWebView extends AppCompatActivity {
         WebSettings webSettings = webView.getSettings();
         webSettings.setJavaScriptEnabled(true);
         webView.resumeTimers();
+        jsDispatcher = new JavascriptDispatcher(webView);
 
         // Broadcast receiver
         bManager = LocalBroadcastManager.getInstance(this);
@@ -655,23 +656,17 @@ public class MainWebView extends AppCompatActivity {
 
 
     /**
-     * Runs the given javascript within the main webview.
+     * Runs the given javascript within the main webview. Can be called from any thread: the
+     * script is queued, and run on the next display frame, together with any other scripts
+     * queued in the meantime (see JavascriptDispatcher).
      *
      * @param script The required js, with all user inputs PERCENT-ENCODED using bbxEncode.
      */
     public static void runJavascript(final String script) {
         // TODO: Send JavaScript commands as broadcasts instead of making webview static
-        Handler mainHandler = new Handler(mainWebViewContext.getMainLooper());
-        Runnable myRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (webView != null) {
-                    webView.evaluateJavascript(script, null);
-                    Log.d("RUNJS", script);
-                }
-            }
-        };
-        mainHandler.post(myRunnable);
+        if (jsDispatcher != null) {
+            jsDispatcher.post(script);
+        }
     }
 
     /**
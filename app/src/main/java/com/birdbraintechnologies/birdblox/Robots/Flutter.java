@@ -2,14 +2,23 @@ package com.birdbraintechnologies.birdblox.Robots;
 
 import android.util.Log;
 
+import com.birdbraintechnologies.birdblox.Bluetooth.ConnectionTuning;
 import com.birdbraintechnologies.birdblox.Bluetooth.MelodySmartConnection;
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.FLState;
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.Servo;
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.TriLED;
 import com.birdbraintechnologies.birdblox.Util.DeviceUtil;
+import com.birdbraintechnologies.birdblox.Util.Metrics;
 import com.birdbraintechnologies.birdblox.Util.NamingHandler;
+import com.birdbraintechnologies.birdblox.Util.SensorTables;
 
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.birdbraintechnologies.birdblox.MainWebView.mainWebViewContext;
 
@@ -27,13 +36,99 @@ public class Flutter extends Robot<FLState> {
     private static final byte READ_CMD = 'r';
     private static final String SERVO_OUTPUT = "s";
     private static final String BUZZER_OUTPUT = "z";
-    private static final char CR = (char) 0x0D;
-    private static final String SET_SERVO_CMD = SET_CMD + SERVO_OUTPUT + "%d,%x";
-    private static final String SET_BUZZER_CMD = SET_CMD + BUZZER_OUTPUT + ",%x,%x" + CR;
-    private static final String SET_TRI_CMD = SET_CMD + "l" + "%d,%x,%x,%x" + CR;
+    private static final byte CR = 0x0D;
     private static final byte STOP_PERIPH_CMD = 'X';
 
+    /* Byte templates of the commands, which are completed with the port and values (in hex) */
+    private static final byte[] SET_SERVO_TEMPLATE = (SET_CMD + SERVO_OUTPUT).getBytes();
+    private static final byte[] SET_BUZZER_TEMPLATE = (SET_CMD + BUZZER_OUTPUT).getBytes();
+    private static final byte[] SET_TRI_TEMPLATE = (SET_CMD + "l").getBytes();
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+    private static final byte[] STOP_REQUEST = {STOP_PERIPH_CMD};
+    /* "sl1,64,64,64\r" */
+    static final int MAX_COMMAND_LENGTH = 13;
+    /* 3 TriLEDs, 3 servos and the buzzer */
+    private static final int MAX_CHANGES = 7;
+
+    /* Changes made within this long of the last send are sent together, in the next send */
+    private static final int MIN_SEND_GAP_IN_MILLIS = 15;
+    private static final int COMMAND_TIMEOUT_IN_MILLIS = 5000;
+
+    private static final byte[] READ_REQUEST = {READ_CMD};
+
+    private static final int SENSOR_PORT_COUNT = 3;
+    private static final int SENSOR_HISTORY_CAPACITY = 1024;
+    /* Time between the start of two polls, while the sensors are in use (see setSensorPollInterval) */
+    private static final int DEFAULT_SENSOR_POLL_INTERVAL_IN_MILLIS = 50;
+    private static final int MIN_SENSOR_POLL_INTERVAL_IN_MILLIS = 20;
+    private static final int MAX_SENSOR_POLL_INTERVAL_IN_MILLIS = 1000;
+    /* Polling stops when no sensor has been read (and there are no subscriptions) for this long */
+    private static final int SENSOR_IDLE_TIMEOUT_IN_MILLIS = 5000;
+
     private MelodySmartConnection conn;
+    /* Runs the connection at high priority while a program is using the Flutter */
+    private final ConnectionTuning tuning;
+
+    /* Held while encoding newState (so batches go out together), and by callers waiting for delivery */
+    private final ReentrantLock lock;
+    /* Which version of newState the Flutter has, for callers waiting for delivery */
+    private final OutputDelivery delivery;
+    /* What the Flutter has for each output (only touched by sendToRobot and stopAll) */
+    private final byte[] deliveredFrame;
+    private final byte[] defaultFrame;
+
+    /*
+     * The MelodySmart connection's writes block until the Flutter answers, so sends and polls run
+     * on the Flutter's own I/O thread (one at a time), and the shared RobotScheduler only times them
+     */
+    private final ExecutorService io;
+    private final Runnable sendRunnable;
+    private final AtomicBoolean sendScheduled = new AtomicBoolean(false);
+    private volatile long lastSent = 0;
+
+    /* Scratch space for encoding a command */
+    private final byte[] commandBuffer = new byte[MAX_COMMAND_LENGTH];
+
+    /*
+     * Commands of a send, back to back, with the output values each one sets. They are packed
+     * into as few writes as fit, instead of waiting for the response to each one
+     */
+    private final byte[] pipelineBuffer = new byte[MAX_CHANGES * (MAX_COMMAND_LENGTH + 1)];
+    private final int[] pipelineEnds = new int[MAX_CHANGES];
+    private final int[] pipelineOffsets = new int[MAX_CHANGES];
+    private final int[] pipelineValueLengths = new int[MAX_CHANGES];
+    private final boolean[] pipelineResults = new boolean[MAX_CHANGES];
+    private int pipelineCount;
+
+    private final AtomicLong bytesOnAir;
+    private final AtomicLong changeFramesSent;
+    private final SensorHistory sensorHistory = new SensorHistory(SENSOR_PORT_COUNT, SENSOR_HISTORY_CAPACITY);
+    private final SensorSubscriptions sensorSubscriptions = new SensorSubscriptions();
+
+    /* Sensors are polled in the background (on the I/O thread) while they are in use */
+    private volatile SensorReading latestReading;
+    private volatile int sensorPollIntervalMillis = DEFAULT_SENSOR_POLL_INTERVAL_IN_MILLIS;
+    private volatile long lastSensorUseMillis;
+    private volatile boolean disconnected = false;
+    private final AtomicBoolean polling = new AtomicBoolean(false);
+    private final Runnable pollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (disconnected) {
+                polling.set(false);
+                return;
+            }
+            pollSensors();
+            if (!sensorsInUse()) {
+                // Stop, and make the next read poll right away instead of using this old reading
+                polling.set(false);
+                latestReading = null;
+                // Unless the sensors were used again in the meantime
+                if (!sensorsInUse() || !polling.compareAndSet(false, true)) return;
+            }
+            RobotScheduler.schedule(this, sensorPollIntervalMillis, io);
+        }
+    };
 
     /**
      * Initializes a Flutter device
@@ -41,11 +136,52 @@ public class Flutter extends Robot<FLState> {
      * @param conn Connection established with the Flutter device
      */
     public Flutter(MelodySmartConnection conn) {
+        super();
         this.conn = conn;
+        this.tuning = conn.getTuning();
+
+        oldState = new FLState();
+        newState = new FLState();
+        // Outputs are off when a Flutter connects
+        deliveredFrame = new FLState().setAll().clone();
+        defaultFrame = deliveredFrame.clone();
+
+        lock = new ReentrantLock();
+        delivery = new OutputDelivery(lock);
+
+        String macAddress = getMacAddress();
+        io = RobotScheduler.newIoExecutor("Flutter-" + macAddress);
+        bytesOnAir = Metrics.robotCounter("bytes_on_air", macAddress);
+        changeFramesSent = Metrics.robotCounter("change_frames_sent", macAddress);
+
+        sendRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (disconnected) return;
+                // Any change made from now on needs another send
+                sendScheduled.set(false);
+                trySend();
+                if (!statesEqual()) requestSend();
+            }
+        };
     }
 
     /**
-     * Sets the output of the given output type according to args
+     * Sets how often the sensors are polled while they are in use. Polling more often makes
+     * readings fresher, but every poll is a round trip that outputs being sent wait behind.
+     *
+     * @param millis Time between the start of two polls, clamped to
+     *               [{@value #MIN_SENSOR_POLL_INTERVAL_IN_MILLIS}, {@value #MAX_SENSOR_POLL_INTERVAL_IN_MILLIS}]
+     */
+    public void setSensorPollInterval(int millis) {
+        sensorPollIntervalMillis = Math.max(MIN_SENSOR_POLL_INTERVAL_IN_MILLIS,
+                Math.min(MAX_SENSOR_POLL_INTERVAL_IN_MILLIS, millis));
+    }
+
+    /**
+     * Sets the output of the given output type according to args. Returns as soon as the
+     * output is recorded, unless args has wait=true, in which case it returns once the output
+     * has been sent to the Flutter.
      *
      * @param outputType Type of the output
      * @param args       Arguments for setting the output
@@ -53,79 +189,326 @@ public class Flutter extends Robot<FLState> {
      */
     @Override
     public boolean setOutput(String outputType, Map<String, List<String>> args) {
+        boolean wait = waitRequested(args);
+        if (!applyOutput(outputType, args)) return false;
+        tuning.markActive(System.currentTimeMillis());
+        requestSend();
+        return !wait || awaitDelivery();
+    }
+
+    /**
+     * Sets the output of the given output type to already-parsed values. Doesn't wait for it to
+     * be sent.
+     *
+     * @param outputType Type of the output
+     * @param port       Port of the output (unused by the buzzer)
+     * @param values     Values of the output (angle, red, green and blue, or volume and frequency)
+     * @return True if the output was successfully set, false otherwise
+     */
+    @Override
+    public boolean setOutput(String outputType, int port, int[] values) {
+        boolean success;
         switch (outputType) {
             case "servo":
-                return setServo(Integer.parseInt(args.get("port").get(0)), Integer.parseInt(args.get("angle").get(0)));
+                success = setServo(port, values[0]);
+                break;
             case "triled":
-                return setTriLED(Integer.parseInt(args.get("port").get(0)), Integer.parseInt(args.get("red").get(0)), Integer.parseInt(args.get("green").get(0)),
-                        Integer.parseInt(args.get("blue").get(0)));
+                success = setTriLED(port, values[0], values[1], values[2]);
+                break;
             case "buzzer":
-                return setBuzzer(Integer.parseInt(args.get("volume").get(0)), Integer.parseInt(args.get("frequency").get(0)));
+                success = setBuzzer(values[0], values[1]);
+                break;
+            default:
+                return false;
+        }
+        if (success) {
+            tuning.markActive(System.currentTimeMillis());
+            requestSend();
+        }
+        return success;
+    }
+
+    /**
+     * Sets all the given outputs in newState while holding the send lock, so that they are
+     * all sent to the Flutter in the same pass. Doesn't wait for them to be sent.
+     *
+     * @param outputTypes Types of the outputs to be set
+     * @param args        Arguments for setting each output (same order as outputTypes)
+     * @return Whether each output was successfully set (same order as outputTypes)
+     */
+    @Override
+    public boolean[] setOutputs(List<String> outputTypes, List<Map<String, List<String>>> args) {
+        boolean[] results = new boolean[outputTypes.size()];
+        lock.lock();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = applyOutput(outputTypes.get(i), args.get(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+        tuning.markActive(System.currentTimeMillis());
+        requestSend();
+        return results;
+    }
+
+    /**
+     * Writes a single output into newState, without waiting for earlier changes to be sent.
+     *
+     * @param outputType Type of the output
+     * @param args       Arguments for setting the output
+     * @return True if the output was recognized and set, false otherwise
+     */
+    private boolean applyOutput(String outputType, Map<String, List<String>> args) {
+        try {
+            switch (outputType) {
+                case "servo":
+                    return setServo(Integer.parseInt(args.get("port").get(0)), Integer.parseInt(args.get("angle").get(0)));
+                case "triled":
+                    return setTriLED(Integer.parseInt(args.get("port").get(0)), Integer.parseInt(args.get("red").get(0)), Integer.parseInt(args.get("green").get(0)),
+                            Integer.parseInt(args.get("blue").get(0)));
+                case "buzzer":
+                    return setBuzzer(Integer.parseInt(args.get("volume").get(0)), Integer.parseInt(args.get("frequency").get(0)));
+            }
+        } catch (NumberFormatException | NullPointerException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "Invalid arguments for flutter output " + outputType + ": " + e.getMessage());
         }
         return false;
     }
 
-    // TODO: Should be almost same as Hummingbird's. So, I suggest implementing this in the Robot class.
+    /**
+     * Schedules a send as soon as the minimum gap since the last send allows, unless one is
+     * already scheduled. Called whenever newState changes.
+     */
+    private void requestSend() {
+        if (!disconnected && sendScheduled.compareAndSet(false, true)) {
+            RobotScheduler.schedule(sendRunnable, lastSent + MIN_SEND_GAP_IN_MILLIS - System.currentTimeMillis(), io);
+        }
+    }
+
+    private void trySend() {
+        try {
+            sendToRobot();
+        } catch (NullPointerException e) {
+            Log.e(TAG, "Sending failed " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes newState, without splitting a batch of outputs being set by setOutputs across
+     * two sends.
+     */
+    private byte[] encodeNewState() {
+        lock.lock();
+        try {
+            return newState.setAll();
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /**
-     * Actually sends the commands to the physical Flutter,
-     * based on certain conditions. (Used only for setAll,
-     * which doesn't exist on Flutters yet)
+     * Waits until newState (as of now) has been delivered to the Flutter.
+     *
+     * @return True if it was delivered, false if that timed out
+     */
+    private boolean awaitDelivery() {
+        try {
+            return delivery.await(newState.getVersion(), COMMAND_TIMEOUT_IN_MILLIS);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while waiting for flutter outputs to be sent: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Actually sends the commands to the physical Flutter: one command for each output whose
+     * newest value differs from what the Flutter has (values set in between sends replace each
+     * other, so only the newest one goes out). The Flutter has no setAll command. If nothing
+     * changed (e.g. an output was set to the value it already has), the Flutter already has
+     * newState, so the callers waiting for it are done.
      */
     @Override
-    public void sendToRobot() {
+    public synchronized void sendToRobot() {
+        if (delivery.markDeliveredIfUnchanged(oldState, newState)) return;
+        lastSent = System.currentTimeMillis();
+        byte[] frame = encodeNewState();
+        long version = newState.getSetAllVersion();
+        pipelineCount = 0;
+        for (int port = 1; port <= 3; port++) {
+            int i = FLState.TRILEDS_OFFSET + 3 * (port - 1);
+            if (changed(frame, i, 3)) {
+                queueChange(encodeTriLED(port, frame[i], frame[i + 1], frame[i + 2], commandBuffer), i, 3);
+            }
+        }
+        for (int port = 1; port <= 3; port++) {
+            int i = FLState.SERVOS_OFFSET + port - 1;
+            if (changed(frame, i, 1)) {
+                queueChange(encodeServo(port, frame[i], commandBuffer), i, 1);
+            }
+        }
+        int i = FLState.BUZZERS_OFFSET;
+        if (changed(frame, i, 3)) {
+            short frequency = (short) (((frame[i + 1] & 0xff) << 8) | (frame[i + 2] & 0xff));
+            queueChange(encodeBuzzer(frame[i], frequency, commandBuffer), i, 3);
+        }
+        if (pipelineCount == 0 || sendPipelined(frame)) {
+            // The Flutter now has everything in frame
+            oldState.copySetAll(newState);
+            delivery.markDelivered(version);
+            RobotStatusTracker.report(getMacAddress(), true);
+        }
+    }
+
+    private boolean changed(byte[] frame, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (frame[i] != deliveredFrame[i]) return true;
+        }
+        return false;
     }
 
     /**
-     * Sets the RGB values of a tri-color LED connected to the given port
+     * Appends the command in commandBuffer to the pipelined send, terminated with CR (which the
+     * servo command otherwise goes without) so the Flutter can tell the commands of a write apart
+     */
+    private void queueChange(int length, int offset, int valuesLength) {
+        int start = (pipelineCount == 0) ? 0 : pipelineEnds[pipelineCount - 1];
+        System.arraycopy(commandBuffer, 0, pipelineBuffer, start, length);
+        int end = start + length;
+        if (pipelineBuffer[end - 1] != CR) {
+            pipelineBuffer[end++] = CR;
+        }
+        pipelineEnds[pipelineCount] = end;
+        pipelineOffsets[pipelineCount] = offset;
+        pipelineValueLengths[pipelineCount] = valuesLength;
+        pipelineCount++;
+    }
+
+    /**
+     * Sends the queued commands pipelined, and records that the Flutter has the values set by
+     * each command it answered with OK
      *
-     * @param port     Port number that the LED is connected to
-     * @param rPercent Percentage [0,100] to set R to
-     * @param gPercent Percentage [0,100] to set G to
-     * @param bPercent Percentage [0,100] to set B to
-     * @return True if the command succeeded, false otherwise
+     * @return True if every command was answered with OK
      */
-    private boolean setTriLED(int port, int rPercent, int gPercent, int bPercent) {
-        byte r = clampToBounds(Math.round(rPercent), 0, 100);
-        byte g = clampToBounds(Math.round(gPercent), 0, 100);
-        byte b = clampToBounds(Math.round(bPercent), 0, 100);
-        boolean check = conn.writeBytes(String.format(SET_TRI_CMD, port, r, g, b).getBytes());
-        return check;
+    private boolean sendPipelined(byte[] frame) {
+        int ok = conn.writeCommands(pipelineBuffer, pipelineEnds, pipelineCount, pipelineResults);
+        for (int c = 0; c < pipelineCount; c++) {
+            if (pipelineResults[c]) {
+                System.arraycopy(frame, pipelineOffsets[c], deliveredFrame, pipelineOffsets[c], pipelineValueLengths[c]);
+            }
+        }
+        if (ok > 0) {
+            // The write reached the Flutter
+            bytesOnAir.addAndGet(pipelineEnds[pipelineCount - 1]);
+            changeFramesSent.addAndGet(pipelineCount);
+        }
+        return ok == pipelineCount;
     }
 
     /**
-     * Sets the RGB values of a tri-color LED connected to the given port
-     * to their default values (of R: 0, G: 0, B: 0).
+     * Encodes a set TriLED command, such as "sl1,64,0,a\r" (the intensities are in hex)
      *
-     * @param port     Port number that the LED is connected to
-     * @return True if the command succeeded, false otherwise
+     * @param port  Port of the TriLED
+     * @param red   Intensity [0,100] of red
+     * @param green Intensity [0,100] of green
+     * @param blue  Intensity [0,100] of blue
+     * @param out   Array of at least MAX_COMMAND_LENGTH bytes, that the command is written into
+     * @return The length of the command
      */
-    private boolean resetTriLED(int port) {
-        boolean check = conn.writeBytes(String.format(SET_TRI_CMD, port, 0, 0, 0).getBytes());
-        return check;
+    static int encodeTriLED(int port, byte red, byte green, byte blue, byte[] out) {
+        int length = putTemplate(SET_TRI_TEMPLATE, out, 0);
+        out[length++] = portDigit(port);
+        out[length++] = ',';
+        length = putHex(red & 0xff, out, length);
+        out[length++] = ',';
+        length = putHex(green & 0xff, out, length);
+        out[length++] = ',';
+        length = putHex(blue & 0xff, out, length);
+        out[length++] = CR;
+        return length;
     }
 
     /**
-     * Sets the angle of the servo connected to the given port
+     * Encodes a set servo command, such as "ss1,e1" (the angle is in hex)
      *
-     * @param port  Port number that the servo is connected to
-     * @param angle Percentage [0,100] to set the intensity to
-     * @return True if the command succeeded, false otherwise
+     * @param port  Port of the servo
+     * @param angle Angle [0,225] of the servo
+     * @param out   Array of at least MAX_COMMAND_LENGTH bytes, that the command is written into
+     * @return The length of the command
      */
-    private boolean setServo(int port, int angle) {
-        byte angleByte = clampToBounds(Math.round(angle * 1.25), 0, 225);
-        return conn.writeBytes(String.format(SET_SERVO_CMD, port, angleByte).getBytes());
+    static int encodeServo(int port, byte angle, byte[] out) {
+        int length = putTemplate(SET_SERVO_TEMPLATE, out, 0);
+        out[length++] = portDigit(port);
+        out[length++] = ',';
+        return putHex(angle & 0xff, out, length);
+    }
+
+    /**
+     * Encodes a set buzzer command, such as "sz,32,1b8\r" (the volume and frequency are in hex)
+     *
+     * @param volume    Volume [0,100] of the buzzer
+     * @param frequency Frequency [0,20000] of the buzzer
+     * @param out       Array of at least MAX_COMMAND_LENGTH bytes, that the command is written into
+     * @return The length of the command
+     */
+    static int encodeBuzzer(byte volume, short frequency, byte[] out) {
+        int length = putTemplate(SET_BUZZER_TEMPLATE, out, 0);
+        out[length++] = ',';
+        length = putHex(volume & 0xff, out, length);
+        out[length++] = ',';
+        length = putHex(frequency & 0xffff, out, length);
+        out[length++] = CR;
+        return length;
+    }
+
+    private static int putTemplate(byte[] template, byte[] out, int length) {
+        System.arraycopy(template, 0, out, length, template.length);
+        return length + template.length;
+    }
+
+    private static int putHex(int value, byte[] out, int length) {
+        int digits = 1;
+        while ((value >>> (4 * digits)) != 0) digits++;
+        for (int d = digits - 1; d >= 0; d--) {
+            out[length++] = HEX_DIGITS[(value >>> (4 * d)) & 0xf];
+        }
+        return length;
+    }
+
+    private static byte portDigit(int port) {
+        // Adding 48 to a number 0-9 makes it ascii
+        return (byte) (port + 48);
     }
 
     /**
-     * Resets the angle of the servo connected to the given port
-     * to its default value (of angle: 255)
+     * Sets the RGB values of a tri-color LED connected to the given port
+     *
+     * @param port     Port number that the LED is connected to
+     * @param rPercent Percentage [0,100] to set R to
+     * @param gPercent Percentage [0,100] to set G to
+     * @param bPercent Percentage [0,100] to set B to
+     * @return True if the value was recorded, false otherwise
+     */
+    private boolean setTriLED(int port, int rPercent, int gPercent, int bPercent) {
+        TriLED triled = newState.getTriLED(port);
+        if (triled == null) return false;
+        triled.setValue(clampToBounds(Math.round(rPercent), 0, 100), clampToBounds(Math.round(gPercent), 0, 100),
+                clampToBounds(Math.round(bPercent), 0, 100));
+        return true;
+    }
+
+    /**
+     * Sets the angle of the servo connected to the given port
      *
      * @param port  Port number that the servo is connected to
-     * @return True if the command succeeded, false otherwise
+     * @param angle Percentage [0,100] to set the intensity to
+     * @return True if the value was recorded, false otherwise
      */
-    private boolean resetServo(int port) {
-        return conn.writeBytes(String.format(SET_SERVO_CMD, port, 255).getBytes());
+    private boolean setServo(int port, int angle) {
+        Servo servo = newState.getServo(port);
+        if (servo == null) return false;
+        servo.setValue(clampToBounds(Math.round(angle * 1.25), 0, 225));
+        return true;
     }
 
     /**
@@ -133,40 +516,51 @@ public class Flutter extends Robot<FLState> {
      *
      * @param volume    Percentage [0,100] to set the volume to
      * @param frequency Percentage [0,20000] to set the frequency to
-     * @return True if the command succeeded, false otherwise
+     * @return True if the value was recorded, false otherwise
      */
     private boolean setBuzzer(int volume, int frequency) {
-        byte volumeByte = clampToBounds(Math.round(volume), 0, 100);
-        short frequency2Bytes = clampShortToBounds(Math.round(frequency), 0, 20000);
-        return conn.writeBytes(String.format(SET_BUZZER_CMD, volumeByte, frequency2Bytes).getBytes());
+        newState.setBuzzerVF(1, clampToBounds(Math.round(volume), 0, 100), clampShortToBounds(Math.round(frequency), 0, 20000));
+        return true;
     }
 
     /**
-     * Resets the volume and frequency of the buzzer to their
-     * default values (of volume: 0, frequency: 0)
+     * The order of outputs to turn off are: 1) Buzzer 2) Servos 3) TriLEDs
+     * Sending the {@value #STOP_PERIPH_CMD} achieves the same thing in a single command.
      *
      * @return True if the command succeeded, false otherwise
      */
-    private boolean resetBuzzer() {
-        return conn.writeBytes(String.format(SET_BUZZER_CMD, 0, 0).getBytes());
+    public boolean stopAll() {
+        lock.lock();
+        try {
+            newState.resetAll();
+        } finally {
+            lock.unlock();
+        }
+        boolean success;
+        synchronized (this) {
+            success = conn.writeBytes(STOP_REQUEST);
+            if (success) {
+                System.arraycopy(defaultFrame, 0, deliveredFrame, 0, defaultFrame.length);
+            }
+        }
+        // Sends anything set since (or everything, if the stop failed)
+        requestSend();
+        // The program has stopped
+        tuning.markIdle(System.currentTimeMillis());
+        return success;
     }
 
     /**
-     * The order of outputs to turn off are: 1) Buzzer 2) Servos 3) TriLEDs
-     * Sending the {@value #STOP_PERIPH_CMD} also achieves the same thing.
+     * Reads the value of the sensor at the given port and returns the formatted value according to
+     * sensorType
      *
-     * @return True if the command succeeded, false otherwise
+     * @param sensorType Type of sensor connected to the port (dictates format of the returned
+     *                   value)
+     * @param portString Port that the sensor is connected to
+     * @return A string representing the value of the sensor
      */
-    public boolean stopAll() {
-//        boolean success = resetBuzzer();
-//        for (int i = 1; i <= 3; i++) {
-//            success &= resetServo(i);
-//        }
-//        for (int i = 1; i <= 3; i++) {
-//            success &= resetTriLED(i);
-//        }
-//        return success;
-        return conn.writeBytes(new byte[]{STOP_PERIPH_CMD});
+    public String readSensor(String sensorType, String portString) {
+        return readSensor(sensorType, Integer.parseInt(portString));
     }
 
     /**
@@ -175,51 +569,217 @@ public class Flutter extends Robot<FLState> {
      *
      * @param sensorType Type of sensor connected to the port (dictates format of the returned
      *                   value)
-     * @param portString Port that the sensor is connected to
+     * @param port       Port that the sensor is connected to
      * @return A string representing the value of the sensor
      */
-    public String readSensor(String sensorType, String portString) {
-        byte[] responseBytes = conn.writeBytesWithResponse(new byte[]{READ_CMD});
-        if (responseBytes == null || responseBytes.length == 0) {
+    @Override
+    public String readSensor(String sensorType, int port) {
+        SensorReading reading = latestSensorReading();
+        if (reading == null) {
+            return null;
+        }
+        if (port < 1 || port > SENSOR_PORT_COUNT) {
+            Log.e(TAG, "Invalid sensor port " + port);
+            return null;
+        }
+        return formatSensorValue(sensorType, reading, port);
+    }
+
+    /**
+     * Reads every sensor port of the Flutter, all from the same reading
+     *
+     * @param sensorTypes Type of sensor connected to each port, starting at port 1
+     * @return A string representing the value of each port, or null if they couldn't be read
+     */
+    @Override
+    public String[] readAllSensors(String[] sensorTypes) {
+        SensorReading reading = latestSensorReading();
+        if (reading == null) {
             return null;
         }
-        if (responseBytes[0] != READ_CMD) {
+        String[] result = new String[SENSOR_PORT_COUNT];
+        for (int i = 0; i < result.length; i++) {
+            String sensorType = (sensorTypes != null && i < sensorTypes.length) ? sensorTypes[i] : null;
+            result[i] = formatSensorValue(sensorType, reading, i + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the latest reading of the sensors, and keeps the sensors polled for a while. The
+     * first read (and any read after polling stopped or failed) reads the sensors right away.
+     *
+     * @return The latest reading, or null if the sensors couldn't be read
+     */
+    private SensorReading latestSensorReading() {
+        keepPollingSensors();
+        SensorReading reading = latestReading;
+        return (reading != null) ? reading : pollSensors();
+    }
+
+    /**
+     * Starts polling the sensors in the background (if they aren't being polled already), and
+     * keeps polling them for the next SENSOR_IDLE_TIMEOUT_IN_MILLIS
+     */
+    private void keepPollingSensors() {
+        lastSensorUseMillis = System.currentTimeMillis();
+        tuning.markActive(lastSensorUseMillis);
+        if (!disconnected && polling.compareAndSet(false, true)) {
+            RobotScheduler.schedule(pollRunnable, sensorPollIntervalMillis, io);
+        }
+    }
+
+    private boolean sensorsInUse() {
+        return System.currentTimeMillis() - lastSensorUseMillis <= SENSOR_IDLE_TIMEOUT_IN_MILLIS
+                || !sensorSubscriptions.isEmpty();
+    }
+
+    /**
+     * Sends a read command to the Flutter, records the response in the sensor history, and
+     * evaluates the sensor subscriptions against it
+     *
+     * @return The reading, or null if there was no valid response
+     */
+    private SensorReading pollSensors() {
+        byte[] responseBytes = conn.writeBytesWithResponse(READ_REQUEST);
+        if (responseBytes != null && responseBytes.length > 0 && responseBytes[0] != READ_CMD) {
             Log.e(TAG, "Received invalid response to read command: " + Arrays.toString(responseBytes));
         }
-        int port = Integer.parseInt(portString);
-
-        // Response is given in percent
-        String[] response = new String(responseBytes).split(",");
-        String sensorPercent = response[port];
-
-        // Convert so that it is backward compatible with conversion library
-        byte rawSensorValue = DeviceUtil.PercentToRaw(Double.parseDouble(sensorPercent));
-
-        switch (sensorType) {
-            case "distance":
-                return Double.toString(DeviceUtil.RawToDist(rawSensorValue));
-            case "temperature":
-                return Double.toString(DeviceUtil.RawToTemp(rawSensorValue));
-            case "soil":
-                return Double.toString(clampToBounds(Double.parseDouble(sensorPercent), 0.0, 90.0));
-            case "sound":
-            case "light":
-            case "sensor":
-            default:
-                return sensorPercent;
+        SensorReading reading = SensorReading.parse(responseBytes, SENSOR_PORT_COUNT);
+        if (reading == null) {
+            Log.e(TAG, "Received invalid response to read command: " + Arrays.toString(responseBytes));
+            latestReading = null;
+            return null;
         }
+        synchronized (sensorHistory) {
+            sensorHistory.record(reading.timeMillis, reading.raw);
+            sensorSubscriptions.evaluate(reading.raw);
+        }
+        latestReading = reading;
+        return reading;
+    }
+
+    @Override
+    public SensorHistory getSensorHistory() {
+        return sensorHistory;
+    }
+
+    /**
+     * @return The MTU and connection priority negotiated with the Flutter
+     */
+    @Override
+    public ConnectionTuning getConnectionTuning() {
+        return tuning;
+    }
+
+    /**
+     * Subscriptions are evaluated against every poll of the sensors, so the sensors are polled
+     * for as long as there are subscriptions
+     */
+    @Override
+    public SensorSubscriptions getSensorSubscriptions() {
+        keepPollingSensors();
+        return sensorSubscriptions;
     }
 
     /**
-     * Computes the ascii byte of the port number
+     * Converts a port of a reading according to sensorType
      *
-     * @param port Integer port to convert
-     * @return Ascii representation of the port
+     * @param sensorType Type of sensor connected to the port (null for a percentage)
+     * @param reading    The reading
+     * @param port       The port, starting at 1
+     * @return A string representing the value of the sensor
      */
-    private byte computePort(int port) {
-        // TODO: Error handling for invalid ports
-        // Adding 48 to a number 0-9 makes it ascii
-        return (byte) ((port) + 48);
+    private String formatSensorValue(String sensorType, SensorReading reading, int port) {
+        if (sensorType != null) {
+            switch (sensorType) {
+                case "distance":
+                case "temperature":
+                case "voltage":
+                    // Converted from the raw value, so that it is backward compatible with conversion library
+                    return SensorTables.format(sensorType, reading.raw[port - 1]);
+                case "soil":
+                    return Double.toString(clampToBounds(reading.percents[port - 1], 0.0, 90.0));
+            }
+        }
+        // Sound, light and generic sensors are given as the Flutter reports them, in percent
+        return SensorReading.formatPercent(reading.percents[port - 1]);
+    }
+
+    /**
+     * A response to the read command, parsed into the percent and (backward compatible) raw
+     * value of each port
+     */
+    static final class SensorReading {
+        private static final String[] PERCENT_STRINGS = new String[101];
+
+        static {
+            for (int i = 0; i < PERCENT_STRINGS.length; i++) {
+                PERCENT_STRINGS[i] = Integer.toString(i);
+            }
+        }
+
+        final long timeMillis;
+        final double[] percents;
+        final byte[] raw;
+
+        private SensorReading(long timeMillis, int ports) {
+            this.timeMillis = timeMillis;
+            this.percents = new double[ports];
+            this.raw = new byte[ports];
+        }
+
+        /**
+         * Parses a response such as "r,57,32,100" straight from its bytes (instead of splitting
+         * it into Strings)
+         *
+         * @param response The response
+         * @param ports    Number of ports expected in the response
+         * @return The reading, or null if the response isn't a valid reading
+         */
+        static SensorReading parse(byte[] response, int ports) {
+            if (response == null || response.length == 0) {
+                return null;
+            }
+            SensorReading reading = new SensorReading(System.currentTimeMillis(), ports);
+            // Skip the echoed command
+            int i = 0;
+            while (i < response.length && response[i] != ',') i++;
+            for (int port = 0; port < ports; port++) {
+                if (i >= response.length || response[i] != ',') return null;
+                i++;
+                long whole = 0, fraction = 0, scale = 1;
+                boolean digits = false, decimals = false;
+                for (; i < response.length && response[i] != ','; i++) {
+                    byte b = response[i];
+                    if (b >= '0' && b <= '9') {
+                        digits = true;
+                        if (decimals) {
+                            fraction = fraction * 10 + (b - '0');
+                            scale *= 10;
+                        } else {
+                            whole = whole * 10 + (b - '0');
+                        }
+                    } else if (b == '.' && !decimals) {
+                        decimals = true;
+                    } else if (b != ' ' && b != '\r' && b != '\n') {
+                        return null;
+                    }
+                }
+                if (!digits) return null;
+                reading.percents[port] = whole + (double) fraction / scale;
+                reading.raw[port] = DeviceUtil.PercentToRaw(reading.percents[port]);
+            }
+            return reading;
+        }
+
+        static String formatPercent(double percent) {
+            int whole = (int) percent;
+            if (whole == percent && whole >= 0 && whole < PERCENT_STRINGS.length) {
+                return PERCENT_STRINGS[whole];
+            }
+            return (whole == percent) ? Integer.toString(whole) : Double.toString(percent);
+        }
     }
 
     /**
@@ -286,6 +846,9 @@ public class Flutter extends Robot<FLState> {
      * Disconnects the device
      */
     public void disconnect() {
+        disconnected = true;
+        sensorSubscriptions.clear();
+        io.shutdown();
         conn.disconnect();
     }
 
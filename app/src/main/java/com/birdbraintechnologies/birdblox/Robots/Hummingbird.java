@@ -1,35 +1,31 @@
 package com.birdbraintechnologies.birdblox.Robots;
 
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.birdbraintechnologies.birdblox.Bluetooth.ConnectionTuning;
+import com.birdbraintechnologies.birdblox.Bluetooth.GattOperation;
 import com.birdbraintechnologies.birdblox.Bluetooth.UARTConnection;
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.HBState;
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.RobotStateObject;
-import com.birdbraintechnologies.birdblox.Util.DeviceUtil;
+import com.birdbraintechnologies.birdblox.Util.Metrics;
 import com.birdbraintechnologies.birdblox.Util.NamingHandler;
+import com.birdbraintechnologies.birdblox.Util.SensorTables;
 
 import java.io.UnsupportedEncodingException;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
-import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.disposables.Disposable;
-
 import static android.content.ContentValues.TAG;
 import static com.birdbraintechnologies.birdblox.MainWebView.bbxEncode;
 import static com.birdbraintechnologies.birdblox.MainWebView.mainWebViewContext;
 import static com.birdbraintechnologies.birdblox.MainWebView.runJavascript;
 import static com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.RobotRequestHandler.hummingbirdsToConnect;
-import static io.reactivex.android.schedulers.AndroidSchedulers.from;
 
 /**
  * Represents a Hummingbird device and all of its functionality: Setting outputs, reading sensors
@@ -54,11 +50,14 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
     private static final byte PING_CMD = 'z';
     private static final String RENAME_CMD = "AT+GAPDEVNAME";
 
-    private static final int SETALL_INTERVAL_IN_MILLIS = 32;
+    private static final int SENSOR_PORT_COUNT = 4;
+    private static final int SENSOR_HISTORY_CAPACITY = 1024;
+
+    /* Changes made within this long of the last frame are sent together, in the next frame */
+    private static final int MIN_SEND_GAP_IN_MILLIS = 15;
     private static final int COMMAND_TIMEOUT_IN_MILLIS = 5000;
     private static final int SEND_ANYWAY_INTERVAL_IN_MILLIS = 4000;
     private static final int START_SENDING_INTERVAL_IN_MILLIS = 0;
-    private static final int MONITOR_CONNECTION_INTERVAL_IN_MILLIS = 1000;
     private static final int MAX_NO_G4_RESPONSE_BEFORE_DISCONNECT_IN_MILLIS = 10000;
     private static final int MAX_NO_NORMAL_RESPONSE_BEFORE_DISCONNECT_IN_MILLIS = 5000;
 
@@ -73,25 +72,66 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
     private static final byte latestFirmwareVersion2 = 2;
     private static final String latestFirmwareVersion3 = "b";
 
+    private static final byte[] G4_REQUEST = "G4".getBytes();
+    /* The response to G4: the hardware version (2 bytes), then the firmware version, as in {1, 3, 2, 2, 'b'} */
+    private static final UARTConnection.ResponseFilter G4_RESPONSE = new UARTConnection.ResponseFilter() {
+        @Override
+        public boolean isResponse(byte[] frame) {
+            return frame.length >= 5 && frame[2] >= 0 && frame[2] <= 9 && frame[3] >= 0 && frame[3] <= 9
+                    && frame[4] >= 'a' && frame[4] <= 'z';
+        }
+    };
+    /* The response to G5 is the first frame of sensor values */
+    private static final UARTConnection.ResponseFilter SENSOR_FRAME = new UARTConnection.ResponseFilter() {
+        @Override
+        public boolean isResponse(byte[] frame) {
+            return frame.length >= SENSOR_PORT_COUNT;
+        }
+    };
+
     private AtomicBoolean g4;
     private AtomicLong last_sent;
     private AtomicLong last_successfully_sent;
 
     private UARTConnection conn;
-    private byte[] rawSensorValues;
+    /* Runs the connection at high priority while a program is using the Hummingbird */
+    private final ConnectionTuning tuning;
+    private volatile byte[] rawSensorValues;
     private Object rawSensorValuesLock = new Object();
+    private final SensorHistory sensorHistory = new SensorHistory(SENSOR_PORT_COUNT, SENSOR_HISTORY_CAPACITY);
+    private final SensorSubscriptions sensorSubscriptions = new SensorSubscriptions();
 
+    /* Held while encoding a frame (so batches go out whole), and by callers waiting for delivery */
     private final ReentrantLock lock;
-    private final Condition doneSending;
-
-    private final HandlerThread sendThread;
-    private final HandlerThread monitorThread;
+    /* Which version of newState the Hummingbird has, for callers waiting for delivery */
+    private final OutputDelivery delivery;
 
-    private Disposable sendDisposable;
-    private Disposable monitorDisposable;
+    /*
+     * Sends, keepalives and connection monitoring all run on the shared RobotScheduler. A send
+     * doesn't wait for its write: the write's callback records the result and schedules the next.
+     */
+    private final Runnable sendRunnable;
+    private final Runnable keepaliveRunnable;
+    private final Runnable monitorRunnable;
+    private final GattOperation.Callback frameSent;
+    private final GattOperation.Callback g4Sent;
+    private final AtomicBoolean sendScheduled = new AtomicBoolean(false);
+    private volatile ScheduledFuture<?> keepaliveFuture;
+    private volatile boolean disconnected = false;
 
     private byte[] g4response;
 
+    /* Scratch space for encoding changes as individual commands, and arrays of each exact length to send them in */
+    private final byte[] changesBuffer = new byte[HBState.SETALL_LENGTH];
+    private final byte[][] changesFrames = new byte[HBState.SETALL_LENGTH][];
+
+    private final AtomicLong bytesOnAir;
+    private final AtomicLong setAllFramesSent;
+    private final AtomicLong changeFramesSent;
+    /* Length and kind of the output frame in flight, counted by frameSent if its write succeeds */
+    private int inFlightLength;
+    private AtomicLong inFlightFrames;
+
     /**
      * Initializes a Hummingbird device
      *
@@ -100,6 +140,7 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
     public Hummingbird(final UARTConnection conn) {
         super();
         this.conn = conn;
+        this.tuning = conn.getTuning();
 
         oldState = new HBState();
         newState = new HBState();
@@ -109,37 +150,57 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
         last_successfully_sent = new AtomicLong(System.currentTimeMillis());
 
         lock = new ReentrantLock();
-        doneSending = lock.newCondition();
+        delivery = new OutputDelivery(lock);
 
-        sendThread = new HandlerThread("SendThread");
-        if (!sendThread.isAlive())
-            sendThread.start();
-        from(sendThread.getLooper());
-        Runnable sendRunnable = new Runnable() {
+        String macAddress = getMacAddress();
+        bytesOnAir = Metrics.robotCounter("bytes_on_air", macAddress);
+        setAllFramesSent = Metrics.robotCounter("setall_frames_sent", macAddress);
+        changeFramesSent = Metrics.robotCounter("change_frames_sent", macAddress);
+
+        sendRunnable = new Runnable() {
+            @Override
+            public void run() {
+                if (disconnected) return;
+                // Any change made from now on needs another send
+                sendScheduled.set(false);
+                sendToRobot();
+            }
+        };
+        keepaliveRunnable = new Runnable() {
             @Override
             public void run() {
-                try {
-                    lock.tryLock(COMMAND_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
-                    sendToRobot();
-                    doneSending.signal();
-                } catch (NullPointerException | InterruptedException | IllegalMonitorStateException e) {
-                    Log.e("SENDHBSIG", "Signalling failed " + e.getMessage());
-                } finally {
-                    if (lock.isHeldByCurrentThread())
-                        lock.unlock();
+                if (disconnected) return;
+                sendToRobot();
+            }
+        };
+        frameSent = new GattOperation.Callback() {
+            @Override
+            public void onComplete(GattOperation operation) {
+                if (operation.isSuccessful()) {
+                    // Successfully sent Non-G4 command
+                    countSent(inFlightLength, inFlightFrames);
+                    last_successfully_sent.set(System.currentTimeMillis());
+                    markDelivered();
+                    RobotStatusTracker.report(getMacAddress(), true);
                 }
+                endSend();
             }
         };
-        sendDisposable = from(sendThread.getLooper()).schedulePeriodicallyDirect(sendRunnable,
-                START_SENDING_INTERVAL_IN_MILLIS, SETALL_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
-
-        monitorThread = new HandlerThread("SendThread");
-        if (!monitorThread.isAlive())
-            monitorThread.start();
+        g4Sent = new GattOperation.Callback() {
+            @Override
+            public void onComplete(GattOperation operation) {
+                if (operation.isSuccessful()) bytesOnAir.addAndGet(G4_REQUEST.length);
+                onG4Response(operation.isSuccessful() ? operation.getValue() : null);
+                endSend();
+            }
+        };
+        sendScheduled.set(true);
+        RobotScheduler.schedule(sendRunnable, START_SENDING_INTERVAL_IN_MILLIS);
 
-        Runnable monitorRunnable = new Runnable() {
+        monitorRunnable = new Runnable() {
             @Override
             public void run() {
+                if (disconnected) return;
                 if (last_successfully_sent == null) {
                     last_successfully_sent = new AtomicLong(System.currentTimeMillis());
                 }
@@ -156,97 +217,252 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
                         synchronized (hummingbirdsToConnect) {
                             hummingbirdsToConnect.add(getMacAddress());
                         }
-                        runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(getMacAddress()) + "', false);");
-                        new Thread() {
-                            @Override
-                            public void run() {
-                                super.run();
-                                disconnect();
-                            }
-                        }.start();
+                        RobotStatusTracker.report(getMacAddress(), false);
+                        disconnectInBackground();
                     } catch (Exception e) {
                         Log.e(TAG, "Exception while auto-disconnecting: " + e.getMessage());
                     }
                 }
             }
         };
-        monitorDisposable = AndroidSchedulers.from(monitorThread.getLooper()).schedulePeriodicallyDirect(monitorRunnable,
-                START_SENDING_INTERVAL_IN_MILLIS, MONITOR_CONNECTION_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+        RobotScheduler.addHealthCheck(monitorRunnable);
     }
 
     /**
-     * Actually sends the commands to the physical Hummingbird,
-     * based on certain conditions.
+     * Schedules a send as soon as the minimum gap since the last frame allows, unless one is
+     * already scheduled. Called whenever newState changes.
      */
-    public synchronized void sendToRobot() {
-        long currentTime = System.currentTimeMillis();
-        if (g4.get()) {
-            // Send here
-            setSendingTrue();
-            g4response = conn.writeBytesWithResponse("G4".getBytes());
-            if (g4response != null && g4response.length > 0) {
-                // Successfully sent G4 command
-                if (last_successfully_sent != null)
-                    last_successfully_sent.set(currentTime);
-                g4.set(false);
-                runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(getMacAddress()) + "', true);");
-                if (!hasMinFirmware()) {
-                    g4.set(true);
-                    runJavascript("CallbackManager.robot.disconnectIncompatible('" + bbxEncode(getMacAddress()) + "', '" + bbxEncode(getFirmwareVersion()) + "', '" + bbxEncode(getMinFirmwareVersion()) + "')");
-                    disconnect();
-                } else if (!hasLatestFirmware()) {
-                    runJavascript("CallbackManager.robot.updateFirmwareStatus('" + bbxEncode(getMacAddress()) + "', 'old')");
-                }
-            } else {
-                // Sending Non-G4 command failed
+    private void requestSend() {
+        if (!disconnected && sendScheduled.compareAndSet(false, true)) {
+            cancelKeepalive();
+            RobotScheduler.schedule(sendRunnable, last_sent.get() + MIN_SEND_GAP_IN_MILLIS - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Decides when the send thread should wake up next, after a send: right away (subject to the
+     * minimum gap) if there is still something to send, or else only when the keepalive frame is
+     * due. Nothing else wakes the send thread while the robot is idle. When there is nothing to
+     * send, the Hummingbird already has newState, so the callers waiting for it are done.
+     */
+    private void scheduleNextSend() {
+        if (g4.get() || !delivery.markDeliveredIfUnchanged(oldState, newState)) {
+            requestSend();
+        } else if (!disconnected) {
+            cancelKeepalive();
+            keepaliveFuture = RobotScheduler.schedule(keepaliveRunnable,
+                    last_sent.get() + SEND_ANYWAY_INTERVAL_IN_MILLIS - System.currentTimeMillis());
+        }
+    }
+
+    private void cancelKeepalive() {
+        ScheduledFuture<?> future = keepaliveFuture;
+        if (future != null) future.cancel(false);
+    }
+
+    /**
+     * Called once the write in flight has completed: schedules the next send
+     */
+    private void endSend() {
+        setSendingFalse();
+        scheduleNextSend();
+    }
+
+    /**
+     * Encodes newState into a setAll frame, without splitting a batch of outputs being set by
+     * setOutputs across two frames.
+     */
+    private byte[] encodeNewState() {
+        lock.lock();
+        try {
+            return newState.setAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encodes the changes from oldState (what the Hummingbird has) to newState, either as
+     * individual peripheral commands or as a whole setAll frame, whichever is shorter. Either
+     * way, they are sent in a single write.
+     */
+    private byte[] encodeChangedFrame() {
+        byte[] setAll = encodeNewState();
+        int length = encodeChanges(oldState.setAll(), setAll, changesBuffer);
+        if (length <= 0) return setAll;
+        byte[] frame = changesFrames[length];
+        if (frame == null) {
+            frame = changesFrames[length] = new byte[length];
+        }
+        System.arraycopy(changesBuffer, 0, frame, 0, length);
+        return frame;
+    }
+
+    /**
+     * Counts a frame that was successfully written to the Hummingbird
+     */
+    private void countSent(int length, AtomicLong frames) {
+        bytesOnAir.addAndGet(length);
+        frames.incrementAndGet();
+    }
+
+    /**
+     * Encodes the changes from one setAll frame to another as individual peripheral commands
+     * (e.g. {@value #LED_CMD}, port, intensity for a LED), which are shorter than a whole
+     * setAll frame when only a few outputs changed.
+     *
+     * @param from setAll frame that the Hummingbird currently has
+     * @param to   setAll frame that the Hummingbird should have
+     * @param out  Array of at least HBState.SETALL_LENGTH bytes, that the commands are written into
+     * @return The number of bytes written into out, or -1 if the whole setAll frame is shorter (or
+     * a change can't be sent as an individual command)
+     */
+    static int encodeChanges(byte[] from, byte[] to, byte[] out) {
+        int length = 0;
+        for (int port = 1; port <= 2; port++) {
+            int i = HBState.TRILEDS_OFFSET + 3 * (port - 1);
+            if (from[i] != to[i] || from[i + 1] != to[i + 1] || from[i + 2] != to[i + 2]) {
+                if (length + 5 >= HBState.SETALL_LENGTH) return -1;
+                out[length++] = TRI_LED_CMD;
+                out[length++] = portByte(port);
+                out[length++] = to[i];
+                out[length++] = to[i + 1];
+                out[length++] = to[i + 2];
+            }
+        }
+        length = encodeSingleByteChanges(LED_CMD, HBState.LEDS_OFFSET, 4, from, to, out, length);
+        length = encodeSingleByteChanges(SERVO_CMD, HBState.SERVOS_OFFSET, 4, from, to, out, length);
+        length = encodeSingleByteChanges(VIB_MOTOR_CMD, HBState.VIBRATORS_OFFSET, 2, from, to, out, length);
+        for (int port = 1; port <= 2 && length >= 0; port++) {
+            int i = HBState.MOTORS_OFFSET + port - 1;
+            if (from[i] != to[i]) {
+                if (length + 4 >= HBState.SETALL_LENGTH) return -1;
+                // setAll has the speed as a percentage with a sign bit, the motor command has a direction and [0,255]
+                out[length++] = MOTOR_CMD;
+                out[length++] = portByte(port);
+                out[length++] = (byte) (((to[i] & 0x80) == 0) ? '0' : '1');
+                out[length++] = (byte) Math.min(255, Math.round((to[i] & 0x7F) * 2.55));
+            }
+        }
+        return length;
+    }
+
+    private static int encodeSingleByteChanges(byte cmd, int offset, int ports, byte[] from, byte[] to, byte[] out, int length) {
+        for (int port = 1; port <= ports && length >= 0; port++) {
+            int i = offset + port - 1;
+            if (from[i] != to[i]) {
+                // A servo that is off (255) can only be set by setAll
+                if (length + 3 >= HBState.SETALL_LENGTH || (cmd == SERVO_CMD && to[i] == (byte) 255)) return -1;
+                out[length++] = cmd;
+                out[length++] = portByte(port);
+                out[length++] = to[i];
             }
-            setSendingFalse();
-            last_sent.set(currentTime);
-            return;
         }
-        // Not G4
+        return length;
+    }
+
+    private static byte portByte(int port) {
+        // Adding 48 to a number 0-9 makes it ascii
+        return (byte) ((port - 1) + 48);
+    }
+
+    /**
+     * Records that the last setAll frame encoded from newState was delivered to the Hummingbird,
+     * and wakes the callers waiting for it.
+     */
+    private void markDelivered() {
+        oldState.copySetAll(newState);
+        delivery.markDelivered(newState.getSetAllVersion());
+    }
+
+    /**
+     * Waits until newState (as of now) has been delivered to the Hummingbird.
+     *
+     * @return True if it was delivered, false if that timed out
+     */
+    private boolean awaitDelivery() {
+        try {
+            return delivery.await(newState.getVersion(), COMMAND_TIMEOUT_IN_MILLIS);
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while waiting for hummingbird outputs to be sent: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Actually sends the commands to the physical Hummingbird,
+     * based on certain conditions. Only starts the write (one at a time), without waiting for
+     * it: frameSent or g4Sent handle its result.
+     */
+    public synchronized void sendToRobot() {
         if (isCurrentlySending()) {
-            // do nothing in this case
+            // The write in flight schedules the next send when it completes
             return;
         }
-        // Not currently sending s
-        if (!statesEqual()) {
-            // Not currently sending, but oldState and newState are different
-            // Send here
-            setSendingTrue();
-            if (conn.writeBytes(newState.setAll())) {
-                // Successfully sent Non-G4 command
-                if (last_successfully_sent != null)
-                    last_successfully_sent.set(currentTime);
-                oldState.copy(newState);
-                runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(getMacAddress()) + "', true);");
-            } else {
-                // Sending Non-G4 command failed
-            }
-            setSendingFalse();
-            last_sent.set(currentTime);
-        } else {
-            // Not currently sending, and oldState and newState are the same
-            if (currentTime - last_sent.get() >= SEND_ANYWAY_INTERVAL_IN_MILLIS) {
+        long currentTime = System.currentTimeMillis();
+        try {
+            if (g4.get()) {
                 // Send here
                 setSendingTrue();
-                if (conn.writeBytes(newState.setAll())) {
-                    // Successfully sent Non-G4 command
-                    if (last_successfully_sent != null)
-                        last_successfully_sent.set(currentTime);
-                    oldState.copy(newState);
-                    runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(getMacAddress()) + "', true);");
-                } else {
-                    // Sending Non-G4 command failed
-                }
-                setSendingFalse();
                 last_sent.set(currentTime);
+                conn.submitWriteWithResponse(G4_REQUEST, G4_RESPONSE, g4Sent);
+                return;
+            }
+            // Not G4
+            byte[] frame;
+            if (!statesEqual()) {
+                // oldState and newState are different
+                frame = encodeChangedFrame();
+            } else if (currentTime - last_sent.get() >= SEND_ANYWAY_INTERVAL_IN_MILLIS) {
+                // oldState and newState are the same, but the keepalive is due
+                frame = encodeNewState();
+            } else {
+                scheduleNextSend();
+                return;
             }
+            // Send here (the frame's array is reused, but not before this write completes)
+            setSendingTrue();
+            last_sent.set(currentTime);
+            // Changes are only sent as individual commands when that is shorter than a setAll
+            inFlightLength = frame.length;
+            inFlightFrames = (frame.length == HBState.SETALL_LENGTH) ? setAllFramesSent : changeFramesSent;
+            conn.submitOutputFrame(frame, frameSent);
+        } catch (NullPointerException e) {
+            Log.e("SENDHBSIG", "Sending failed " + e.getMessage());
+            setSendingFalse();
+        }
+    }
+
+    /**
+     * Handles the response to G4 (the Hummingbird's versions), or its absence
+     *
+     * @param response The response, or null if there was none
+     */
+    private void onG4Response(byte[] response) {
+        g4response = (response != null) ? response : new byte[]{};
+        if (g4response.length == 0) {
+            // Sending G4 command failed
+            return;
+        }
+        // Successfully sent G4 command
+        last_successfully_sent.set(System.currentTimeMillis());
+        g4.set(false);
+        RobotStatusTracker.report(getMacAddress(), true);
+        if (!hasMinFirmware()) {
+            g4.set(true);
+            runJavascript("CallbackManager.robot.disconnectIncompatible('" + bbxEncode(getMacAddress()) + "', '" + bbxEncode(getFirmwareVersion()) + "', '" + bbxEncode(getMinFirmwareVersion()) + "')");
+            // No more sends, and the connection's writes can't be waited for from its callbacks
+            disconnected = true;
+            disconnectInBackground();
+        } else if (!hasLatestFirmware()) {
+            RobotStatusTracker.reportFirmwareOld(getMacAddress());
         }
     }
 
     /**
-     * Sets the output of the given output type according to args
+     * Sets the output of the given output type according to args. Returns as soon as the
+     * output is recorded, unless args has wait=true, in which case it returns once the output
+     * has been sent to the Hummingbird.
      *
      * @param outputType Type of the output
      * @param args       Arguments for setting the output
@@ -254,9 +470,10 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
      */
     @Override
     public boolean setOutput(String outputType, Map<String, List<String>> args) {
+        boolean wait = waitRequested(args);
         // Handle stop output type (since it doesn't have a port specification)
         if (outputType.equals("stop")) {
-            return stopAll();
+            return stopAll(wait);
         }
 
         // All remaining outputs are of the format: /out/<outputType>/<port>/<args>...
@@ -265,21 +482,112 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
 
         switch (outputType) {
             case "servo":
-                return setRbSOOutput(oldState.getServo(port), newState.getServo(port), Integer.parseInt(args.get("angle").get(0)));
+                return setRbSOOutput(newState.getServo(port), wait, Integer.parseInt(args.get("angle").get(0)));
             case "motor":
-                return setRbSOOutput(oldState.getMotor(port), newState.getMotor(port), Integer.parseInt(args.get("speed").get(0)));
+                return setRbSOOutput(newState.getMotor(port), wait, Integer.parseInt(args.get("speed").get(0)));
             case "vibration":
-                return setRbSOOutput(oldState.getVibrator(port), newState.getVibrator(port),
-                        Integer.parseInt(args.get("intensity").get(0)));
+                return setRbSOOutput(newState.getVibrator(port), wait, Integer.parseInt(args.get("intensity").get(0)));
             case "led":
-                return setRbSOOutput(oldState.getLED(port), newState.getLED(port), Integer.parseInt(args.get("intensity").get(0)));
+                return setRbSOOutput(newState.getLED(port), wait, Integer.parseInt(args.get("intensity").get(0)));
             case "triled":
-                return setRbSOOutput(oldState.getTriLED(port), newState.getTriLED(port), Integer.parseInt(args.get("red").get(0)),
+                return setRbSOOutput(newState.getTriLED(port), wait, Integer.parseInt(args.get("red").get(0)),
                         Integer.parseInt(args.get("green").get(0)), Integer.parseInt(args.get("blue").get(0)));
         }
         return false;
     }
 
+    /**
+     * Sets the output of the given output type to already-parsed values, without waiting for it
+     * to be sent
+     *
+     * @param outputType Type of the output
+     * @param port       Port of the output
+     * @param values     Values of the output (angle, speed, intensity, or red, green and blue)
+     * @return True if the output was successfully set, false otherwise
+     */
+    @Override
+    public boolean setOutput(String outputType, int port, int[] values) {
+        switch (outputType) {
+            case "stop":
+                return stopAll(false);
+            case "servo":
+                return setRbSOOutput(newState.getServo(port), false, values);
+            case "motor":
+                return setRbSOOutput(newState.getMotor(port), false, values);
+            case "vibration":
+                return setRbSOOutput(newState.getVibrator(port), false, values);
+            case "led":
+                return setRbSOOutput(newState.getLED(port), false, values);
+            case "triled":
+                return setRbSOOutput(newState.getTriLED(port), false, values);
+        }
+        return false;
+    }
+
+    /**
+     * Sets all the given outputs in newState while holding the send lock, so that they
+     * are all sent to the Hummingbird together, in a single setAll frame. Doesn't wait for
+     * them to be sent.
+     *
+     * @param outputTypes Types of the outputs to be set
+     * @param args        Arguments for setting each output (same order as outputTypes)
+     * @return Whether each output was successfully set (same order as outputTypes)
+     */
+    @Override
+    public boolean[] setOutputs(List<String> outputTypes, List<Map<String, List<String>>> args) {
+        boolean[] results = new boolean[outputTypes.size()];
+        lock.lock();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = applyOutput(outputTypes.get(i), args.get(i));
+            }
+        } finally {
+            lock.unlock();
+        }
+        tuning.markActive(System.currentTimeMillis());
+        requestSend();
+        return results;
+    }
+
+    /**
+     * Writes a single output into newState, without waiting for earlier changes to be sent.
+     *
+     * @param outputType Type of the output
+     * @param args       Arguments for setting the output
+     * @return True if the output was recognized and set, false otherwise
+     */
+    private boolean applyOutput(String outputType, Map<String, List<String>> args) {
+        try {
+            if (outputType.equals("stop")) {
+                newState.resetAll();
+                return true;
+            }
+            int port = Integer.parseInt(args.get("port").get(0));
+            switch (outputType) {
+                case "servo":
+                    return setStateValue(newState.getServo(port), Integer.parseInt(args.get("angle").get(0)));
+                case "motor":
+                    return setStateValue(newState.getMotor(port), Integer.parseInt(args.get("speed").get(0)));
+                case "vibration":
+                    return setStateValue(newState.getVibrator(port), Integer.parseInt(args.get("intensity").get(0)));
+                case "led":
+                    return setStateValue(newState.getLED(port), Integer.parseInt(args.get("intensity").get(0)));
+                case "triled":
+                    return setStateValue(newState.getTriLED(port), Integer.parseInt(args.get("red").get(0)),
+                            Integer.parseInt(args.get("green").get(0)), Integer.parseInt(args.get("blue").get(0)));
+            }
+        } catch (NumberFormatException | NullPointerException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "Invalid arguments for hummingbird output " + outputType + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    private boolean setStateValue(RobotStateObject obj, int... values) {
+        if (obj == null) return false;
+        obj.setValue(values);
+        return true;
+    }
+
     /**
      * Reads the value of the sensor at the given port and returns the formatted value according to
      * sensorType
@@ -290,64 +598,103 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
      * @return A string representing the value of the sensor
      */
     public String readSensor(String sensorType, String portString) {
-        byte rawSensorValue;
+        try {
+            return readSensor(sensorType, Integer.parseInt(portString));
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Error getting HB sensor values: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the value of the sensor at the given port and returns the formatted value according to
+     * sensorType
+     *
+     * @param sensorType Type of sensor connected to the port (dictates format of the returned
+     *                   value)
+     * @param port       Port that the sensor is connected to
+     * @return A string representing the value of the sensor
+     */
+    @Override
+    public String readSensor(String sensorType, int port) {
+        byte[] values = sensorValues();
+        if (values == null || port < 1 || port > values.length) {
+            Log.e(TAG, "Error getting HB sensor values: no reading for port " + port);
+            return null;
+        }
+        return SensorTables.format(sensorType, values[port - 1]);
+    }
+
+    /**
+     * Reads every sensor port, all from the latest reading received from the Hummingbird
+     *
+     * @param sensorTypes Type of sensor connected to each port, starting at port 1
+     * @return A string representing the value of each port, or null if they couldn't be read
+     */
+    @Override
+    public String[] readAllSensors(String[] sensorTypes) {
+        byte[] values = sensorValues();
+        if (values == null) {
+            Log.e(TAG, "Error getting HB sensor values: no reading");
+            return null;
+        }
+        String[] result = new String[Math.min(SENSOR_PORT_COUNT, values.length)];
+        for (int i = 0; i < result.length; i++) {
+            String sensorType = (sensorTypes != null && i < sensorTypes.length) ? sensorTypes[i] : null;
+            result[i] = SensorTables.format(sensorType, values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return The latest sensor values received from the Hummingbird (starting to poll the
+     * sensors on the first call), or null if there are none
+     */
+    private byte[] sensorValues() {
+        tuning.markActive(System.currentTimeMillis());
+        // Readers don't lock: onRXData replaces the whole array, so each read sees one frame
+        byte[] values = rawSensorValues;
+        if (values != null) return values;
         synchronized (rawSensorValuesLock) {
             try {
                 if (rawSensorValues == null) {
                     rawSensorValues = startPollingSensors();
+                    if (rawSensorValues != null) {
+                        sensorHistory.record(System.currentTimeMillis(), rawSensorValues);
+                    }
                     conn.addRxDataListener(this);
                 }
-                int port = Integer.parseInt(portString) - 1;
-                rawSensorValue = rawSensorValues[port];
+                return rawSensorValues;
             } catch (RuntimeException e) {
                 Log.e(TAG, "Error getting HB sensor values: " + e.getMessage());
                 return null;
             }
         }
-
-        switch (sensorType) {
-            case "distance":
-                return Double.toString(DeviceUtil.RawToDist(rawSensorValue));
-            case "temperature":
-                return Double.toString(DeviceUtil.RawToTemp(rawSensorValue));
-            case "sound":
-            case "light":
-            case "sensor":
-            default:
-                return Double.toString(DeviceUtil.RawToPercent(rawSensorValue));
-        }
     }
 
     private byte[] startPollingSensors() {
-        return conn.writeBytesWithResponse(new byte[]{READ_ALL_CMD, '5'});
+        return conn.writeBytesWithResponse(new byte[]{READ_ALL_CMD, '5'}, SENSOR_FRAME);
     }
 
     private void stopPollingSensors() {
         conn.writeBytes(new byte[]{READ_ALL_CMD, '6'});
     }
 
-    private boolean setRbSOOutput(RobotStateObject oldobj, RobotStateObject newobj, int... values) {
-        try {
-            lock.tryLock(COMMAND_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
-            AtomicInteger count = new AtomicInteger(0);
-            while (!newobj.equals(oldobj)) {
-                if (count.incrementAndGet() > 1) break;
-                doneSending.await(COMMAND_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
-            }
-            if (newobj.equals(oldobj)) {
-                newobj.setValue(values);
-                if (lock.isHeldByCurrentThread()) {
-                    doneSending.signal();
-                    lock.unlock();
-                }
-                return true;
-            }
-        } catch (InterruptedException | IllegalMonitorStateException | IllegalStateException | IllegalThreadStateException e) {
-        } finally {
-            if (lock.isHeldByCurrentThread())
-                lock.unlock();
-        }
-        return false;
+    /**
+     * Records a new value for an output in newState, replacing any value for it that hasn't been
+     * sent yet (only the newest value of each output goes out), and schedules a send.
+     *
+     * @param obj    The output, in newState
+     * @param wait   True to wait until the value has been sent to the Hummingbird
+     * @param values New value of the output
+     * @return True if the value was recorded (and sent, if wait is true), false otherwise
+     */
+    private boolean setRbSOOutput(RobotStateObject obj, boolean wait, int... values) {
+        if (obj == null) return false;
+        obj.setValue(values);
+        tuning.markActive(System.currentTimeMillis());
+        requestSend();
+        return !wait || awaitDelivery();
     }
 
     /**
@@ -359,25 +706,15 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
      * @return True if succeeded in changing state, false otherwise
      */
     public boolean stopAll() {
-        try {
-            lock.tryLock(COMMAND_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
-            while (!statesEqual()) {
-                doneSending.await(COMMAND_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
-            }
-            if (statesEqual()) {
-                newState.resetAll();
-                if (lock.isHeldByCurrentThread()) {
-                    doneSending.signal();
-                    lock.unlock();
-                }
-                return true;
-            }
-        } catch (InterruptedException | IllegalMonitorStateException | IllegalStateException | IllegalThreadStateException e) {
-        } finally {
-            if (lock.isHeldByCurrentThread())
-                lock.unlock();
-        }
-        return false;
+        return stopAll(false);
+    }
+
+    private boolean stopAll(boolean wait) {
+        newState.resetAll();
+        requestSend();
+        // The program has stopped
+        tuning.markIdle(System.currentTimeMillis());
+        return !wait || awaitDelivery();
     }
 
 
@@ -529,20 +866,27 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
 //        conn.writeBytes(cmd.getBytes());
 //    }
 
+    /**
+     * Disconnects the device on a thread of its own (disconnecting waits for the last writes)
+     */
+    private void disconnectInBackground() {
+        new Thread() {
+            @Override
+            public void run() {
+                super.run();
+                disconnect();
+            }
+        }.start();
+    }
+
     /**
      * Disconnects the device
      */
     public void disconnect() {
-        AndroidSchedulers.from(sendThread.getLooper()).shutdown();
-        sendThread.getLooper().quit();
-        if (sendDisposable != null && !sendDisposable.isDisposed())
-            sendDisposable.dispose();
-        sendThread.quitSafely();
-        AndroidSchedulers.from(monitorThread.getLooper()).shutdown();
-        monitorThread.getLooper().quit();
-        if (monitorDisposable != null && !monitorDisposable.isDisposed())
-            monitorDisposable.dispose();
-        monitorThread.quitSafely();
+        disconnected = true;
+        cancelKeepalive();
+        RobotScheduler.removeHealthCheck(monitorRunnable);
+        sensorSubscriptions.clear();
         if (conn != null) {
             conn.removeRxDataListener(this);
             stopPollingSensors();
@@ -553,9 +897,37 @@ public class Hummingbird extends Robot<HBState> implements UARTConnection.RXData
 
     @Override
     public void onRXData(byte[] newData) {
+        long now = System.currentTimeMillis();
         synchronized (rawSensorValuesLock) {
             this.rawSensorValues = newData;
         }
+        // newData is this listener's own copy of the frame, and the RX thread is the only one
+        // recording once polling has started, so neither needs the lock
+        sensorHistory.record(now, newData);
+        sensorSubscriptions.evaluate(newData);
+    }
+
+    @Override
+    public SensorHistory getSensorHistory() {
+        return sensorHistory;
+    }
+
+    /**
+     * @return The MTU and connection priority negotiated with the Hummingbird
+     */
+    @Override
+    public ConnectionTuning getConnectionTuning() {
+        return tuning;
+    }
+
+    /**
+     * Subscriptions are evaluated against every frame the Hummingbird sends, which only starts
+     * once the sensors are polled (so subscribing starts polling them).
+     */
+    @Override
+    public SensorSubscriptions getSensorSubscriptions() {
+        sensorValues();
+        return sensorSubscriptions;
     }
 
     public String getMacAddress() {
@@ -0,0 +1,84 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotState;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Tracks which version of a robot's newState has been delivered to the robot, for the callers
+ * that wait until their outputs have been sent (wait=true).
+ */
+final class OutputDelivery {
+
+    private final ReentrantLock lock;
+    private final Condition delivered;
+    /* Version of newState that was last delivered (only ever increases) */
+    private long deliveredVersion = 0;
+
+    /**
+     * @param lock The robot's send lock, which is also held while waiting for delivery
+     */
+    OutputDelivery(ReentrantLock lock) {
+        this.lock = lock;
+        this.delivered = lock.newCondition();
+    }
+
+    /**
+     * Records that newState, as of the given version, is on the robot, and wakes the callers
+     * waiting for it
+     *
+     * @param version Version of newState that was delivered
+     */
+    void markDelivered(long version) {
+        lock.lock();
+        try {
+            if (version > deliveredVersion) {
+                deliveredVersion = version;
+            }
+            delivered.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that newState is on the robot if it holds the same values as oldState (what the
+     * robot has). Setting an output to the value it already has changes newState's version, but
+     * leaves nothing to send.
+     *
+     * @param oldState What the robot has
+     * @param newState What the robot should have
+     * @return True if both states hold the same values
+     */
+    <T extends RobotState<T>> boolean markDeliveredIfUnchanged(T oldState, T newState) {
+        // Read before comparing, so a change made during the comparison is never marked
+        long version = newState.getVersion();
+        if (!oldState.equals(newState)) return false;
+        markDelivered(version);
+        return true;
+    }
+
+    /**
+     * Waits until newState, as of the given version, has been delivered to the robot
+     *
+     * @param version       Version of newState to wait for
+     * @param timeoutMillis Longest time to wait
+     * @return True if it was delivered, false if that timed out
+     * @throws InterruptedException If the wait was interrupted
+     */
+    boolean await(long version, long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (deliveredVersion < version) {
+                if (remaining <= 0) return false;
+                remaining = delivered.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
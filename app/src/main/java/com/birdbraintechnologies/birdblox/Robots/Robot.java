@@ -1,5 +1,7 @@
 package com.birdbraintechnologies.birdblox.Robots;
 
+import com.birdbraintechnologies.birdblox.Bluetooth.ConnectionTuning;
+
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotState;
 
 import java.util.List;
@@ -36,7 +38,7 @@ public abstract class Robot<T extends RobotState<T>> {
         sending = false;
     }
 
-    public synchronized boolean statesEqual() { return oldState.equals(newState);}
+    public boolean statesEqual() { return oldState.equals(newState);}
 
     /**
      * Actually sends the commands to the physical Robot,
@@ -51,6 +53,44 @@ public abstract class Robot<T extends RobotState<T>> {
      */
     public abstract boolean setOutput(String outputType, Map<String, List<String>> args);
 
+    /**
+     * Sets an output from already-parsed values, without any intermediate Strings or
+     * parameter maps (used by the /robot/out fast path).
+     *
+     * @param outputType Type of the output
+     * @param port       Port of the output (ignored by outputs without one, such as "stop")
+     * @param values     Values of the output, in the order of its parameters
+     *                   (e.g. {red, green, blue} for a "triled")
+     * @return True if the output was successfully set, false otherwise
+     */
+    public abstract boolean setOutput(String outputType, int port, int[] values);
+
+    /**
+     * Sets several outputs at once, in the given order. Robots that send their whole state in
+     * a single frame should override this, so that all the outputs leave together.
+     *
+     * @param outputTypes Types of the outputs to be set
+     * @param args        Arguments for setting each output (same order as outputTypes)
+     * @return Whether each output was successfully set (same order as outputTypes)
+     */
+    public boolean[] setOutputs(List<String> outputTypes, List<Map<String, List<String>>> args) {
+        boolean[] results = new boolean[outputTypes.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = setOutput(outputTypes.get(i), args.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * @param args Arguments of an output request
+     * @return True if the request asks to wait until the output has been sent to the robot
+     * (wait=true or wait=1)
+     */
+    protected static boolean waitRequested(Map<String, List<String>> args) {
+        List<String> wait = args.get("wait");
+        return wait != null && !wait.isEmpty() && (wait.get(0).equalsIgnoreCase("true") || wait.get(0).equals("1"));
+    }
+
     /**
      * @param sensorType
      * @param portString
@@ -58,6 +98,39 @@ public abstract class Robot<T extends RobotState<T>> {
      */
     public abstract String readSensor(String sensorType, String portString);
 
+    /**
+     * Reads a sensor, given an already-parsed port (used by the /robot/in fast path).
+     *
+     * @param sensorType Type of sensor connected to the port
+     * @param port       Port that the sensor is connected to
+     * @return A string representing the value of the sensor, or null if it couldn't be read
+     */
+    public abstract String readSensor(String sensorType, int port);
+
+    /**
+     * Reads every sensor port of the robot, all from the same reading.
+     *
+     * @param sensorTypes Type of sensor connected to each port, starting at port 1 (ports
+     *                    without a type, or past the end of the array, are read as percentages)
+     * @return A string representing the value of each port, or null if they couldn't be read
+     */
+    public abstract String[] readAllSensors(String[] sensorTypes);
+
+    /**
+     * @return The recent sensor readings of the robot
+     */
+    public abstract SensorHistory getSensorHistory();
+
+    /**
+     * @return The sensor subscriptions of the robot
+     */
+    public abstract SensorSubscriptions getSensorSubscriptions();
+
+    /**
+     * @return The negotiated parameters of the robot's connection (MTU and connection priority)
+     */
+    public abstract ConnectionTuning getConnectionTuning();
+
     public abstract String getMacAddress();
 
     public abstract String getName();
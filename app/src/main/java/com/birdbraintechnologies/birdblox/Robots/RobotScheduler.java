@@ -0,0 +1,199 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import android.util.Log;
+
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the timers of all connected robots (sends, keepalives and connection health checks) on a
+ * shared scheduler, instead of each robot running its own threads and timers.
+ * <p>
+ * Tasks only run when they are due: a robot with nothing to send doesn't wake up a thread
+ * until its next keepalive. The health checks of all robots are run together, by a single
+ * periodic task that only runs while at least one health check is registered. The number of
+ * threads and of wakeups is available through /debug/workers.
+ * <p>
+ * Tasks run on the scheduler must never block, so that a slow or unresponsive robot can't delay
+ * the others: a robot either sends without waiting (completing the send from the write's
+ * callback), or hands its blocking I/O over to an I/O executor of its own (see newIoExecutor).
+ */
+public class RobotScheduler {
+    private static final String TAG = RobotScheduler.class.getName();
+
+    /* Tasks never block, so one thread keeps up with every robot */
+    private static final int POOL_SIZE = 1;
+    /* A robot's I/O thread stops after being idle this long, and starts again when needed */
+    private static final int IO_THREAD_KEEP_ALIVE_IN_MILLIS = 5000;
+    private static final int HEALTH_CHECK_INTERVAL_IN_MILLIS = 1000;
+
+    private static final AtomicLong wakeups = Metrics.counter("robot_scheduler_wakeups");
+
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(POOL_SIZE,
+            new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "RobotScheduler-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }) {
+        @Override
+        protected void beforeExecute(Thread t, Runnable r) {
+            wakeups.incrementAndGet();
+        }
+    };
+
+    private static final CopyOnWriteArrayList<Runnable> healthChecks = new CopyOnWriteArrayList<>();
+    private static ScheduledFuture<?> healthCheckFuture;
+
+    private static final Runnable runHealthChecks = new Runnable() {
+        @Override
+        public void run() {
+            for (Runnable healthCheck : healthChecks) {
+                try {
+                    healthCheck.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Robot health check failed: " + e.getMessage());
+                }
+            }
+        }
+    };
+
+    /* For the wakeup rate in getStats() */
+    private static long lastStatsNanos = System.nanoTime();
+    private static long lastStatsWakeups = 0;
+
+    static {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Runs a task once, after the given delay
+     *
+     * @param task        The task
+     * @param delayMillis Delay, in milliseconds
+     * @return Future that can be used to cancel the task
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return executor.schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands a task that blocks over to an I/O executor once, after the given delay
+     *
+     * @param task        The task
+     * @param delayMillis Delay, in milliseconds
+     * @param io          Executor that runs the task (see newIoExecutor)
+     * @return Future that can be used to cancel the task, until it is handed over
+     */
+    public static ScheduledFuture<?> schedule(final Runnable task, long delayMillis, final Executor io) {
+        return schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    io.execute(task);
+                } catch (RejectedExecutionException e) {
+                    // The robot disconnected, and shut its executor down
+                }
+            }
+        }, delayMillis);
+    }
+
+    /**
+     * Creates an executor for the blocking I/O of a robot (e.g. a write that waits for the
+     * robot's response). It runs the robot's tasks one at a time, in order, on a thread that
+     * only exists while the robot has something to do.
+     *
+     * @param name Name of the thread
+     * @return The executor, to be shut down when the robot disconnects
+     */
+    public static ExecutorService newIoExecutor(final String name) {
+        ThreadPoolExecutor io = new ThreadPoolExecutor(1, 1, IO_THREAD_KEEP_ALIVE_IN_MILLIS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        io.allowCoreThreadTimeOut(true);
+        return io;
+    }
+
+    /**
+     * @return The executor itself, for components that schedule their own tasks on it (such as
+     * the discovery reports of the Bluetooth scan)
+     */
+    public static ScheduledExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Adds a health check, which is run every HEALTH_CHECK_INTERVAL_IN_MILLIS until it is removed
+     *
+     * @param healthCheck The health check
+     */
+    public static synchronized void addHealthCheck(Runnable healthCheck) {
+        healthChecks.add(healthCheck);
+        if (healthCheckFuture == null) {
+            healthCheckFuture = executor.scheduleAtFixedRate(runHealthChecks,
+                    HEALTH_CHECK_INTERVAL_IN_MILLIS, HEALTH_CHECK_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes a health check (if it was added)
+     *
+     * @param healthCheck The health check
+     */
+    public static synchronized void removeHealthCheck(Runnable healthCheck) {
+        healthChecks.remove(healthCheck);
+        if (healthChecks.isEmpty() && healthCheckFuture != null) {
+            healthCheckFuture.cancel(false);
+            healthCheckFuture = null;
+        }
+    }
+
+    /**
+     * @return The number of threads, health checks, and wakeups (in total, and per second since
+     * the last call)
+     */
+    public static synchronized JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        long now = System.nanoTime();
+        long total = wakeups.get();
+        double seconds = (now - lastStatsNanos) / 1e9;
+        try {
+            stats.put("threads", executor.getPoolSize());
+            stats.put("healthChecks", healthChecks.size());
+            stats.put("scheduledTasks", executor.getQueue().size());
+            stats.put("wakeups", total);
+            stats.put("wakeupsPerSecond", (seconds > 0) ? (total - lastStatsWakeups) / seconds : 0);
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to build robot scheduler stats: " + e.getMessage());
+        }
+        lastStatsNanos = now;
+        lastStatsWakeups = total;
+        return stats;
+    }
+}
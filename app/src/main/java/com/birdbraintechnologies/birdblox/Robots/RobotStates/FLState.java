@@ -4,39 +4,52 @@ import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.B
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.Servo;
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.TriLED;
 
-import java.util.Arrays;
-
 /**
  * @author AppyFizz (Shreyan Bakshi)
  */
 
 public class FLState extends RobotState<FLState> {
+    /*
+     * Layout of the packed frame, which is also the setAll command:
+     * 'A', TriLEDs 1-3 (r, g, b), Servos 1-3, Buzzer 1 (volume, frequency (big endian))
+     */
+    private static final byte[] DEFAULT_FRAME = {
+            (byte) 0x41,
+            0, 0, 0, 0, 0, 0, 0, 0, 0,
+            (byte) 255, (byte) 255, (byte) 255,
+            0, 0, 0
+    };
+    public static final int SETALL_LENGTH = 16;
+    public static final int TRILEDS_OFFSET = 1;
+    public static final int SERVOS_OFFSET = 10;
+    public static final int BUZZERS_OFFSET = 13;
+
+    private final PackedFrame frame;
+    private final byte[] setAllBuffer = new byte[DEFAULT_FRAME.length];
+    private volatile long setAllVersion = -1;
+
     private TriLED[] trileds;
     private Servo[] servos;
     private Buzzer[] buzzers;
 
     public FLState() {
+        frame = new PackedFrame(DEFAULT_FRAME);
+
         trileds = new TriLED[3];
         servos = new Servo[3];
         buzzers = new Buzzer[1];
 
-        for (int i = 0; i < trileds.length; i++) trileds[i] = new TriLED();
-        for (int i = 0; i < servos.length; i++) servos[i] = new Servo();
-        for (int i = 0; i < buzzers.length; i++) buzzers[i] = new Buzzer();
+        for (int i = 0; i < trileds.length; i++) trileds[i] = new TriLED(frame, TRILEDS_OFFSET + 3 * i);
+        for (int i = 0; i < servos.length; i++) servos[i] = new Servo(frame, SERVOS_OFFSET + i);
+        for (int i = 0; i < buzzers.length; i++) buzzers[i] = new Buzzer(frame, BUZZERS_OFFSET + 3 * i);
     }
 
     public FLState(byte triled1r, byte triled1g, byte triled1b, byte triled2r, byte triled2g, byte triled2b, byte triled3r, byte triled3g, byte triled3b, byte servo1, byte servo2, byte servo3, byte buzzer1v, short buzzer1f) {
-        trileds = new TriLED[3];
-        servos = new Servo[3];
-        buzzers = new Buzzer[1];
-
-        trileds[0] = new TriLED(triled1r, triled1g, triled1b);
-        trileds[1] = new TriLED(triled2r, triled2g, triled2b);
-        trileds[2] = new TriLED(triled3r, triled3g, triled3b);
-        servos[0] = new Servo(servo1);
-        servos[1] = new Servo(servo2);
-        servos[2] = new Servo(servo3);
-        buzzers[0] = new Buzzer(buzzer1v, buzzer1f);
+        this();
+        frame.set(0, (byte) 0x41,
+                triled1r, triled1g, triled1b, triled2r, triled2g, triled2b, triled3r, triled3g, triled3b,
+                servo1, servo2, servo3,
+                buzzer1v, (byte) (buzzer1f >> 8), (byte) buzzer1f);
     }
 
     public TriLED getTriLED(int port) {
@@ -130,9 +143,8 @@ public class FLState extends RobotState<FLState> {
      * have the same values), false otherwise.
      */
     @Override
-    public synchronized boolean equals_helper(FLState fls) {
-        return Arrays.equals(trileds, fls.trileds) && Arrays.equals(servos, fls.servos) &&
-                Arrays.equals(buzzers, fls.buzzers);
+    public boolean equals_helper(FLState fls) {
+        return frame.contentEquals(fls.frame);
     }
 
 
@@ -144,7 +156,7 @@ public class FLState extends RobotState<FLState> {
      * their attributes have the same values), false otherwise.
      */
     @Override
-    public synchronized boolean equals(Object fls) {
+    public boolean equals(Object fls) {
         // self check
         if (this == fls)
             return true;
@@ -164,65 +176,60 @@ public class FLState extends RobotState<FLState> {
      * @param source The HBState from which the attributes are copied.
      */
     @Override
-    public synchronized void copy(FLState source) {
-        for (int i = 0; i < trileds.length; i++) {
-            trileds[i].setValue(source.trileds[i].getRGB());
-        }
-        for (int i = 0; i < servos.length; i++) {
-            servos[i].setValue(source.servos[i].getAngle());
-        }
-        for (int i = 0; i < buzzers.length; i++) {
-            buzzers[i].setValue(source.buzzers[i].getVF());
-        }
+    public void copy(FLState source) {
+        frame.copyFrom(source.frame);
+    }
+
+    /**
+     * Copies into the current ('this') FLState the values last generated by source.setAll(), i.e.
+     * exactly what was last sent to the Flutter, even if source changed since.
+     *
+     * @param source The FLState whose setAll() values are copied.
+     */
+    public void copySetAll(FLState source) {
+        frame.load(source.setAllBuffer, source.frame, source.setAllVersion);
+    }
+
+    /**
+     * @return A counter that increases whenever any attribute of this FLState changes.
+     */
+    @Override
+    public long getVersion() {
+        return frame.version();
+    }
+
+    /**
+     * @return The value of getVersion() when setAll() was last called.
+     */
+    public long getSetAllVersion() {
+        return setAllVersion;
     }
 
     /**
      * Generates a byte array that can be sent to the Flutter,
      * to set all the attributes to their current values.
+     * <p>
+     * The same array is reused (and overwritten) by the next call.
      *
      * @return A byte array containing the required values for all
-     * the state objects, in the order shown below.
+     * the state objects, in the order shown in DEFAULT_FRAME.
      */
     @Override
-    public synchronized byte[] setAll() {
+    public byte[] setAll() {
         // TODO: NOTE: The below commands are only hypothesized based off of the existing Hummingbird setAll command.
         // The Flutter setAll command is not implemented in the hardware yet, and no documentation for it is available.
         // So, it is very likely that the below commands will not work in practice.
-        byte[] all = new byte[16];
-        // This must always be the first byte sent for the setAll command.
-        all[0] = (byte) 0x41;
-        // Now, we send the other bytes in the order shown below:
-        all[1] = trileds[0].getRed();
-        all[2] = trileds[0].getGreen();
-        all[3] = trileds[0].getBlue();
-        all[4] = trileds[1].getRed();
-        all[5] = trileds[1].getGreen();
-        all[6] = trileds[1].getBlue();
-        all[7] = trileds[2].getRed();
-        all[8] = trileds[2].getGreen();
-        all[9] = trileds[2].getBlue();
-        all[10] = servos[0].getAngle();
-        all[11] = servos[1].getAngle();
-        all[12] = servos[2].getAngle();
-        all[13] = buzzers[0].getVolume();
-        // TODO: Pick one of the two (depending on the robot's requirements), and discard the other.
-        // Little Endian
-        all[14] = (byte) buzzers[0].getFrequency();
-        all[15] = (byte) (buzzers[0].getFrequency() >> 8);
-        // Big Endian
-        all[14] = (byte) (buzzers[0].getFrequency() >> 8);
-        all[15] = (byte) buzzers[0].getFrequency();
-        return all;
+        // TODO: Pick an endianness for the buzzer frequency (depending on the robot's requirements). It is big endian for now.
+        setAllVersion = frame.encode(setAllBuffer);
+        return setAllBuffer;
     }
 
     /**
      * Resets all attributes of all state objects to their default values.
      */
     @Override
-    public synchronized void resetAll() {
-        for (int i = 0; i < trileds.length; i++) trileds[i] = new TriLED();
-        for (int i = 0; i < servos.length; i++) servos[i] = new Servo();
-        for (int i = 0; i < buzzers.length; i++) buzzers[i] = new Buzzer();
+    public void resetAll() {
+        frame.reset();
     }
 
 
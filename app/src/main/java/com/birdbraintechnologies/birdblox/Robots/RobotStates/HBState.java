@@ -6,13 +6,34 @@ import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.S
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.TriLED;
 import com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects.Vibrator;
 
-import java.util.Arrays;
-
 /**
  * @author Shreyan Bakshi (AppyFizz).
  */
 
 public class HBState extends RobotState<HBState> {
+    /*
+     * Layout of the packed frame, which is also the setAll command:
+     * 'A', TriLED 1 (r, g, b), TriLED 2 (r, g, b), LEDs 1-4, Servos 1-4, Vibrators 1-2, Motors 1-2
+     */
+    private static final byte[] DEFAULT_FRAME = {
+            (byte) 0x41,
+            0, 0, 0, 0, 0, 0,
+            0, 0, 0, 0,
+            (byte) 255, (byte) 255, (byte) 255, (byte) 255,
+            0, 0,
+            0, 0
+    };
+    public static final int SETALL_LENGTH = 19;
+    public static final int TRILEDS_OFFSET = 1;
+    public static final int LEDS_OFFSET = 7;
+    public static final int SERVOS_OFFSET = 11;
+    public static final int VIBRATORS_OFFSET = 15;
+    public static final int MOTORS_OFFSET = 17;
+
+    private final PackedFrame frame;
+    private final byte[] setAllBuffer = new byte[DEFAULT_FRAME.length];
+    private volatile long setAllVersion = -1;
+
     private LED[] leds;
     private TriLED[] trileds;
     private Servo[] servos;
@@ -20,40 +41,29 @@ public class HBState extends RobotState<HBState> {
     private Vibrator[] vibrators;
 
     public HBState() {
+        frame = new PackedFrame(DEFAULT_FRAME);
+
         leds = new LED[4];
         trileds = new TriLED[2];
         servos = new Servo[4];
         motors = new Motor[2];
         vibrators = new Vibrator[2];
 
-        for (int i = 0; i < leds.length; i++) leds[i] = new LED();
-        for (int i = 0; i < trileds.length; i++) trileds[i] = new TriLED();
-        for (int i = 0; i < servos.length; i++) servos[i] = new Servo();
-        for (int i = 0; i < motors.length; i++) motors[i] = new Motor();
-        for (int i = 0; i < vibrators.length; i++) vibrators[i] = new Vibrator();
+        for (int i = 0; i < leds.length; i++) leds[i] = new LED(frame, LEDS_OFFSET + i);
+        for (int i = 0; i < trileds.length; i++) trileds[i] = new TriLED(frame, TRILEDS_OFFSET + 3 * i);
+        for (int i = 0; i < servos.length; i++) servos[i] = new Servo(frame, SERVOS_OFFSET + i);
+        for (int i = 0; i < motors.length; i++) motors[i] = new Motor(frame, MOTORS_OFFSET + i);
+        for (int i = 0; i < vibrators.length; i++) vibrators[i] = new Vibrator(frame, VIBRATORS_OFFSET + i);
     }
 
     public HBState(byte led1, byte led2, byte led3, byte led4, byte triled1r, byte triled1g, byte triled1b, byte triled2r, byte triled2g, byte triled2b, byte servo1, byte servo2, byte servo3, byte servo4, byte motor1, byte motor2, byte vibrator1, byte vibrator2) {
-        leds = new LED[4];
-        trileds = new TriLED[2];
-        servos = new Servo[4];
-        motors = new Motor[2];
-        vibrators = new Vibrator[2];
-
-        leds[0] = new LED(led1);
-        leds[1] = new LED(led2);
-        leds[2] = new LED(led3);
-        leds[3] = new LED(led4);
-        trileds[0] = new TriLED(triled1r, triled1g, triled1b);
-        trileds[1] = new TriLED(triled2r, triled2g, triled2b);
-        servos[0] = new Servo(servo1);
-        servos[1] = new Servo(servo2);
-        servos[2] = new Servo(servo3);
-        servos[3] = new Servo(servo4);
-        motors[0] = new Motor(motor1);
-        motors[1] = new Motor(motor2);
-        vibrators[0] = new Vibrator(vibrator1);
-        vibrators[1] = new Vibrator(vibrator2);
+        this();
+        frame.set(0, (byte) 0x41,
+                triled1r, triled1g, triled1b, triled2r, triled2g, triled2b,
+                led1, led2, led3, led4,
+                servo1, servo2, servo3, servo4,
+                vibrator1, vibrator2,
+                motor1, motor2);
     }
 
     public LED getLED(int port) {
@@ -154,10 +164,8 @@ public class HBState extends RobotState<HBState> {
      *         have the same values), false otherwise.
      */
     @Override
-    public synchronized boolean equals_helper(HBState hbs) {
-        return Arrays.equals(leds, hbs.leds) && Arrays.equals(trileds, hbs.trileds) &&
-                Arrays.equals(servos, hbs.servos) && Arrays.equals(motors, hbs.motors) &&
-                Arrays.equals(vibrators, hbs.vibrators);
+    public boolean equals_helper(HBState hbs) {
+        return frame.contentEquals(hbs.frame);
     }
 
 
@@ -169,7 +177,7 @@ public class HBState extends RobotState<HBState> {
      *         their attributes have the same values), false otherwise.
      */
     @Override
-    public synchronized boolean equals(Object hbs) {
+    public boolean equals(Object hbs) {
         // self check
         if (this == hbs)
             return true;
@@ -189,68 +197,56 @@ public class HBState extends RobotState<HBState> {
      * @param source The HBState from which the attributes are copied.
      */
     @Override
-    public synchronized void copy(HBState source) {
-        for (int i = 0; i < leds.length; i++) {
-            leds[i].setValue(source.leds[i].getIntensity());
-        }
-        for (int i = 0; i < trileds.length; i++) {
-            trileds[i].setValue(source.trileds[i].getRGB());
-        }
-        for (int i = 0; i < servos.length; i++) {
-            servos[i].setValue(source.servos[i].getAngle());
-        }
-        for (int i = 0; i < motors.length; i++) {
-            motors[i].setValue(source.motors[i].getSpeed());
-        }
-        for (int i = 0; i < vibrators.length; i++) {
-            vibrators[i].setValue(source.vibrators[i].getIntensity());
-        }
+    public void copy(HBState source) {
+        frame.copyFrom(source.frame);
+    }
+
+    /**
+     * Copies into the current ('this') HBState the values last generated by source.setAll(), i.e.
+     * exactly what was last sent to the Hummingbird, even if source changed since.
+     *
+     * @param source The HBState whose setAll() values are copied.
+     */
+    public void copySetAll(HBState source) {
+        frame.load(source.setAllBuffer, source.frame, source.setAllVersion);
+    }
+
+    /**
+     * @return A counter that increases whenever any attribute of this HBState changes.
+     */
+    @Override
+    public long getVersion() {
+        return frame.version();
+    }
+
+    /**
+     * @return The value of getVersion() when setAll() was last called.
+     */
+    public long getSetAllVersion() {
+        return setAllVersion;
     }
 
     /**
      * Generates a byte array that can be sent to the Hummingbird,
      * to set all the attributes to their current values.
+     * <p>
+     * The same array is reused (and overwritten) by the next call.
      *
      * @return A byte array containing the required values for all
-     * the state objects, in the order shown below.
+     * the state objects, in the order shown in DEFAULT_FRAME.
      */
     @Override
-    public synchronized byte[] setAll() {
-        byte[] all = new byte[19];
-        // This must always be the first byte sent for the setAll command.
-        all[0] = (byte) 0x41;
-        // Now, we send the other bytes in the order shown below:
-        all[1] = trileds[0].getRed();
-        all[2] = trileds[0].getGreen();
-        all[3] = trileds[0].getBlue();
-        all[4] = trileds[1].getRed();
-        all[5] = trileds[1].getGreen();
-        all[6] = trileds[1].getBlue();
-        all[7] = leds[0].getIntensity();
-        all[8] = leds[1].getIntensity();
-        all[9] = leds[2].getIntensity();
-        all[10] = leds[3].getIntensity();
-        all[11] = servos[0].getAngle();
-        all[12] = servos[1].getAngle();
-        all[13] = servos[2].getAngle();
-        all[14] = servos[3].getAngle();
-        all[15] = vibrators[0].getIntensity();
-        all[16] = vibrators[1].getIntensity();
-        all[17] = motors[0].getSpeed();
-        all[18] = motors[1].getSpeed();
-        return all;
+    public byte[] setAll() {
+        setAllVersion = frame.encode(setAllBuffer);
+        return setAllBuffer;
     }
 
     /**
      * Resets all attributes of all state objects to their default values.
      */
     @Override
-    public synchronized void resetAll() {
-        for (int i = 0; i < leds.length; i++) leds[i] = new LED();
-        for (int i = 0; i < trileds.length; i++) trileds[i] = new TriLED();
-        for (int i = 0; i < servos.length; i++) servos[i] = new Servo();
-        for (int i = 0; i < motors.length; i++) motors[i] = new Motor();
-        for (int i = 0; i < vibrators.length; i++) vibrators[i] = new Vibrator();
+    public void resetAll() {
+        frame.reset();
     }
 
 }
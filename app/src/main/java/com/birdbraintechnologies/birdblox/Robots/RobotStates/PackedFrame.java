@@ -0,0 +1,189 @@
+package com.birdbraintechnologies.birdblox.Robots.RobotStates;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The values of all the state objects of a RobotState, packed into a single frame of bytes (in
+ * the order that the robot expects them in its setAll command), stored in long words.
+ *
+ * Nothing here takes a monitor. Writers bump a version counter around each change (it is odd
+ * while a write is in progress), and readers that need a consistent view of the whole frame
+ * retry if the version changed while they were reading (a sequence lock). Comparing a frame
+ * with an unchanged copy of it is just a version check.
+ */
+public final class PackedFrame {
+
+    private final byte[] defaults;
+    private final AtomicLongArray words;
+    private final AtomicLong version = new AtomicLong();
+
+    /* The frame this one was last copied from, and the versions of both just after the copy */
+    private volatile PackedFrame copySource;
+    private volatile long copySourceVersion;
+    private volatile long versionAfterCopy = -1;
+
+    /**
+     * Creates a frame, initially set to its default values.
+     *
+     * @param defaults Default value of each byte of the frame (also sets the length of the frame).
+     */
+    public PackedFrame(byte... defaults) {
+        this.defaults = defaults.clone();
+        this.words = new AtomicLongArray((defaults.length + 7) >>> 3);
+        reset();
+    }
+
+    public int length() {
+        return defaults.length;
+    }
+
+    /**
+     * @return A counter that changes whenever any byte of the frame is written.
+     */
+    public long version() {
+        return version.get();
+    }
+
+    public byte get(int index) {
+        return (byte) (words.get(index >>> 3) >>> ((index & 7) << 3));
+    }
+
+    public void set(int index, byte value) {
+        long v = beginWrite();
+        put(index, value);
+        endWrite(v);
+    }
+
+    /**
+     * Sets consecutive bytes of the frame together, so that readers never see only some of them
+     * changed (e.g. the red, green and blue of a TriLED).
+     *
+     * @param index  Index of the first byte.
+     * @param values New values of the bytes.
+     */
+    public void set(int index, byte... values) {
+        long v = beginWrite();
+        for (int i = 0; i < values.length; i++) {
+            put(index + i, values[i]);
+        }
+        endWrite(v);
+    }
+
+    /**
+     * Sets all the bytes of the frame back to their default values.
+     */
+    public void reset() {
+        long v = beginWrite();
+        for (int i = 0; i < defaults.length; i++) {
+            put(i, defaults[i]);
+        }
+        endWrite(v);
+    }
+
+    /**
+     * Copies a consistent snapshot of another frame (of the same length) into this frame.
+     *
+     * @param source The frame from which the bytes are copied.
+     */
+    public void copyFrom(PackedFrame source) {
+        long v = beginWrite();
+        long sourceVersion;
+        do {
+            sourceVersion = source.stableVersion();
+            for (int i = 0; i < words.length(); i++) {
+                words.set(i, source.words.get(i));
+            }
+        } while (source.version.get() != sourceVersion);
+        endWrite(v);
+        copySource = source;
+        copySourceVersion = sourceVersion;
+        versionAfterCopy = v + 2;
+    }
+
+    /**
+     * Compares the bytes of this frame with the bytes of another frame.
+     *
+     * @param other The other frame.
+     * @return True if both frames hold the same bytes.
+     */
+    public boolean contentEquals(PackedFrame other) {
+        if (isUnchangedCopyOf(other) || other.isUnchangedCopyOf(this))
+            return true;
+        if (defaults.length != other.defaults.length)
+            return false;
+        for (int i = 0; i < words.length(); i++) {
+            if (words.get(i) != other.words.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sets this frame to bytes that were encoded from another frame, as if it had been copied
+     * from that frame at the time.
+     *
+     * @param bytes         Bytes encoded from source.
+     * @param source        The frame from which the bytes were encoded.
+     * @param sourceVersion Version of source when the bytes were encoded.
+     */
+    public void load(byte[] bytes, PackedFrame source, long sourceVersion) {
+        long v = beginWrite();
+        for (int i = 0; i < defaults.length; i++) {
+            put(i, bytes[i]);
+        }
+        endWrite(v);
+        copySource = source;
+        copySourceVersion = sourceVersion;
+        versionAfterCopy = v + 2;
+    }
+
+    /**
+     * Writes a consistent snapshot of the frame into a byte array.
+     *
+     * @param dest Array of at least length() bytes, that the frame is written into.
+     * @return The version of the frame that was written.
+     */
+    public long encode(byte[] dest) {
+        long v;
+        do {
+            v = stableVersion();
+            for (int i = 0; i < defaults.length; i++) {
+                dest[i] = get(i);
+            }
+        } while (version.get() != v);
+        return v;
+    }
+
+    private boolean isUnchangedCopyOf(PackedFrame other) {
+        return copySource == other && version.get() == versionAfterCopy && other.version.get() == copySourceVersion;
+    }
+
+    private long stableVersion() {
+        long v;
+        while (((v = version.get()) & 1) != 0) {
+            Thread.yield();
+        }
+        return v;
+    }
+
+    private long beginWrite() {
+        while (true) {
+            long v = version.get();
+            if ((v & 1) == 0 && version.compareAndSet(v, v + 1))
+                return v;
+            Thread.yield();
+        }
+    }
+
+    private void endWrite(long v) {
+        version.set(v + 2);
+    }
+
+    private void put(int index, byte value) {
+        int word = index >>> 3;
+        int shift = (index & 7) << 3;
+        long current = words.get(word);
+        words.set(word, (current & ~(0xFFL << shift)) | ((value & 0xFFL) << shift));
+    }
+}
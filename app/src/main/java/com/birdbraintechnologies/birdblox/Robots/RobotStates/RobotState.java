@@ -41,6 +41,11 @@ public abstract class RobotState<T extends RobotState<T>> {
      */
     public abstract void copy(T source);
 
+    /**
+     * @return A counter that increases whenever any attribute of this RobotState changes.
+     */
+    public abstract long getVersion();
+
     /**
      * Generates a byte array that can be sent to the Robot,
      * to set all the attributes to their current values.
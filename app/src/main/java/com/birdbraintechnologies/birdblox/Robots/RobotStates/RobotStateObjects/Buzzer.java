@@ -2,7 +2,7 @@ package com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects;
 
 import android.util.Log;
 
-import java.util.Arrays;
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.PackedFrame;
 
 /**
  * @author Shreyan Bakshi (AppyFizz).
@@ -10,70 +10,68 @@ import java.util.Arrays;
 
 public class Buzzer extends RobotStateObject {
 
-    private byte volume;
-    private short frequency;
+    /* The volume is at offset, followed by the frequency (big endian) */
 
     public Buzzer() {
-        volume = 0;
-        frequency = 0;
+        this((byte) 0, (short) 0);
     }
 
     public Buzzer(byte v, short f) {
-        volume = v;
-        frequency = f;
+        this(new PackedFrame(v, (byte) (f >> 8), (byte) f), 0);
+    }
+
+    public Buzzer(PackedFrame frame, int offset) {
+        super(frame, offset);
     }
 
     // TODO: IMPLEMENT SETTERS CORRECTLY (CLAMP AND BYTE/SHORT/CONVERSION)
 
     public byte getVolume() {
-        return volume;
+        return frame.get(offset);
     }
 
     public void setVolume(byte v) {
-        this.volume = v;
+        frame.set(offset, v);
     }
 
     public void setVolume(int v) {
-        this.volume = (byte) v;
+        frame.set(offset, (byte) v);
     }
 
     public short getFrequency() {
-        return frequency;
+        return (short) ((frame.get(offset + 1) << 8) | (frame.get(offset + 2) & 0xFF));
     }
 
     public void setFrequency(byte f) {
-        this.frequency = (short) f;
+        setFrequency((short) f);
     }
 
     public void setFrequency(short f) {
-        this.frequency = f;
+        frame.set(offset + 1, (byte) (f >> 8), (byte) f);
     }
 
     public void setFrequency(int f) {
-        this.frequency = (short) f;
+        setFrequency((short) f);
     }
 
     public int[] getVF() {
         int[] vf = new int[2];
-        vf[0] = (int) volume;
-        vf[1] = (int) frequency;
+        vf[0] = (int) getVolume();
+        vf[1] = (int) getFrequency();
         return vf;
     }
 
     private void setVF(byte v, short f) {
-        volume = v;
-        frequency = f;
+        frame.set(offset, v, (byte) (f >> 8), (byte) f);
     }
 
     private void setVF(int v, int f) {
-        volume = (byte) v;
-        frequency = (short) f;
+        setVF((byte) v, (short) f);
     }
 
     private void setVF(int[] vf) {
         try {
-            volume = (byte) vf[0];
-            frequency = (short) vf[1];
+            setVF(vf[0], vf[1]);
         } catch (ArrayIndexOutOfBoundsException | ArrayStoreException | NegativeArraySizeException e) {
             Log.e("Buzzer", "setVF: " + e.getMessage());
         }
@@ -104,6 +102,7 @@ public class Buzzer extends RobotStateObject {
         // type check and cast
         if (getClass() != buzzer.getClass())
             return false;
-        return Arrays.equals(this.getVF(), ((Buzzer) buzzer).getVF());
+        Buzzer other = (Buzzer) buzzer;
+        return getVolume() == other.getVolume() && getFrequency() == other.getFrequency();
     }
 }
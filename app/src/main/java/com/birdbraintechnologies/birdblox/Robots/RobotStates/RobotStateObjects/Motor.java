@@ -1,36 +1,39 @@
 package com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects;
 
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.PackedFrame;
+
 /**
  * @author Shreyan Bakshi (AppyFizz).
  */
 
 public class Motor extends RobotStateObject{
 
-    private byte speed;
-
     public Motor() {
-        speed = 0;
+        this(new PackedFrame((byte) 0), 0);
     }
 
     public Motor(byte s) {
-        speed = s;
+        this(new PackedFrame(s), 0);
+    }
+
+    public Motor(PackedFrame frame, int offset) {
+        super(frame, offset);
     }
 
-    public synchronized byte getSpeed() {
-        return speed;
+    public byte getSpeed() {
+        return frame.get(offset);
     }
 
-    private synchronized void setSpeed(byte s) {
-        speed = s;
+    private void setSpeed(byte s) {
+        frame.set(offset, s);
     }
 
-    private synchronized void setSpeed(int s) {
+    private void setSpeed(int s) {
         s = clamp(s, -100, 100);
         if (s < 0) {
-            speed = (byte) (Math.abs(s));
-            speed |= (1 << 7);
+            frame.set(offset, (byte) (Math.abs(s) | (1 << 7)));
         } else {
-            speed = (byte) s;
+            frame.set(offset, (byte) s);
         }
     }
 
@@ -59,7 +62,7 @@ public class Motor extends RobotStateObject{
         // type check and cast
         if (getClass() != motor.getClass())
             return false;
-        return speed == ((Motor) motor).speed;
+        return getSpeed() == ((Motor) motor).getSpeed();
     }
 
     private static int clamp(int value, int min, int max) {
@@ -1,11 +1,22 @@
 package com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects;
 
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.PackedFrame;
+
 /**
  * @author Shreyan Bakshi (AppyFizz).
  */
 
 public abstract class RobotStateObject {
 
+    /* The values of a state object live in the packed frame of its RobotState, from offset on */
+    protected final PackedFrame frame;
+    protected final int offset;
+
+    protected RobotStateObject(PackedFrame frame, int offset) {
+        this.frame = frame;
+        this.offset = offset;
+    }
+
     public abstract void setValue(int... values);
 
     public abstract void setValue(byte... values);
@@ -1,32 +1,35 @@
 package com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects;
 
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.PackedFrame;
+
 /**
  * @author Shreyan Bakshi (AppyFizz).
  */
 
 public class Servo extends RobotStateObject{
 
-    private byte angle;
-
     public Servo() {
-        int i = 255;
-        angle = (byte) i;
+        this(new PackedFrame((byte) 255), 0);
     }
 
     public Servo(byte a) {
-        angle = a;
+        this(new PackedFrame(a), 0);
+    }
+
+    public Servo(PackedFrame frame, int offset) {
+        super(frame, offset);
     }
 
-    public synchronized byte getAngle() {
-        return angle;
+    public byte getAngle() {
+        return frame.get(offset);
     }
 
-    private synchronized void setAngle(byte a) {
-        angle = a;
+    private void setAngle(byte a) {
+        frame.set(offset, a);
     }
 
-    private synchronized void setAngle(int a) {
-        angle = clampToBounds(Math.round(a * 1.25), 0, 225);
+    private void setAngle(int a) {
+        frame.set(offset, clampToBounds(Math.round(a * 1.25), 0, 225));
     }
 
     @Override
@@ -54,7 +57,7 @@ public class Servo extends RobotStateObject{
         // type check and cast
         if (getClass() != servo.getClass())
             return false;
-        return angle == ((Servo) servo).angle;
+        return getAngle() == ((Servo) servo).getAngle();
     }
 
 }
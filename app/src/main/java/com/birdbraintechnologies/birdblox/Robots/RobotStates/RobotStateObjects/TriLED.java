@@ -2,7 +2,7 @@ package com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects;
 
 import android.util.Log;
 
-import java.util.Arrays;
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.PackedFrame;
 
 /**
  * @author Shreyan Bakshi (AppyFizz).
@@ -10,81 +10,70 @@ import java.util.Arrays;
 
 public class TriLED extends RobotStateObject{
 
-    private byte red;
-    private byte green;
-    private byte blue;
-
     public TriLED() {
-        red = 0;
-        green = 0;
-        blue = 0;
+        this(new PackedFrame((byte) 0, (byte) 0, (byte) 0), 0);
     }
 
     public TriLED(byte r, byte g, byte b) {
-        red = r;
-        green = g;
-        blue = b;
+        this(new PackedFrame(r, g, b), 0);
+    }
+
+    public TriLED(PackedFrame frame, int offset) {
+        super(frame, offset);
     }
 
     public byte getRed() {
-        return red;
+        return frame.get(offset);
     }
 
     public void setRed(byte r) {
-        red = r;
+        frame.set(offset, r);
     }
 
     public byte getGreen() {
-        return green;
+        return frame.get(offset + 1);
     }
 
     public void setGreen(byte g) {
-        green = g;
+        frame.set(offset + 1, g);
     }
 
     public byte getBlue() {
-        return blue;
+        return frame.get(offset + 2);
     }
 
     public void setBlue(byte b) {
-        blue = b;
+        frame.set(offset + 2, b);
     }
 
-    public synchronized byte[] getRGB() {
+    public byte[] getRGB() {
         byte[] rgb = new byte[3];
-        rgb[0] = red;
-        rgb[1] = green;
-        rgb[2] = blue;
+        rgb[0] = getRed();
+        rgb[1] = getGreen();
+        rgb[2] = getBlue();
         return rgb;
     }
 
-    private synchronized void setRGB(byte r, byte g, byte b) {
-        red = r;
-        green = g;
-        blue = b;
+    private void setRGB(byte r, byte g, byte b) {
+        frame.set(offset, r, g, b);
     }
 
-    private synchronized void setRGB(int r, int g, int b) {
-        red = clampToBounds(Math.round(r * 2.55), 0, 255);
-        green = clampToBounds(Math.round(g * 2.55), 0, 255);
-        blue = clampToBounds(Math.round(b * 2.55), 0, 255);
+    private void setRGB(int r, int g, int b) {
+        frame.set(offset, clampToBounds(Math.round(r * 2.55), 0, 255), clampToBounds(Math.round(g * 2.55), 0, 255),
+                clampToBounds(Math.round(b * 2.55), 0, 255));
     }
 
-    private synchronized void setRGB(byte[] rgb) {
+    private void setRGB(byte[] rgb) {
         try {
-            red = rgb[0];
-            green = rgb[1];
-            blue = rgb[2];
+            setRGB(rgb[0], rgb[1], rgb[2]);
         } catch (ArrayIndexOutOfBoundsException | ArrayStoreException | NegativeArraySizeException e) {
             Log.e("TriLED", "setRGB: " + e.getMessage());
         }
     }
 
-    private synchronized void setRGB(int[] rgb) {
+    private void setRGB(int[] rgb) {
         try {
-            red = clampToBounds(Math.round(rgb[0] * 2.55), 0, 255);
-            green = clampToBounds(Math.round(rgb[1] * 2.55), 0, 255);
-            blue = clampToBounds(Math.round(rgb[2] * 2.55), 0, 255);
+            setRGB(rgb[0], rgb[1], rgb[2]);
         } catch (ArrayIndexOutOfBoundsException | ArrayStoreException | NegativeArraySizeException e) {
             Log.e("TriLED", "setRGB: " + e.getMessage());
         }
@@ -115,7 +104,8 @@ public class TriLED extends RobotStateObject{
         // type check and cast
         if (getClass() != triled.getClass())
             return false;
-        return Arrays.equals(this.getRGB(), ((TriLED) triled).getRGB());
+        TriLED other = (TriLED) triled;
+        return getRed() == other.getRed() && getGreen() == other.getGreen() && getBlue() == other.getBlue();
     }
 
 }
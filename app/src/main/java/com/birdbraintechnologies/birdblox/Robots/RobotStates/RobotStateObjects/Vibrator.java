@@ -1,31 +1,35 @@
 package com.birdbraintechnologies.birdblox.Robots.RobotStates.RobotStateObjects;
 
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.PackedFrame;
+
 /**
  * @author Shreyan Bakshi (AppyFizz).
  */
 
 public class Vibrator extends RobotStateObject{
 
-    private byte intensity;
-
     public Vibrator() {
-        intensity = 0;
+        this(new PackedFrame((byte) 0), 0);
     }
 
     public Vibrator(byte i) {
-        intensity = i;
+        this(new PackedFrame(i), 0);
+    }
+
+    public Vibrator(PackedFrame frame, int offset) {
+        super(frame, offset);
     }
 
-    public synchronized byte getIntensity() {
-        return intensity;
+    public byte getIntensity() {
+        return frame.get(offset);
     }
 
-    private synchronized void setIntensity(byte i) {
-        intensity = i;
+    private void setIntensity(byte i) {
+        frame.set(offset, i);
     }
 
-    private synchronized void setIntensity(int i) {
-        intensity = clampToBounds(Math.round(i * 2.55), 0, 255);
+    private void setIntensity(int i) {
+        frame.set(offset, clampToBounds(Math.round(i * 2.55), 0, 255));
     }
 
     @Override
@@ -53,7 +57,7 @@ public class Vibrator extends RobotStateObject{
         // type check and cast
         if (getClass() != vibrator.getClass())
             return false;
-        return intensity == ((Vibrator) vibrator).intensity;
+        return getIntensity() == ((Vibrator) vibrator).getIntensity();
     }
 
 }
@@ -0,0 +1,134 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.birdbraintechnologies.birdblox.MainWebView.bbxEncode;
+import static com.birdbraintechnologies.birdblox.MainWebView.runJavascript;
+
+/**
+ * Keeps track of the connection status of every robot, and tells the frontend about it only
+ * when it changes (connected, disconnected, old firmware), instead of on every command.
+ * <p>
+ * Every HEARTBEAT_INTERVAL_IN_MILLIS, the status of each connected robot is sent again anyway,
+ * so that the frontend resyncs if it ever misses a change (e.g. after the page reloads). This
+ * heartbeat runs as one of the RobotScheduler's health checks, only while a robot is connected.
+ */
+public class RobotStatusTracker {
+
+    private static final int HEARTBEAT_INTERVAL_IN_MILLIS = 5000;
+
+    private static final int UNKNOWN = 0;
+    private static final int CONNECTED = 1;
+    private static final int DISCONNECTED = 2;
+
+    private static final ConcurrentHashMap<String, RobotStatus> statuses = new ConcurrentHashMap<>();
+    private static final AtomicLong callbacksSent = Metrics.counter("robot_status_callbacks_sent");
+    private static final AtomicLong callbacksSuppressed = Metrics.counter("robot_status_callbacks_suppressed");
+
+    /* Number of robots whose status is CONNECTED, and whether the heartbeat is running for them */
+    private static final AtomicInteger connectedCount = new AtomicInteger();
+    private static boolean heartbeatRunning = false;
+    private static volatile long lastHeartbeatMillis;
+
+    private static final Runnable heartbeat = new Runnable() {
+        @Override
+        public void run() {
+            // Health checks run more often than the heartbeat is due
+            long now = System.currentTimeMillis();
+            if (now - lastHeartbeatMillis < HEARTBEAT_INTERVAL_IN_MILLIS) return;
+            lastHeartbeatMillis = now;
+            for (RobotStatus status : statuses.values()) {
+                if (status.state.get() == CONNECTED) {
+                    runJavascript(status.connectedScript);
+                    callbacksSent.incrementAndGet();
+                }
+            }
+        }
+    };
+
+    /**
+     * Reports the result of communicating with a robot. Tells the frontend only if the status of
+     * the robot changed.
+     *
+     * @param robotId   Id (MAC address) of the robot
+     * @param connected True if the robot responded, false if it failed or isn't connected
+     */
+    public static void report(String robotId, boolean connected) {
+        if (robotId == null) return;
+        RobotStatus status = statusOf(robotId);
+        int newState = connected ? CONNECTED : DISCONNECTED;
+        int oldState = status.state.getAndSet(newState);
+        if (oldState == newState) {
+            callbacksSuppressed.incrementAndGet();
+            return;
+        }
+        if (connected || oldState == CONNECTED) {
+            connectedCount.addAndGet(connected ? 1 : -1);
+            updateHeartbeat();
+        }
+        if (!connected) {
+            // Firmware status is reported again on the next connection
+            status.firmwareOldReported.set(false);
+        }
+        runJavascript(connected ? status.connectedScript : status.disconnectedScript);
+        callbacksSent.incrementAndGet();
+    }
+
+    /**
+     * Reports that a robot has older (but still compatible) firmware. Tells the frontend once per
+     * connection.
+     *
+     * @param robotId Id (MAC address) of the robot
+     */
+    public static void reportFirmwareOld(String robotId) {
+        if (robotId == null) return;
+        if (!statusOf(robotId).firmwareOldReported.getAndSet(true)) {
+            runJavascript("CallbackManager.robot.updateFirmwareStatus('" + bbxEncode(robotId) + "', 'old')");
+            callbacksSent.incrementAndGet();
+        }
+    }
+
+    /**
+     * Starts the heartbeat when a robot is connected, and stops it when none is
+     */
+    private static synchronized void updateHeartbeat() {
+        boolean needed = connectedCount.get() > 0;
+        if (needed == heartbeatRunning) return;
+        heartbeatRunning = needed;
+        if (needed) {
+            lastHeartbeatMillis = System.currentTimeMillis();
+            RobotScheduler.addHealthCheck(heartbeat);
+        } else {
+            RobotScheduler.removeHealthCheck(heartbeat);
+        }
+    }
+
+    private static RobotStatus statusOf(String robotId) {
+        RobotStatus status = statuses.get(robotId);
+        if (status == null) {
+            statuses.putIfAbsent(robotId, new RobotStatus(robotId));
+            status = statuses.get(robotId);
+        }
+        return status;
+    }
+
+    /**
+     * The last status reported for a robot, and its (pre-built) status callbacks
+     */
+    private static class RobotStatus {
+        private final AtomicInteger state = new AtomicInteger(UNKNOWN);
+        private final AtomicBoolean firmwareOldReported = new AtomicBoolean(false);
+        private final String connectedScript;
+        private final String disconnectedScript;
+
+        RobotStatus(String robotId) {
+            connectedScript = "CallbackManager.robot.updateStatus('" + bbxEncode(robotId) + "', true);";
+            disconnectedScript = "CallbackManager.robot.updateStatus('" + bbxEncode(robotId) + "', false);";
+        }
+    }
+}
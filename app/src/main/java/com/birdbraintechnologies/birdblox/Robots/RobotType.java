@@ -1,6 +1,6 @@
 package com.birdbraintechnologies.birdblox.Robots;
 
-import android.util.Log;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
 
 public enum RobotType {
 
@@ -27,7 +27,7 @@ public enum RobotType {
         } else if (robotType.toLowerCase().equals("flutter")) {
             return RobotType.Flutter;
         }
-        Log.d("RobotType", "About to return null");
+        DebugLog.d("RobotType", "About to return null");
         return null;
     }
 
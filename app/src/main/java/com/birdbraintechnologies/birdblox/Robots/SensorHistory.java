@@ -0,0 +1,187 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Util.SensorTables;
+
+/**
+ * The most recent sensor readings of a robot, with the time each was received, kept in a
+ * fixed-size ring buffer of primitive arrays (no boxing, and no allocation per reading).
+ * <p>
+ * There is a single writer (the thread that receives readings from the robot), and any number
+ * of readers, none of which lock. The writer publishes each reading by incrementing a volatile
+ * counter; readers copy the readings they want, and then drop any that the writer may have
+ * overwritten while they were copying.
+ */
+public final class SensorHistory {
+
+    private final int ports;
+    private final int capacity;
+    private final long[] times;
+    private final byte[] values;
+
+    /* Number of readings recorded so far (reading i is in slot i % capacity) */
+    private volatile long recorded = 0;
+
+    /**
+     * @param ports    Number of sensor ports of the robot
+     * @param capacity Number of readings kept
+     */
+    public SensorHistory(int ports, int capacity) {
+        this.ports = ports;
+        this.capacity = capacity;
+        this.times = new long[capacity];
+        this.values = new byte[capacity * ports];
+    }
+
+    public int getPorts() {
+        return ports;
+    }
+
+    /**
+     * Records a reading. Must only be called by one thread at a time.
+     *
+     * @param timeMillis Time the reading was received (System.currentTimeMillis())
+     * @param frame      Raw value of each port, starting at port 1 (extra bytes are ignored,
+     *                   missing ports are recorded as 0)
+     */
+    public void record(long timeMillis, byte[] frame) {
+        long index = recorded;
+        int slot = (int) (index % capacity);
+        times[slot] = timeMillis;
+        int length = Math.min(ports, frame.length);
+        System.arraycopy(frame, 0, values, slot * ports, length);
+        for (int i = length; i < ports; i++) {
+            values[slot * ports + i] = 0;
+        }
+        recorded = index + 1;
+    }
+
+    /**
+     * @param n Maximum number of readings
+     * @return The last n readings, oldest first
+     */
+    public Samples last(int n) {
+        long end = recorded;
+        return copy(end - Math.max(0, n), end);
+    }
+
+    /**
+     * @param timeMillis A time (System.currentTimeMillis())
+     * @return The readings received after the given time, oldest first
+     */
+    public Samples since(long timeMillis) {
+        long end = recorded;
+        long first = end;
+        long oldest = Math.max(0, end - capacity + 1);
+        while (first > oldest && times[(int) ((first - 1) % capacity)] > timeMillis) {
+            first--;
+        }
+        return copy(first, end);
+    }
+
+    /**
+     * Computes the minimum, maximum and mean of a port over the readings received after the
+     * given time, converted according to the type of sensor.
+     *
+     * @param port       Port, starting at 1
+     * @param sensorType Type of sensor connected to the port
+     * @param timeMillis A time (System.currentTimeMillis())
+     * @return The summary of the readings (with a count of 0 if there are none)
+     */
+    public Summary summarize(int port, String sensorType, long timeMillis) {
+        Samples samples = since(timeMillis);
+        int table = SensorTables.tableFor(sensorType);
+        Summary summary = new Summary();
+        double sum = 0;
+        for (int i = 0; i < samples.count; i++) {
+            double value = SensorTables.value(table, samples.get(i, port));
+            if (summary.count == 0 || value < summary.min) summary.min = value;
+            if (summary.count == 0 || value > summary.max) summary.max = value;
+            sum += value;
+            summary.count++;
+        }
+        summary.mean = (summary.count == 0) ? 0 : sum / summary.count;
+        return summary;
+    }
+
+    /**
+     * Copies readings [first, end), and drops the ones that were overwritten while copying
+     */
+    private Samples copy(long first, long end) {
+        first = Math.max(first, Math.max(0, end - capacity + 1));
+        int count = (int) Math.max(0, end - first);
+        Samples samples = new Samples(ports, count);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((first + i) % capacity);
+            samples.times[i] = times[slot];
+            System.arraycopy(values, slot * ports, samples.values, i * ports, ports);
+        }
+        // The writer may have been writing over the oldest slot (or beyond) in the meantime
+        long valid = recorded - capacity + 1;
+        if (first < valid) {
+            samples.drop((int) Math.min(count, valid - first));
+        }
+        return samples;
+    }
+
+    /**
+     * A copy of some readings, oldest first
+     */
+    public static final class Samples {
+        private final int ports;
+        private long[] times;
+        private byte[] values;
+        private int count;
+
+        private Samples(int ports, int count) {
+            this.ports = ports;
+            this.count = count;
+            this.times = new long[count];
+            this.values = new byte[count * ports];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int getPorts() {
+            return ports;
+        }
+
+        /**
+         * @param i Index of the reading (0 is the oldest)
+         * @return Time the reading was received
+         */
+        public long time(int i) {
+            return times[i];
+        }
+
+        /**
+         * @param i    Index of the reading (0 is the oldest)
+         * @param port Port, starting at 1
+         * @return Raw value of the port in the reading
+         */
+        public byte get(int i, int port) {
+            return values[i * ports + port - 1];
+        }
+
+        private void drop(int oldest) {
+            count -= oldest;
+            long[] keptTimes = new long[count];
+            byte[] keptValues = new byte[count * ports];
+            System.arraycopy(times, oldest, keptTimes, 0, count);
+            System.arraycopy(values, oldest * ports, keptValues, 0, count * ports);
+            times = keptTimes;
+            values = keptValues;
+        }
+    }
+
+    /**
+     * Minimum, maximum and mean of a port over some readings
+     */
+    public static final class Summary {
+        public int count;
+        public double min;
+        public double max;
+        public double mean;
+    }
+}
@@ -0,0 +1,196 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+import com.birdbraintechnologies.birdblox.Util.SensorTables;
+import com.birdbraintechnologies.birdblox.httpservice.FrontendWebSocket;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.birdbraintechnologies.birdblox.MainWebView.runJavascript;
+
+/**
+ * The sensor subscriptions of a robot: ports that the frontend wants to be told about when
+ * their value changes, instead of polling /robot/in for them.
+ * <p>
+ * Each subscription is either a deadband (an event is pushed whenever the converted value
+ * moves at least that far from the last value pushed) or a threshold (an event is pushed
+ * whenever the value crosses it, with an optional hysteresis). Every reading received from
+ * the robot is evaluated against all its subscriptions, on the thread that receives it,
+ * without locking or allocating unless an event is pushed. The first reading after
+ * subscribing always pushes an event, with the current value.
+ * <p>
+ * Events go to the frontend WebSocket when it is open, as "! robot/in\n&lt;subscription&gt;
+ * &lt;value&gt;[ above|below]", and through CallbackManager.robot.sensorChanged otherwise.
+ */
+public final class SensorSubscriptions {
+
+    /**
+     * Receives the events of subscriptions
+     */
+    public interface Listener {
+        /**
+         * @param subscriptionId Id of the subscription
+         * @param value          Value of the port, formatted as in /robot/in
+         * @param threshold      True if the subscription is a threshold
+         * @param above          For thresholds, true if the value is above the threshold
+         */
+        void onSensorEvent(int subscriptionId, String value, boolean threshold, boolean above);
+    }
+
+    private static final String EVENT = "robot/in";
+
+    private static final Listener FRONTEND = new Listener() {
+        @Override
+        public void onSensorEvent(int subscriptionId, String value, boolean threshold, boolean above) {
+            if (FrontendWebSocket.anyOpen()) {
+                FrontendWebSocket.broadcast(EVENT, subscriptionId + " " + value + (threshold ? (above ? " above" : " below") : ""));
+            } else {
+                runJavascript("CallbackManager.robot.sensorChanged('" + subscriptionId + "', '" + value + "'"
+                        + (threshold ? ", " + above : "") + ");");
+            }
+        }
+    };
+
+    /* Ids are unique across robots, so that an event identifies its robot too */
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    private static final AtomicLong eventsPushed = Metrics.counter("sensor_events_pushed");
+
+    private final Listener listener;
+    private volatile Subscription[] subscriptions = new Subscription[0];
+
+    public SensorSubscriptions() {
+        this(FRONTEND);
+    }
+
+    SensorSubscriptions(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Subscribes to changes of a port
+     *
+     * @param port       Port, starting at 1
+     * @param sensorType Type of sensor connected to the port
+     * @param deadband   Smallest change of the (converted) value that is pushed (0 for any change)
+     * @return Id of the subscription
+     */
+    public int subscribeDeadband(int port, String sensorType, double deadband) {
+        return add(new Subscription(port, sensorType, false, Math.abs(deadband), 0));
+    }
+
+    /**
+     * Subscribes to a port crossing a threshold
+     *
+     * @param port       Port, starting at 1
+     * @param sensorType Type of sensor connected to the port
+     * @param threshold  The threshold
+     * @param hysteresis How far past the threshold the value must go to cross it again
+     * @return Id of the subscription
+     */
+    public int subscribeThreshold(int port, String sensorType, double threshold, double hysteresis) {
+        return add(new Subscription(port, sensorType, true, threshold, Math.abs(hysteresis)));
+    }
+
+    /**
+     * @param id Id of a subscription
+     * @return True if the subscription existed (and was removed)
+     */
+    public synchronized boolean unsubscribe(int id) {
+        Subscription[] current = subscriptions;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].id == id) {
+                Subscription[] updated = new Subscription[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                subscriptions = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean isEmpty() {
+        return subscriptions.length == 0;
+    }
+
+    /**
+     * Removes all the subscriptions (e.g. when the robot disconnects)
+     */
+    public synchronized void clear() {
+        subscriptions = new Subscription[0];
+    }
+
+    /**
+     * Evaluates a reading against every subscription, and pushes the events it causes. Must
+     * only be called by one thread at a time.
+     *
+     * @param frame Raw value of each port, starting at port 1
+     */
+    public void evaluate(byte[] frame) {
+        for (Subscription s : subscriptions) {
+            if (s.port < 1 || s.port > frame.length) continue;
+            int raw = frame[s.port - 1] & 0xff;
+            if (raw == s.lastRaw) continue;
+            s.lastRaw = raw;
+            double value = SensorTables.value(s.table, (byte) raw);
+            if (s.threshold) {
+                boolean above = (s.state == Subscription.ABOVE) ? value > s.level - s.hysteresis
+                        : (s.state == Subscription.BELOW) ? value > s.level + s.hysteresis
+                        : value > s.level;
+                int state = above ? Subscription.ABOVE : Subscription.BELOW;
+                if (state == s.state) continue;
+                s.state = state;
+                push(s, raw, above);
+            } else {
+                if (!Double.isNaN(s.lastPushed) && Math.abs(value - s.lastPushed) < s.level) continue;
+                s.lastPushed = value;
+                push(s, raw, false);
+            }
+        }
+    }
+
+    private void push(Subscription s, int raw, boolean above) {
+        listener.onSensorEvent(s.id, SensorTables.format(s.table, (byte) raw), s.threshold, above);
+        eventsPushed.incrementAndGet();
+    }
+
+    private synchronized int add(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        Subscription[] updated = new Subscription[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = subscription;
+        subscriptions = updated;
+        return subscription.id;
+    }
+
+    /**
+     * A subscription, and the state of its port when it was last evaluated (only touched by
+     * the thread that evaluates readings)
+     */
+    private static final class Subscription {
+        static final int UNKNOWN = 0;
+        static final int ABOVE = 1;
+        static final int BELOW = 2;
+
+        final int id = nextId.getAndIncrement();
+        final int port;
+        final int table;
+        final boolean threshold;
+        /* The deadband, or the threshold */
+        final double level;
+        final double hysteresis;
+
+        int lastRaw = -1;
+        double lastPushed = Double.NaN;
+        int state = UNKNOWN;
+
+        Subscription(int port, String sensorType, boolean threshold, double level, double hysteresis) {
+            this.port = port;
+            this.table = SensorTables.tableFor(sensorType);
+            this.threshold = threshold;
+            this.level = level;
+            this.hysteresis = hysteresis;
+        }
+    }
+}
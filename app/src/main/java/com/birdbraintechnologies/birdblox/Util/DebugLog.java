@@ -0,0 +1,243 @@
+package com.birdbraintechnologies.birdblox.Util;
+
+import android.util.Log;
+
+import com.birdbraintechnologies.birdblox.BuildConfig;
+
+import java.util.Arrays;
+
+/**
+ * Logging facade for the hot paths of the app (HTTP requests, robot commands, BLE traffic and
+ * the JavaScript bridge), where android.util.Log would build a message for every call.
+ * <p>
+ * - Gating: in release builds (BuildConfig.DEBUG is false), every call is dropped before
+ * anything is built. In debug builds, messages below the current level (see setLevel) are
+ * dropped as well.
+ * - Lazy construction: messages are given as a format String ("%s" placeholders) and its
+ * arguments, and are only formatted if they are going to be logged. Formatting itself happens
+ * on a background thread.
+ * - Asynchronous sink: messages that pass the gate are put in a fixed-size ring buffer, and
+ * written to logcat by a background thread. If the buffer is full, the message is dropped
+ * (and counted in Metrics as "log_messages_dropped") instead of blocking the caller.
+ * <p>
+ * Arguments should be Strings, numbers, enums or byte arrays (which are copied and printed
+ * like Arrays.toString). Any other argument is converted with String.valueOf() on the calling
+ * thread (but only if the message is going to be logged), since it might change later.
+ * Errors should still be logged with Log.e, since they must never be dropped.
+ */
+public final class DebugLog {
+
+    public static final int VERBOSE = Log.VERBOSE;
+    public static final int DEBUG = Log.DEBUG;
+    public static final int INFO = Log.INFO;
+
+    /* Compile-time gate: false in release builds, so that the compiler drops guarded code */
+    public static final boolean ENABLED = BuildConfig.DEBUG;
+
+    private static final int BUFFER_SIZE = 256;
+
+    private static volatile int minLevel = VERBOSE;
+
+    private static final Entry[] buffer = new Entry[BUFFER_SIZE];
+    private static int head = 0;
+    private static int count = 0;
+    private static Thread sinkThread;
+
+    static {
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            buffer[i] = new Entry();
+        }
+    }
+
+    private DebugLog() {
+    }
+
+    /**
+     * Sets the lowest level that is logged (e.g. DebugLog.DEBUG to drop verbose messages), through
+     * /debug/logLevel
+     *
+     * @param level One of VERBOSE, DEBUG or INFO
+     */
+    public static void setLevel(int level) {
+        minLevel = level;
+    }
+
+    /**
+     * @param level Level of a message
+     * @return Whether a message of the given level would be logged. Use this to guard any
+     * expensive work that is only needed for logging.
+     */
+    public static boolean isLoggable(int level) {
+        return ENABLED && level >= minLevel;
+    }
+
+    public static void v(String tag, String message) {
+        if (isLoggable(VERBOSE)) enqueue(VERBOSE, tag, message, 0, null, null, null, null);
+    }
+
+    public static void v(String tag, String format, Object arg1) {
+        if (isLoggable(VERBOSE)) enqueue(VERBOSE, tag, format, 1, arg1, null, null, null);
+    }
+
+    public static void v(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(VERBOSE)) enqueue(VERBOSE, tag, format, 2, arg1, arg2, null, null);
+    }
+
+    public static void v(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(VERBOSE)) enqueue(VERBOSE, tag, format, 3, arg1, arg2, arg3, null);
+    }
+
+    public static void d(String tag, String message) {
+        if (isLoggable(DEBUG)) enqueue(DEBUG, tag, message, 0, null, null, null, null);
+    }
+
+    public static void d(String tag, String format, Object arg1) {
+        if (isLoggable(DEBUG)) enqueue(DEBUG, tag, format, 1, arg1, null, null, null);
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(DEBUG)) enqueue(DEBUG, tag, format, 2, arg1, arg2, null, null);
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(DEBUG)) enqueue(DEBUG, tag, format, 3, arg1, arg2, arg3, null);
+    }
+
+    public static void d(String tag, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (isLoggable(DEBUG)) enqueue(DEBUG, tag, format, 4, arg1, arg2, arg3, arg4);
+    }
+
+    public static void i(String tag, String message) {
+        if (isLoggable(INFO)) enqueue(INFO, tag, message, 0, null, null, null, null);
+    }
+
+    public static void i(String tag, String format, Object arg1) {
+        if (isLoggable(INFO)) enqueue(INFO, tag, format, 1, arg1, null, null, null);
+    }
+
+    public static void i(String tag, String format, Object arg1, Object arg2) {
+        if (isLoggable(INFO)) enqueue(INFO, tag, format, 2, arg1, arg2, null, null);
+    }
+
+    public static void i(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (isLoggable(INFO)) enqueue(INFO, tag, format, 3, arg1, arg2, arg3, null);
+    }
+
+    public static void i(String tag, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        if (isLoggable(INFO)) enqueue(INFO, tag, format, 4, arg1, arg2, arg3, arg4);
+    }
+
+    /**
+     * Puts a message in the ring buffer, to be formatted and written by the sink thread.
+     */
+    private static void enqueue(int level, String tag, String format, int argCount, Object arg1, Object arg2, Object arg3, Object arg4) {
+        arg1 = snapshot(arg1);
+        arg2 = snapshot(arg2);
+        arg3 = snapshot(arg3);
+        arg4 = snapshot(arg4);
+        synchronized (buffer) {
+            if (count == BUFFER_SIZE) {
+                Metrics.counter("log_messages_dropped").incrementAndGet();
+                return;
+            }
+            buffer[(head + count) % BUFFER_SIZE].set(level, tag, format, argCount, arg1, arg2, arg3, arg4);
+            count++;
+            if (sinkThread == null) {
+                sinkThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        drain();
+                    }
+                }, "DebugLog");
+                sinkThread.setDaemon(true);
+                sinkThread.setPriority(Thread.MIN_PRIORITY);
+                sinkThread.start();
+            } else if (count == 1) {
+                buffer.notify();
+            }
+        }
+    }
+
+    /**
+     * Writes the messages in the ring buffer to logcat, forever.
+     */
+    private static void drain() {
+        Entry entry = new Entry();
+        while (true) {
+            synchronized (buffer) {
+                while (count == 0) {
+                    try {
+                        buffer.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                Entry next = buffer[head];
+                entry.set(next.level, next.tag, next.format, next.argCount, next.arg1, next.arg2, next.arg3, next.arg4);
+                next.clear();
+                head = (head + 1) % BUFFER_SIZE;
+                count--;
+            }
+            Log.println(entry.level, entry.tag, entry.format());
+            entry.clear();
+        }
+    }
+
+    private static Object snapshot(Object arg) {
+        if (arg == null || arg instanceof String || arg instanceof Number || arg instanceof Enum) {
+            return arg;
+        }
+        if (arg instanceof byte[]) {
+            return ((byte[]) arg).clone();
+        }
+        return String.valueOf(arg);
+    }
+
+    /**
+     * A message waiting in the ring buffer
+     */
+    private static class Entry {
+        private int level;
+        private String tag;
+        private String format;
+        private int argCount;
+        private Object arg1, arg2, arg3, arg4;
+
+        void set(int level, String tag, String format, int argCount, Object arg1, Object arg2, Object arg3, Object arg4) {
+            this.level = level;
+            this.tag = tag;
+            this.format = format;
+            this.argCount = argCount;
+            this.arg1 = arg1;
+            this.arg2 = arg2;
+            this.arg3 = arg3;
+            this.arg4 = arg4;
+        }
+
+        void clear() {
+            set(0, null, null, 0, null, null, null, null);
+        }
+
+        /**
+         * @return The message, with each "%s" in the format replaced by the next argument
+         */
+        String format() {
+            if (format == null) return "null";
+            if (argCount == 0) return format;
+            Object[] args = {arg1, arg2, arg3, arg4};
+            StringBuilder message = new StringBuilder(format.length() + 32);
+            int argIndex = 0;
+            int start = 0;
+            int placeholder;
+            while ((placeholder = format.indexOf("%s", start)) >= 0 && argIndex < argCount) {
+                message.append(format, start, placeholder).append(toString(args[argIndex++]));
+                start = placeholder + 2;
+            }
+            return message.append(format, start, format.length()).toString();
+        }
+
+        private static String toString(Object arg) {
+            return (arg instanceof byte[]) ? Arrays.toString((byte[]) arg) : String.valueOf(arg);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.birdbraintechnologies.birdblox.Util;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide registry of performance metrics: per-route request counts, errors and latency
+ * histograms, latency histograms for each phase of serving a request, named counters, and
+ * named per-robot counters.
+ * Readable through /debug/metrics, as JSON or as Prometheus text.
+ * <p>
+ * Looking up an existing route or counter and recording into it never allocates.
+ */
+public class Metrics {
+    private static final String TAG = Metrics.class.getName();
+
+    /* Keeps junk request paths from growing the registry without bounds */
+    private static final int MAX_COMMANDS_PER_ROUTE = 32;
+    private static final String OTHER_COMMAND = "other";
+
+    private static final double[] QUANTILES = {0.5, 0.99};
+    private static final String[] QUANTILE_NAMES = {"p50", "p99"};
+
+    /* Time spent in each phase of serving a request */
+    public static final LatencyHistogram routingTime = new LatencyHistogram();
+    public static final LatencyHistogram handlerTime = new LatencyHistogram();
+    public static final LatencyHistogram writeTime = new LatencyHistogram();
+
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, RouteStats>> routes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    /* Per-robot counters, by counter name and then by robot id */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, AtomicLong>> robotCounters = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the stats of a route, creating them the first time the route is seen
+     *
+     * @param route   Route prefix (e.g. "robot")
+     * @param command First path segment after the prefix (e.g. "out")
+     * @return Stats of the route
+     */
+    public static RouteStats route(String route, String command) {
+        ConcurrentHashMap<String, RouteStats> commands = routes.get(route);
+        if (commands == null) {
+            routes.putIfAbsent(route, new ConcurrentHashMap<String, RouteStats>());
+            commands = routes.get(route);
+        }
+        RouteStats stats = commands.get(command);
+        if (stats == null) {
+            if (commands.size() >= MAX_COMMANDS_PER_ROUTE) {
+                command = OTHER_COMMAND;
+            }
+            commands.putIfAbsent(command, new RouteStats());
+            stats = commands.get(command);
+        }
+        return stats;
+    }
+
+    /**
+     * Gets a named counter, creating it the first time it is used
+     *
+     * @param name Name of the counter (lower_snake_case, e.g. "js_scripts_coalesced")
+     * @return The counter
+     */
+    public static AtomicLong counter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new AtomicLong());
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    /**
+     * Gets a named counter of a single robot, creating it the first time it is used
+     *
+     * @param name    Name of the counter (lower_snake_case, e.g. "bytes_on_air")
+     * @param robotId Id (MAC address) of the robot
+     * @return The counter
+     */
+    public static AtomicLong robotCounter(String name, String robotId) {
+        ConcurrentHashMap<String, AtomicLong> byRobot = robotCounters.get(name);
+        if (byRobot == null) {
+            robotCounters.putIfAbsent(name, new ConcurrentHashMap<String, AtomicLong>());
+            byRobot = robotCounters.get(name);
+        }
+        String robot = (robotId == null) ? "unknown" : robotId;
+        AtomicLong counter = byRobot.get(robot);
+        if (counter == null) {
+            byRobot.putIfAbsent(robot, new AtomicLong());
+            counter = byRobot.get(robot);
+        }
+        return counter;
+    }
+
+    /**
+     * @return All metrics as JSON
+     */
+    public static JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            JSONObject routesJSON = new JSONObject();
+            for (Map.Entry<String, ConcurrentHashMap<String, RouteStats>> route : routes.entrySet()) {
+                for (Map.Entry<String, RouteStats> command : route.getValue().entrySet()) {
+                    RouteStats stats = command.getValue();
+                    routesJSON.put(route.getKey() + "/" + command.getKey(), histogramToJSON(stats.latency)
+                            .put("errors", stats.errors.get()));
+                }
+            }
+            json.put("routes", routesJSON);
+            json.put("phases", new JSONObject()
+                    .put("routing", histogramToJSON(routingTime))
+                    .put("handler", histogramToJSON(handlerTime))
+                    .put("write", histogramToJSON(writeTime)));
+            JSONObject countersJSON = new JSONObject();
+            for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                countersJSON.put(counter.getKey(), counter.getValue().get());
+            }
+            json.put("counters", countersJSON);
+            JSONObject robotsJSON = new JSONObject();
+            for (Map.Entry<String, ConcurrentHashMap<String, AtomicLong>> counter : robotCounters.entrySet()) {
+                for (Map.Entry<String, AtomicLong> robot : counter.getValue().entrySet()) {
+                    JSONObject robotJSON = robotsJSON.optJSONObject(robot.getKey());
+                    if (robotJSON == null) {
+                        robotJSON = new JSONObject();
+                        robotsJSON.put(robot.getKey(), robotJSON);
+                    }
+                    robotJSON.put(counter.getKey(), robot.getValue().get());
+                }
+            }
+            json.put("robots", robotsJSON);
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to build metrics JSON: " + e.getMessage());
+        }
+        return json;
+    }
+
+    /**
+     * @return All metrics in the Prometheus text exposition format
+     */
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        Map<String, RouteStats> sortedRoutes = new TreeMap<>();
+        for (Map.Entry<String, ConcurrentHashMap<String, RouteStats>> route : routes.entrySet()) {
+            for (Map.Entry<String, RouteStats> command : route.getValue().entrySet()) {
+                sortedRoutes.put(route.getKey() + "/" + command.getKey(), command.getValue());
+            }
+        }
+
+        out.append("# TYPE birdblox_requests_total counter\n");
+        for (Map.Entry<String, RouteStats> e : sortedRoutes.entrySet()) {
+            appendSample(out, "birdblox_requests_total", "route", e.getKey(), null, e.getValue().latency.getCount());
+        }
+        out.append("# TYPE birdblox_request_errors_total counter\n");
+        for (Map.Entry<String, RouteStats> e : sortedRoutes.entrySet()) {
+            appendSample(out, "birdblox_request_errors_total", "route", e.getKey(), null, e.getValue().errors.get());
+        }
+        out.append("# TYPE birdblox_request_duration_seconds summary\n");
+        for (Map.Entry<String, RouteStats> e : sortedRoutes.entrySet()) {
+            appendSummary(out, "birdblox_request_duration_seconds", "route", e.getKey(), e.getValue().latency);
+        }
+        out.append("# TYPE birdblox_request_phase_seconds summary\n");
+        appendSummary(out, "birdblox_request_phase_seconds", "phase", "routing", routingTime);
+        appendSummary(out, "birdblox_request_phase_seconds", "phase", "handler", handlerTime);
+        appendSummary(out, "birdblox_request_phase_seconds", "phase", "write", writeTime);
+        for (Map.Entry<String, AtomicLong> counter : new TreeMap<>(counters).entrySet()) {
+            out.append("# TYPE birdblox_").append(counter.getKey()).append(" counter\n");
+            out.append("birdblox_").append(counter.getKey()).append(' ').append(counter.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, ConcurrentHashMap<String, AtomicLong>> counter : new TreeMap<>(robotCounters).entrySet()) {
+            String name = "birdblox_robot_" + counter.getKey();
+            out.append("# TYPE ").append(name).append(" counter\n");
+            for (Map.Entry<String, AtomicLong> robot : new TreeMap<>(counter.getValue()).entrySet()) {
+                appendSample(out, name, "robot", robot.getKey(), null, robot.getValue().get());
+            }
+        }
+        return out.toString();
+    }
+
+    private static JSONObject histogramToJSON(LatencyHistogram histogram) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("count", histogram.getCount());
+        for (int i = 0; i < QUANTILES.length; i++) {
+            json.put(QUANTILE_NAMES[i] + "Millis", histogram.getQuantileMicros(QUANTILES[i]) / 1000.0);
+        }
+        json.put("maxMillis", histogram.getMaxMicros() / 1000.0);
+        return json;
+    }
+
+    private static void appendSummary(StringBuilder out, String name, String label, String value, LatencyHistogram histogram) {
+        for (double quantile : QUANTILES) {
+            appendSample(out, name, label, value, Double.toString(quantile), histogram.getQuantileMicros(quantile) / 1e6);
+        }
+        appendSample(out, name, label, value, "1.0", histogram.getMaxMicros() / 1e6);
+        appendSample(out, name + "_sum", label, value, null, histogram.getSumMicros() / 1e6);
+        appendSample(out, name + "_count", label, value, null, histogram.getCount());
+    }
+
+    private static void appendSample(StringBuilder out, String name, String label, String value, String quantile, double sample) {
+        out.append(name).append('{').append(label).append("=\"").append(escapeLabel(value)).append('"');
+        if (quantile != null) {
+            out.append(",quantile=\"").append(quantile).append('"');
+        }
+        out.append("} ");
+        if (sample == Math.rint(sample)) {
+            out.append((long) sample);
+        } else {
+            out.append(sample);
+        }
+        out.append('\n');
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Request count, error count and latency histogram of a single route
+     */
+    public static class RouteStats {
+        private final AtomicLong errors = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * Records one request
+         *
+         * @param nanos Time taken to handle the request, in nanoseconds
+         * @param error Whether the request failed
+         */
+        public void record(long nanos, boolean error) {
+            latency.recordNanos(nanos);
+            if (error) errors.incrementAndGet();
+        }
+    }
+}
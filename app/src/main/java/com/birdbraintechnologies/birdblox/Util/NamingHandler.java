@@ -5,6 +5,8 @@ import android.content.Context;
 
 import com.birdbraintechnologies.birdblox.R;
 
+import java.util.HashMap;
+
 /**
  * Created by Steve on 6/9/2016.
  *
@@ -15,8 +17,22 @@ import com.birdbraintechnologies.birdblox.R;
  */
 public class NamingHandler {
 
+    /* Names already generated, by MAC address (a name only depends on the address) */
+    private static final HashMap<String, String> names = new HashMap<>();
+
     public static String GenerateName(Context context, String mac) {
         if (mac == null) return "";
+        synchronized (names) {
+            String name = names.get(mac);
+            if (name == null) {
+                name = generate(context, mac);
+                names.put(mac, name);
+            }
+            return name;
+        }
+    }
+
+    private static String generate(Context context, String mac) {
         String result = "unknown";
         long mid;
         int i, j, k, offset;
@@ -0,0 +1,87 @@
+package com.birdbraintechnologies.birdblox.Util;
+
+/**
+ * Precomputed conversions of every raw sensor reading [0,255], for each type of sensor: the
+ * converted value, and the String that is returned to the frontend for it. Reading a sensor is
+ * then a table lookup, instead of running the conversion (e.g. the distance polynomial) and
+ * Double.toString on every request.
+ * <p>
+ * The tables are built with DeviceUtil, so they give exactly the same values and Strings.
+ */
+public final class SensorTables {
+
+    public static final int PERCENT = 0;
+    public static final int DISTANCE = 1;
+    public static final int TEMPERATURE = 2;
+    public static final int VOLTAGE = 3;
+
+    private static final int TABLE_COUNT = 4;
+    private static final int TABLE_SIZE = 256;
+
+    private static final double[][] values = new double[TABLE_COUNT][TABLE_SIZE];
+    private static final String[][] strings = new String[TABLE_COUNT][TABLE_SIZE];
+
+    static {
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            byte raw = (byte) i;
+            values[PERCENT][i] = DeviceUtil.RawToPercent(raw);
+            values[DISTANCE][i] = DeviceUtil.RawToDist(raw);
+            values[TEMPERATURE][i] = DeviceUtil.RawToTemp(raw);
+            values[VOLTAGE][i] = DeviceUtil.RawToVoltage(raw);
+            for (int table = 0; table < TABLE_COUNT; table++) {
+                strings[table][i] = Double.toString(values[table][i]);
+            }
+        }
+    }
+
+    private SensorTables() {
+    }
+
+    /**
+     * Finds the table for a type of sensor. Sound, light and generic sensors (and any unknown
+     * type) are read as a percentage.
+     *
+     * @param sensorType Type of sensor, e.g. "distance"
+     * @return One of PERCENT, DISTANCE, TEMPERATURE or VOLTAGE
+     */
+    public static int tableFor(String sensorType) {
+        if (sensorType == null) return PERCENT;
+        switch (sensorType) {
+            case "distance":
+                return DISTANCE;
+            case "temperature":
+                return TEMPERATURE;
+            case "voltage":
+                return VOLTAGE;
+            default:
+                return PERCENT;
+        }
+    }
+
+    /**
+     * @param table One of PERCENT, DISTANCE, TEMPERATURE or VOLTAGE
+     * @param raw   Raw reading from the sensor
+     * @return The converted reading
+     */
+    public static double value(int table, byte raw) {
+        return values[table][raw & 0xff];
+    }
+
+    /**
+     * @param table One of PERCENT, DISTANCE, TEMPERATURE or VOLTAGE
+     * @param raw   Raw reading from the sensor
+     * @return The converted reading, formatted for the frontend
+     */
+    public static String format(int table, byte raw) {
+        return strings[table][raw & 0xff];
+    }
+
+    /**
+     * @param sensorType Type of sensor, e.g. "distance"
+     * @param raw        Raw reading from the sensor
+     * @return The converted reading, formatted for the frontend
+     */
+    public static String format(String sensorType, byte raw) {
+        return strings[tableFor(sensorType)][raw & 0xff];
+    }
+}
@@ -0,0 +1,20 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * A RequestHandler that can answer its most frequent requests straight from the request URI,
+ * without the RequestRouter splitting the path into segments first.
+ */
+public interface FastPathHandler extends RequestHandler {
+
+    /**
+     * Handles a request, if it is one that this handler has a fast path for
+     *
+     * @param session    HttpSession generated
+     * @param path       Request URI, e.g. "/robot/out/led"
+     * @param argsOffset Index (in path) of the first character after the matched route prefix
+     * @return Response to the request, or null if the request must be given to handleRequest
+     */
+    NanoHTTPD.Response handleFastPath(NanoHTTPD.IHTTPSession session, String path, int argsOffset);
+}
@@ -0,0 +1,225 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import android.util.Log;
+
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoWSD;
+
+/**
+ * Long-lived WebSocket between the frontend and the HttpService. It carries requests for the
+ * usual RequestRouter routes (handled exactly like their HTTP equivalents), and events pushed
+ * by the app, so that the frontend doesn't need to poll for them.
+ * <p>
+ * All messages are text frames:
+ * <pre>
+ * Request  (frontend to app): "&lt;id&gt; &lt;path&gt;[?&lt;query&gt;]", optionally followed by "\n&lt;POST body&gt;"
+ * Response (app to frontend): "&lt;id&gt; &lt;HTTP status code&gt;\n&lt;response body&gt;"
+ * Event    (app to frontend): "! &lt;event&gt;\n&lt;payload&gt;"
+ * </pre>
+ * e.g. "12 /robot/out/led?type=hummingbird&amp;id=...&amp;port=1&amp;intensity=50" is answered with
+ * "12 200\nSent to robot hummingbird successfully.", and a shake of the device is pushed as
+ * "! tablet/shake\n1". The HTTP routes stay available, so the frontend can fall back to them
+ * whenever the WebSocket is not open.
+ */
+public class FrontendWebSocket extends NanoWSD.WebSocket implements WebSocketSession.Handler {
+    private static final String TAG = FrontendWebSocket.class.getName();
+
+    private static final String EVENT_ID = "!";
+    /* Must be shorter than NanoHTTPD.SOCKET_READ_TIMEOUT, or idle sockets get closed */
+    private static final int PING_INTERVAL_IN_MILLIS = 2000;
+    private static final byte[] PING_PAYLOAD = new byte[0];
+
+    private static final List<FrontendWebSocket> openSockets = new CopyOnWriteArrayList<>();
+    private static final ScheduledExecutorService pingExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    static {
+        pingExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (FrontendWebSocket socket : openSockets) {
+                    try {
+                        socket.ping(PING_PAYLOAD);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Unable to ping WebSocket: " + e.getMessage());
+                    }
+                }
+            }
+        }, PING_INTERVAL_IN_MILLIS, PING_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private final RequestRouter router;
+    private final PriorityAsyncRunner runner;
+
+    /* Requests waiting for the one in progress (guarded by pending) */
+    private final ArrayDeque<WebSocketSession> pending = new ArrayDeque<>();
+    private boolean inProgress = false;
+
+    FrontendWebSocket(NanoHTTPD.IHTTPSession handshakeRequest, RequestRouter router, PriorityAsyncRunner runner) {
+        super(handshakeRequest);
+        this.router = router;
+        this.runner = runner;
+    }
+
+    /**
+     * @return True if at least one frontend WebSocket is open
+     */
+    public static boolean anyOpen() {
+        return !openSockets.isEmpty();
+    }
+
+    /**
+     * Pushes an event to every open frontend WebSocket. Does nothing if none are open.
+     *
+     * @param event   Name of the event (usually the route that would otherwise be polled)
+     * @param payload Data of the event
+     */
+    public static void broadcast(String event, String payload) {
+        if (openSockets.isEmpty()) return;
+        String message = EVENT_ID + " " + event + "\n" + (payload == null ? "" : payload);
+        for (FrontendWebSocket socket : openSockets) {
+            socket.sendQuietly(message);
+        }
+    }
+
+    @Override
+    protected void onOpen() {
+        openSockets.add(this);
+        DebugLog.d(TAG, "Frontend WebSocket opened");
+    }
+
+    @Override
+    protected void onClose(NanoWSD.WebSocketFrame.CloseCode code, String reason, boolean initiatedByRemote) {
+        openSockets.remove(this);
+        DebugLog.d(TAG, "Frontend WebSocket closed: %s %s", code, reason);
+    }
+
+    @Override
+    protected void onMessage(NanoWSD.WebSocketFrame message) {
+        String text = message.getTextPayload();
+        if (text == null) return;
+        int space = text.indexOf(' ');
+        if (space <= 0) {
+            Log.e(TAG, "Malformed WebSocket request: " + text);
+            return;
+        }
+        String id = text.substring(0, space);
+        int newline = text.indexOf('\n', space);
+        String target = (newline >= 0) ? text.substring(space + 1, newline) : text.substring(space + 1);
+        String body = (newline >= 0) ? text.substring(newline + 1) : null;
+        WebSocketSession session = new WebSocketSession(id, target, body, getHandshakeRequest(), this);
+
+        synchronized (pending) {
+            pending.add(session);
+            if (inProgress) return;
+            inProgress = true;
+        }
+        runNext();
+    }
+
+    /**
+     * Starts the next pending request of this socket, once the one before it is done. The
+     * requests of a socket run one at a time, in the order they arrived (as the requests of an
+     * HTTP connection do), each on a thread of its lane (see PriorityAsyncRunner).
+     */
+    private void runNext() {
+        while (true) {
+            final WebSocketSession session;
+            synchronized (pending) {
+                session = pending.poll();
+                if (session == null) {
+                    inProgress = false;
+                    return;
+                }
+            }
+            try {
+                runner.execute(session.getUri(), new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            session.execute();
+                        } finally {
+                            runNext();
+                        }
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "Unable to handle WebSocket request " + session.getTarget() + ": no thread available");
+                sendQuietly(session.getId() + " " + NanoHTTPD.Response.Status.SERVICE_UNAVAILABLE.getRequestStatus() + "\n");
+            }
+        }
+    }
+
+    @Override
+    protected void onPong(NanoWSD.WebSocketFrame pong) {
+    }
+
+    @Override
+    protected void onException(IOException exception) {
+        openSockets.remove(this);
+        Log.e(TAG, "Frontend WebSocket error: " + exception.getMessage());
+    }
+
+    /**
+     * Routes a request and sends back the response.
+     *
+     * @param session The request
+     */
+    @Override
+    public void handle(final WebSocketSession session) {
+        NanoHTTPD.Response response;
+        try {
+            response = runner.dispatch(session.getUri(), new Callable<NanoHTTPD.Response>() {
+                @Override
+                public NanoHTTPD.Response call() {
+                    return router.routeAndDispatch(session);
+                }
+            });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error while handling WebSocket request " + session.getTarget() + ": " + e.getMessage());
+            response = NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.INTERNAL_ERROR,
+                    NanoHTTPD.MIME_PLAINTEXT, "");
+        }
+        if (response == null) {
+            response = NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.NOT_IMPLEMENTED,
+                    NanoHTTPD.MIME_PLAINTEXT, "");
+        }
+        sendQuietly(session.getId() + " " + response.getStatus().getRequestStatus() + "\n" + readBody(response));
+    }
+
+    private static String readBody(NanoHTTPD.Response response) {
+        InputStream data = response.getData();
+        if (data == null) return "";
+        try {
+            return IOUtils.toString(data, "utf-8");
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read response body: " + e.getMessage());
+            return "";
+        } finally {
+            IOUtils.closeQuietly(data);
+        }
+    }
+
+    private void sendQuietly(String message) {
+        try {
+            send(message);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to send WebSocket message: " + e.getMessage());
+        }
+    }
+}
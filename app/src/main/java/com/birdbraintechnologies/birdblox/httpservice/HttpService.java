@@ -6,10 +6,17 @@ import android.os.IBinder;
 import android.util.Log;
 
 import com.birdbraintechnologies.birdblox.Bluetooth.BluetoothHelper;
+import com.birdbraintechnologies.birdblox.Robots.RobotScheduler;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
 
 import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoWSD;
 
 /**
  * Service that bundles the HTTP server and Bluetooth
@@ -40,7 +47,7 @@ public class HttpService extends Service {
             // TODO: Handle errors in getting the Bluetooth service
             server = new Server(DEFAULT_PORT, this);
         } catch (IOException e) {
-            Log.d(TAG, "Unable to start service " + e);
+            Log.e(TAG, "Unable to start service " + e.getMessage());
         }
         return START_STICKY;
     }
@@ -48,7 +55,7 @@ public class HttpService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        Log.d(TAG, "HttpService destroyed");
+        DebugLog.d(TAG, "HttpService destroyed");
         if (server != null) {
             server.stop();
         }
@@ -64,32 +71,60 @@ public class HttpService extends Service {
 
 
     /**
-     * HTTP server that serves all requests to this service
+     * Gets the queue depths and wait times of the HTTP server's worker threads, and the
+     * threads and wakeups of the robot scheduler
+     * @return Worker stats as JSON
+     */
+    public JSONObject getWorkerStats() {
+        JSONObject stats = (server != null) ? server.runner.getStats() : new JSONObject();
+        try {
+            stats.put("robots", RobotScheduler.getStats());
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to add robot scheduler stats: " + e.getMessage());
+        }
+        return stats;
+    }
+
+
+    /**
+     * HTTP server that serves all requests to this service. Also accepts WebSocket connections
+     * from the frontend (see FrontendWebSocket), which are routed the same way.
      */
-    private static class Server extends NanoHTTPD {
+    private static class Server extends NanoWSD {
         public static final String TAG = "NanoHTTPServer";
         private RequestRouter router;
+        private PriorityAsyncRunner runner;
 
         Server(int port, HttpService service) throws IOException {
             super(HTTPAccessFlag, port);
-            start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
+            runner = new PriorityAsyncRunner();
+            setAsyncRunner(runner);
             router = new RequestRouter(service);
-            Log.d(TAG, "Started server on port " + port);
+            start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
+            DebugLog.d(TAG, "Started server on port %s", port);
         }
 
         @Override
-        public Response serve(IHTTPSession session) {
-            String requestPath = session.getUri();
-
-            Log.d("SessionURI", session.getUri());
-            Log.d("SessionParameters", session.getParameters().toString());
+        protected WebSocket openWebSocket(IHTTPSession handshake) {
+            DebugLog.d(TAG, "Opening WebSocket for %s", handshake.getRemoteIpAddress());
+            return new FrontendWebSocket(handshake, router, runner);
+        }
 
+        @Override
+        protected Response serveHttp(final IHTTPSession session) {
+            String requestPath = session.getUri();
 
             Method requestMethod = session.getMethod();
-            Log.d(TAG, session.getRemoteIpAddress() + " " + requestMethod + " " + requestPath);
+            DebugLog.d(TAG, "%s %s %s?%s", session.getRemoteIpAddress(), requestMethod, requestPath,
+                    session.getQueryParameterString());
 
-            // Route request
-            Response response = router.routeAndDispatch(session);
+            // Route request (in the lane for its route)
+            Response response = runner.dispatch(requestPath, new Callable<Response>() {
+                @Override
+                public Response call() {
+                    return router.routeAndDispatch(session);
+                }
+            });
 
             if (response == null) {
                 response = newFixedLengthResponse(Response.Status.NOT_IMPLEMENTED,
@@ -97,6 +132,7 @@ public class HttpService extends Service {
             }
 
             response.addHeader("Access-Control-Allow-Origin", "*");
+            TimedResponseBody.attach(response);
             return response;
         }
     }
@@ -0,0 +1,347 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import android.os.Process;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Runs the HTTP server's connections on a bounded pool of reused threads (instead of a new
+ * thread per connection), and keeps slow requests from competing with latency-critical ones.
+ * <p>
+ * A connection holds its thread for as long as it is open (keep-alive connections between
+ * requests, WebSockets for good), so connections are never queued: each one is handed straight
+ * to an idle thread, or to a new one, up to MAX_CONNECTION_THREADS. Connections beyond that are
+ * refused rather than left waiting behind the open ones.
+ * <p>
+ * Requests are split into lanes by their route:
+ * - Fast lane (/robot, /sound): run straight away on the connection thread, with no hand-off.
+ * Requests that arrive over the frontend WebSocket run on ROBOT_THREADS threads reserved for
+ * this lane, which nothing else uses. At most ROBOT_QUEUE_CAPACITY of them can be waiting for
+ * one of these threads: further ones are refused (and answered with 503).
+ * - Background lane (/data, /cloud, /debug): handed off to a small pool of low-priority threads,
+ * so that no more than BACKGROUND_THREADS of them ever compete with the fast lane for the CPU.
+ * Their connection threads wait for the result, and at most BACKGROUND_QUEUE_CAPACITY of them
+ * can be waiting: further background requests are answered with 503 straight away.
+ * - Everything else is run on the connection thread, like the fast lane.
+ */
+class PriorityAsyncRunner implements NanoHTTPD.AsyncRunner {
+    private static final String TAG = PriorityAsyncRunner.class.getName();
+
+    /* Connection threads kept while idle, and the most that may exist at once */
+    private static final int CONNECTION_THREADS = 16;
+    private static final int MAX_CONNECTION_THREADS = 64;
+    private static final int ROBOT_THREADS = 4;
+    private static final int ROBOT_QUEUE_CAPACITY = 64;
+    private static final int BACKGROUND_THREADS = 2;
+    private static final int BACKGROUND_QUEUE_CAPACITY = 16;
+    private static final int IDLE_THREAD_TIMEOUT_IN_SECS = 30;
+
+    enum Lane {
+        FAST, NORMAL, BACKGROUND
+    }
+
+    private final ThreadPoolExecutor connectionPool;
+    private final ThreadPoolExecutor robotPool;
+    private final ThreadPoolExecutor backgroundPool;
+    private final List<NanoHTTPD.ClientHandler> running = Collections.synchronizedList(new ArrayList<NanoHTTPD.ClientHandler>());
+
+    private final LaneStats connectionStats = new LaneStats();
+    private final LaneStats[] laneStats = {new LaneStats(), new LaneStats(), new LaneStats()};
+
+    PriorityAsyncRunner() {
+        // Direct hand-off: a connection gets a thread right away, or is refused
+        connectionPool = new ThreadPoolExecutor(CONNECTION_THREADS, MAX_CONNECTION_THREADS,
+                IDLE_THREAD_TIMEOUT_IN_SECS, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                new LaneThreadFactory("HttpConnection", Process.THREAD_PRIORITY_DEFAULT));
+        connectionPool.allowCoreThreadTimeOut(true);
+        robotPool = new ThreadPoolExecutor(ROBOT_THREADS, ROBOT_THREADS,
+                IDLE_THREAD_TIMEOUT_IN_SECS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(ROBOT_QUEUE_CAPACITY),
+                new LaneThreadFactory("HttpRobot", Process.THREAD_PRIORITY_DEFAULT));
+        robotPool.allowCoreThreadTimeOut(true);
+        backgroundPool = new ThreadPoolExecutor(BACKGROUND_THREADS, BACKGROUND_THREADS,
+                IDLE_THREAD_TIMEOUT_IN_SECS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(BACKGROUND_QUEUE_CAPACITY),
+                new LaneThreadFactory("HttpBackground", Process.THREAD_PRIORITY_BACKGROUND));
+        backgroundPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Finds the lane that a request should run in
+     *
+     * @param uri Request URI
+     * @return Lane for the request
+     */
+    static Lane laneFor(String uri) {
+        if (uri == null) return Lane.NORMAL;
+        if (uri.startsWith("/robot/") || uri.startsWith("/sound/")) return Lane.FAST;
+        if (uri.startsWith("/data/") || uri.startsWith("/cloud/") || uri.startsWith("/debug/"))
+            return Lane.BACKGROUND;
+        return Lane.NORMAL;
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler clientHandler) {
+        running.add(clientHandler);
+        try {
+            execute(clientHandler);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Refusing connection: all " + MAX_CONNECTION_THREADS + " connection threads are in use");
+            // A refused handler never runs, so NanoHTTPD never reports it closed
+            running.remove(clientHandler);
+            clientHandler.close();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler clientHandler) {
+        running.remove(clientHandler);
+    }
+
+    @Override
+    public void closeAll() {
+        // Copy, since closing a handler removes it from the list
+        for (NanoHTTPD.ClientHandler clientHandler : new ArrayList<>(running)) {
+            clientHandler.close();
+        }
+    }
+
+    /**
+     * Runs a task (such as a connection) on the bounded connection pool
+     *
+     * @param task Task to be run
+     * @throws RejectedExecutionException If all MAX_CONNECTION_THREADS threads are in use
+     */
+    void execute(Runnable task) {
+        TimedTask timed = new TimedTask(task, connectionStats);
+        try {
+            connectionPool.execute(timed);
+        } catch (RejectedExecutionException e) {
+            connectionStats.rejected();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a request that didn't come with a connection of its own (such as a WebSocket
+     * message): on the threads reserved for the fast lane if it belongs there, or else on the
+     * connection pool
+     *
+     * @param uri  URI of the request (decides the lane)
+     * @param task Handles the request
+     * @throws RejectedExecutionException If the request can't be run (its lane is full)
+     */
+    void execute(String uri, Runnable task) {
+        if (laneFor(uri) == Lane.FAST) {
+            LaneStats stats = laneStats[Lane.FAST.ordinal()];
+            try {
+                robotPool.execute(new TimedTask(task, stats));
+            } catch (RejectedExecutionException e) {
+                stats.rejected();
+                throw e;
+            }
+        } else {
+            execute(task);
+        }
+    }
+
+    /**
+     * Runs a request in its lane, and waits for its response.
+     *
+     * @param uri     URI of the request (decides the lane)
+     * @param request Produces the response to the request
+     * @return Response to the request
+     */
+    NanoHTTPD.Response dispatch(String uri, final Callable<NanoHTTPD.Response> request) {
+        Lane lane = laneFor(uri);
+        final LaneStats stats = laneStats[lane.ordinal()];
+        try {
+            if (lane != Lane.BACKGROUND) {
+                stats.started();
+                try {
+                    return request.call();
+                } finally {
+                    stats.finished();
+                }
+            }
+            final long queuedAt = System.nanoTime();
+            stats.queued();
+            Future<NanoHTTPD.Response> response;
+            try {
+                response = backgroundPool.submit(new Callable<NanoHTTPD.Response>() {
+                    @Override
+                    public NanoHTTPD.Response call() throws Exception {
+                        stats.dequeued(System.nanoTime() - queuedAt);
+                        stats.started();
+                        try {
+                            return request.call();
+                        } finally {
+                            stats.finished();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                stats.rejected();
+                Log.e(TAG, "Background lane full, refusing " + uri);
+                return NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.SERVICE_UNAVAILABLE,
+                        NanoHTTPD.MIME_PLAINTEXT, "");
+            }
+            return response.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            Log.e(TAG, "Error while handling " + uri + ": " + e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            Log.e(TAG, "Error while handling " + uri + ": " + e);
+        }
+        return NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.INTERNAL_ERROR,
+                NanoHTTPD.MIME_PLAINTEXT, "");
+    }
+
+    /**
+     * @return The queue depth, active requests and wait times of the connection pool and of
+     * each lane, as JSON
+     */
+    JSONObject getStats() {
+        JSONObject stats = new JSONObject();
+        try {
+            stats.put("connections", connectionStats.toJSON()
+                    .put("open", running.size())
+                    .put("threads", connectionPool.getPoolSize())
+                    .put("robotThreads", robotPool.getPoolSize()));
+            for (Lane lane : Lane.values()) {
+                stats.put(lane.toString().toLowerCase(), laneStats[lane.ordinal()].toJSON());
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to build worker stats: " + e.getMessage());
+        }
+        return stats;
+    }
+
+    /**
+     * Counters for one lane: how many tasks are queued, running and refused, and how long they waited
+     */
+    private static class LaneStats {
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        void queued() {
+            queued.incrementAndGet();
+        }
+
+        void dequeued(long waitNanos) {
+            queued.decrementAndGet();
+            totalWaitNanos.addAndGet(waitNanos);
+            long max;
+            while (waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+                // Retry until the new maximum sticks
+            }
+        }
+
+        void rejected() {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+        }
+
+        void started() {
+            active.incrementAndGet();
+        }
+
+        void finished() {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+        }
+
+        JSONObject toJSON() throws JSONException {
+            long count = completed.get();
+            JSONObject json = new JSONObject();
+            json.put("queueDepth", queued.get());
+            json.put("active", active.get());
+            json.put("completed", count);
+            json.put("rejected", rejected.get());
+            json.put("meanWaitMillis", count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count);
+            json.put("maxWaitMillis", maxWaitNanos.get() / 1e6);
+            return json;
+        }
+    }
+
+    /**
+     * Runnable that records how long it waited in the queue before running
+     */
+    private static class TimedTask implements Runnable {
+        private final Runnable task;
+        private final LaneStats stats;
+        private final long queuedAt;
+
+        TimedTask(Runnable task, LaneStats stats) {
+            this.task = task;
+            this.stats = stats;
+            this.queuedAt = System.nanoTime();
+            stats.queued();
+        }
+
+        @Override
+        public void run() {
+            stats.dequeued(System.nanoTime() - queuedAt);
+            stats.started();
+            try {
+                task.run();
+            } finally {
+                stats.finished();
+            }
+        }
+    }
+
+    /**
+     * Creates named daemon threads that run at the given (Android) thread priority
+     */
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final String name;
+        private final int priority;
+        private final AtomicInteger count = new AtomicInteger();
+
+        LaneThreadFactory(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(priority);
+                    r.run();
+                }
+            }, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
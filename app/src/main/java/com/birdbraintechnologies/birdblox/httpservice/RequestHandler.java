@@ -15,7 +15,8 @@ public interface RequestHandler {
      * Handles a request
      *
      * @param session HttpSession generated
-     * @param args    List of arguments generated by matching regex groups
+     * @param args    Segments of the request path that follow the matched route prefix, e.g.
+     *                ["out", "led"] for "/robot/out/led" (never empty)
      * @return Response to the request
      */
     NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args);
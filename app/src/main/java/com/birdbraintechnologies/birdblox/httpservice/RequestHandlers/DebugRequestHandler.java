@@ -5,6 +5,8 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.birdbraintechnologies.birdblox.MainWebView;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+import com.birdbraintechnologies.birdblox.Util.Metrics;
 import com.birdbraintechnologies.birdblox.httpservice.HttpService;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandler;
 
@@ -40,17 +42,67 @@ public class DebugRequestHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "log":
                 return appendToLog(session);
             case "shareLog":
                 return shareLog();
+            case "workers":
+                return NanoHTTPD.newFixedLengthResponse(
+                        NanoHTTPD.Response.Status.OK, "application/json", service.getWorkerStats().toString());
+            case "metrics":
+                return getMetrics(session);
+            case "logLevel":
+                return setLogLevel(session);
         }
         return NanoHTTPD.newFixedLengthResponse(
                 NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Error in Debug command.");
     }
 
+    /**
+     * Gets the request counts, error counts and latency percentiles of every route, and the
+     * other performance counters of the app (see Metrics).
+     *
+     * @param session HttpRequest; "format=prometheus" selects the Prometheus text format.
+     * @return The metrics as JSON, or as Prometheus text.
+     */
+    private NanoHTTPD.Response getMetrics(NanoHTTPD.IHTTPSession session) {
+        List<String> format = session.getParameters().get("format");
+        if (format != null && format.get(0).equals("prometheus")) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.OK, "text/plain; version=0.0.4", Metrics.toPrometheus());
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, "application/json", Metrics.toJSON().toString());
+    }
+
+    /**
+     * Sets the lowest level of the debug log (/debug/logLevel?level=verbose|debug|info), e.g. to
+     * drop the verbose BLE traffic while debugging something else. Only has an effect in debug
+     * builds.
+     *
+     * @param session HttpRequest to get the level from.
+     * @return An empty response, or BAD_REQUEST if the level is missing or unknown.
+     */
+    private NanoHTTPD.Response setLogLevel(NanoHTTPD.IHTTPSession session) {
+        List<String> level = session.getParameters().get("level");
+        if (level != null && !level.isEmpty()) {
+            switch (level.get(0)) {
+                case "verbose":
+                    DebugLog.setLevel(DebugLog.VERBOSE);
+                    return NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.OK, MIME_PLAINTEXT, "");
+                case "debug":
+                    DebugLog.setLevel(DebugLog.DEBUG);
+                    return NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.OK, MIME_PLAINTEXT, "");
+                case "info":
+                    DebugLog.setLevel(DebugLog.INFO);
+                    return NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.OK, MIME_PLAINTEXT, "");
+            }
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid log level.");
+    }
+
     /**
      * Appends the received message to the log file, creating the file
      * if it doesn't exist.
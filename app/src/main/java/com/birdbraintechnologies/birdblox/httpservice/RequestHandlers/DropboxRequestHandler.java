@@ -89,9 +89,8 @@ public class DropboxRequestHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "signIn":
                 return dropboxSignIn();
             case "signOut":
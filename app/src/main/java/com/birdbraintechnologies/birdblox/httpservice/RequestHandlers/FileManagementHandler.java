@@ -55,9 +55,8 @@ public class FileManagementHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "open":
                 return openProject(m.get("filename").get(0));
             case "rename":
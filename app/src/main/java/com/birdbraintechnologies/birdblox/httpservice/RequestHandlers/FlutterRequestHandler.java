@@ -9,6 +9,7 @@ import com.birdbraintechnologies.birdblox.Bluetooth.BluetoothHelper;
 import com.birdbraintechnologies.birdblox.Bluetooth.MelodySmartConnection;
 import com.birdbraintechnologies.birdblox.Bluetooth.UARTSettings;
 import com.birdbraintechnologies.birdblox.Robots.Flutter;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
 import com.birdbraintechnologies.birdblox.Util.NamingHandler;
 import com.birdbraintechnologies.birdblox.httpservice.HttpService;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandler;
@@ -67,11 +68,10 @@ public class FlutterRequestHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
         // Generate response body
         String responseBody = "";
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "discover":
                 responseBody = listDevices();
                 break;
@@ -88,14 +88,14 @@ public class FlutterRequestHandler implements RequestHandler {
                 responseBody = disconnectFromDevice(m.get("id").get(0));
                 break;
             case "out":
-                getDeviceFromId(m.get("id").get(0)).setOutput(path[1], m);
+                getDeviceFromId(m.get("id").get(0)).setOutput(args.get(1), m);
                 responseBody = "Connected to Flutter successfully.";
                 break;
             case "in":
                 responseBody = getDeviceFromId(m.get("id").get(0)).readSensor(m.get("sensor").get(0), m.get("port").get(0));
                 break;
 //            case "rename":
-//                responseBody = renameDevice(path[0], path[2]);
+//                responseBody = renameDevice(args.get(0), args.get(2));
 //                break;
         }
 
@@ -204,7 +204,7 @@ public class FlutterRequestHandler implements RequestHandler {
     private String disconnectFromDevice(String deviceId) {
         Flutter device = getDeviceFromId(deviceId);
         if (device != null) {
-            Log.d(TAG, "Disconnecting from device: " + deviceId);
+            DebugLog.d(TAG, "Disconnecting from device: %s", deviceId);
             device.disconnect();
             connectedDevices.remove(deviceId);
         }
@@ -29,6 +29,7 @@ import android.widget.Toast;
 
 import com.birdbraintechnologies.birdblox.Dialogs.DialogType;
 import com.birdbraintechnologies.birdblox.MainWebView;
+import com.birdbraintechnologies.birdblox.httpservice.FrontendWebSocket;
 import com.birdbraintechnologies.birdblox.httpservice.HttpService;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandler;
 
@@ -80,6 +81,8 @@ public class HostDeviceHandler implements RequestHandler, LocationListener, Sens
             // Handles getting a dialog response from the main activity (see showDialog/showChoice)
             if (intent.getAction().equals(DIALOG_RESPONSE)) {
                 dialogResponse = intent.getStringExtra("response");
+                // Push the response to the frontend WebSocket (if open), instead of waiting to be polled
+                FrontendWebSocket.broadcast("tablet/dialog_response", dialogResponse);
             }
         }
     };
@@ -137,10 +140,9 @@ public class HostDeviceHandler implements RequestHandler, LocationListener, Sens
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         String responseBody = "";
         Map<String, List<String>> m = session.getParameters();
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "shake":
                 responseBody = getShaken();
                 break;
@@ -159,7 +161,7 @@ public class HostDeviceHandler implements RequestHandler, LocationListener, Sens
             case "acceleration":
                 return getDeviceAcceleration();
             case "dialog":
-                // showDialog(path[1], path[2], path[3]);
+                // showDialog(args.get(1), args.get(2), args.get(3));
                 String title = (m.get("title") == null ? "" : m.get("title").get(0));
                 String question = (m.get("question") == null ? "" : m.get("question").get(0));
                 String placeholder = (m.get("placeholder") == null ? "" : m.get("placeholder").get(0));
@@ -470,6 +472,7 @@ public class HostDeviceHandler implements RequestHandler, LocationListener, Sens
                         lastShake = now;
                         shakeCount = 0;
                         shaken = true;
+                        FrontendWebSocket.broadcast("tablet/shake", "1");
                     }
                     lastForcefulMovement = now;
                 }
@@ -10,6 +10,8 @@ import com.birdbraintechnologies.birdblox.Bluetooth.BluetoothHelper;
 import com.birdbraintechnologies.birdblox.Bluetooth.UARTConnection;
 import com.birdbraintechnologies.birdblox.Bluetooth.UARTSettings;
 import com.birdbraintechnologies.birdblox.Robots.Hummingbird;
+import com.birdbraintechnologies.birdblox.Robots.RobotStatusTracker;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
 import com.birdbraintechnologies.birdblox.Util.NamingHandler;
 import com.birdbraintechnologies.birdblox.httpservice.HttpService;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandler;
@@ -72,12 +74,11 @@ public class HummingbirdRequestHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
 
         // Generate response body
         String responseBody = "";
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "discover":
                 responseBody = listDevices();
                 break;
@@ -94,14 +95,14 @@ public class HummingbirdRequestHandler implements RequestHandler {
                 responseBody = disconnectFromDevice(m.get("id").get(0));
                 break;
             case "out":
-                getDeviceFromId(m.get("id").get(0)).setOutput(path[1], m);
+                getDeviceFromId(m.get("id").get(0)).setOutput(args.get(1), m);
                 responseBody = "Connected to Hummingbird successfully.";
                 break;
             case "in":
                 responseBody = getDeviceFromId(m.get("id").get(0)).readSensor(m.get("sensor").get(0), m.get("port").get(0));
                 break;
 //                case "rename":
-//                    responseBody = renameDevice(path[0], path[2]);
+//                    responseBody = renameDevice(args.get(0), args.get(2));
 //                    break;
         }
 
@@ -241,17 +242,17 @@ public class HummingbirdRequestHandler implements RequestHandler {
             }.start();
             Hummingbird device = getDeviceFromId(deviceId);
             if (device != null) {
-                Log.d(TAG, "Disconnecting from device: " + deviceId);
+                DebugLog.d(TAG, "Disconnecting from device: %s", deviceId);
                 if (device.isConnected())
                     device.disconnect();
-                Log.d("TotStat", "Removing device: " + deviceId);
+                DebugLog.d("TotStat", "Removing device: %s", deviceId);
                 connectedDevices.remove(deviceId);
             }
         } catch (Exception e) {
             Log.e("ConnectHB", " Error while disconnecting from HB " + e.getMessage());
         }
-        runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(deviceId) + "', false);");
-        Log.d("TotStat", "Connected Hummingbirds: " + connectedDevices.toString());
+        RobotStatusTracker.report(deviceId, false);
+        DebugLog.d("TotStat", "Connected Hummingbirds: %s", connectedDevices);
         return "Hummingbird disconnected successfully.";
     }
 
@@ -276,7 +277,7 @@ public class HummingbirdRequestHandler implements RequestHandler {
      * @return 0, 1, or 2 depending on the aggregate status of all the devices
      */
     private synchronized String getTotalStatus() {
-        Log.d("TotStat", "Connected Devices: " + connectedDevices.toString());
+        DebugLog.d("TotStat", "Connected Devices: %s", connectedDevices);
         if (connectedDevices.size() == 0) {
             return "2";  // No devices connected
         }
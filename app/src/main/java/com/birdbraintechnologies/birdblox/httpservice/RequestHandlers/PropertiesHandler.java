@@ -28,9 +28,8 @@ public class PropertiesHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         String responseBody = "";
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "dims":
                 responseBody = getDeviceScreenSize();
                 break;
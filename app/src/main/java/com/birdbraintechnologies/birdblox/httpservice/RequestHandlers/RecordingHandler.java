@@ -151,10 +151,9 @@ public class RecordingHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
         String responseBody = "";
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "start":
                 return startRecording();
             case "stop":
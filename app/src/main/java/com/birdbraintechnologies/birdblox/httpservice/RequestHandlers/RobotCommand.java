@@ -0,0 +1,292 @@
+package com.birdbraintechnologies.birdblox.httpservice.RequestHandlers;
+
+import com.birdbraintechnologies.birdblox.Robots.RobotType;
+
+/**
+ * The parameters of a /robot/out or /robot/in request, parsed straight from the raw query
+ * string into primitive fields, without building any Strings, Lists or Maps.
+ * <p>
+ * Each thread reuses a single instance (see forCurrentThread), so parsing doesn't allocate.
+ * Anything unusual (unknown sensor types, non-integer values, non-ASCII percent-encoding...)
+ * makes parse() fail, so that the request can be handled by the normal (slow) path instead. As
+ * in the normal path, only the first value of a repeated parameter counts.
+ */
+final class RobotCommand {
+
+    static final int MISSING = Integer.MIN_VALUE;
+
+    /* Known output and sensor types, so that parsing one doesn't create a new String */
+    private static final String[] OUTPUT_TYPES = {"stop", "servo", "motor", "vibration", "led", "triled", "buzzer"};
+    private static final String[] SENSOR_TYPES = {"distance", "temperature", "voltage", "soil", "sound", "light", "sensor"};
+
+    private static final int[] NO_VALUES = new int[0];
+
+    private static final ThreadLocal<RobotCommand> perThread = new ThreadLocal<RobotCommand>() {
+        @Override
+        protected RobotCommand initialValue() {
+            return new RobotCommand();
+        }
+    };
+
+    RobotType type;
+    String sensor;
+    boolean wait;
+    private boolean waitSeen;
+    int port, angle, speed, intensity, red, green, blue, volume, frequency;
+
+    /* The id is kept as a region of the (percent-encoded) query, with the hash of its decoded value */
+    private String query;
+    private int idStart, idEnd, idHash;
+    private int typeStart, typeEnd;
+
+    private final int[] oneValue = new int[1];
+    private final int[] twoValues = new int[2];
+    private final int[] threeValues = new int[3];
+
+    /**
+     * @return The RobotCommand instance of the current thread
+     */
+    static RobotCommand forCurrentThread() {
+        return perThread.get();
+    }
+
+    /**
+     * Parses a query string such as "type=hummingbird&amp;id=...&amp;port=1&amp;intensity=50"
+     *
+     * @param query The raw (still percent-encoded) query string of the request
+     * @return True if the query was parsed, and contains at least a robot type and id
+     */
+    boolean parse(String query) {
+        type = null;
+        sensor = null;
+        wait = waitSeen = false;
+        port = angle = speed = intensity = red = green = blue = volume = frequency = MISSING;
+        this.query = query;
+        idStart = -1;
+        if (query == null) return false;
+
+        int start = 0;
+        int length = query.length();
+        while (start < length) {
+            int end = query.indexOf('&', start);
+            if (end < 0) end = length;
+            int eq = query.indexOf('=', start);
+            if (eq < 0 || eq > end) return false;
+            if (!parseParameter(start, eq, eq + 1, end)) return false;
+            start = end + 1;
+        }
+        return type != null && idStart >= 0;
+    }
+
+    /**
+     * Gets the canonical name of an output type, from a path segment
+     *
+     * @param path  Request path
+     * @param start Start of the output type in the path
+     * @return The output type (one of OUTPUT_TYPES), or null if it isn't a known one
+     */
+    static String outputTypeAt(String path, int start) {
+        int end = path.indexOf('/', start);
+        return find(OUTPUT_TYPES, path, start, (end < 0) ? path.length() : end);
+    }
+
+    /**
+     * Gets the values of an output, in the order that Robot.setOutput expects them. The returned
+     * array is reused by the next call on this thread.
+     *
+     * @param outputType Type of the output (one of OUTPUT_TYPES)
+     * @return The values, or null if any of them (or the port) is missing
+     */
+    int[] valuesFor(String outputType) {
+        if (outputType.equals("stop")) return NO_VALUES;
+        if (port == MISSING) return null;
+        switch (outputType) {
+            case "servo":
+                return values(angle);
+            case "motor":
+                return values(speed);
+            case "vibration":
+            case "led":
+                return values(intensity);
+            case "triled":
+                if (red == MISSING || green == MISSING || blue == MISSING) return null;
+                threeValues[0] = red;
+                threeValues[1] = green;
+                threeValues[2] = blue;
+                return threeValues;
+            case "buzzer":
+                if (volume == MISSING || frequency == MISSING) return null;
+                twoValues[0] = volume;
+                twoValues[1] = frequency;
+                return twoValues;
+        }
+        return null;
+    }
+
+    /**
+     * @param spelling A spelling of the robot type
+     * @return True if the request spells the robot type exactly that way (including its case)
+     */
+    boolean typeSpelledAs(String spelling) {
+        return typeEnd - typeStart == spelling.length() && query.startsWith(spelling, typeStart);
+    }
+
+    /**
+     * @return The robot type, spelled as in the request (e.g. "Hummingbird")
+     */
+    String typeName() {
+        return query.substring(typeStart, typeEnd);
+    }
+
+    /**
+     * @return The hash code of the (decoded) robot id, equal to String.hashCode() of the id
+     */
+    int idHash() {
+        return idHash;
+    }
+
+    /**
+     * @param id A robot id
+     * @return True if the (decoded) robot id of this command equals id
+     */
+    boolean idEquals(String id) {
+        int index = 0;
+        int i = idStart;
+        while (i < idEnd) {
+            int c = decodedCharAt(i);
+            i += (query.charAt(i) == '%') ? 3 : 1;
+            if (index >= id.length() || id.charAt(index++) != c) return false;
+        }
+        return index == id.length();
+    }
+
+    private int[] values(int value) {
+        if (value == MISSING) return null;
+        oneValue[0] = value;
+        return oneValue;
+    }
+
+    /**
+     * Parses a parameter, unless an earlier value of the same parameter was already parsed
+     *
+     * @return False if the value can't be handled by the fast path
+     */
+    private boolean parseParameter(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        switch (keyEnd - keyStart) {
+            case 2:
+                if (isKey("id", keyStart)) return idStart >= 0 || parseId(valueStart, valueEnd);
+                break;
+            case 3:
+                if (isKey("red", keyStart)) return red != MISSING || (red = parseInt(valueStart, valueEnd)) != MISSING;
+                break;
+            case 4:
+                if (isKey("type", keyStart)) return type != null || parseType(valueStart, valueEnd);
+                if (isKey("port", keyStart)) return port != MISSING || (port = parseInt(valueStart, valueEnd)) != MISSING;
+                if (isKey("blue", keyStart)) return blue != MISSING || (blue = parseInt(valueStart, valueEnd)) != MISSING;
+                if (isKey("wait", keyStart)) {
+                    if (!waitSeen) {
+                        wait = isValue("true", valueStart, valueEnd) || isValue("1", valueStart, valueEnd);
+                        waitSeen = true;
+                    }
+                    return true;
+                }
+                break;
+            case 5:
+                if (isKey("angle", keyStart)) return angle != MISSING || (angle = parseInt(valueStart, valueEnd)) != MISSING;
+                if (isKey("speed", keyStart)) return speed != MISSING || (speed = parseInt(valueStart, valueEnd)) != MISSING;
+                if (isKey("green", keyStart)) return green != MISSING || (green = parseInt(valueStart, valueEnd)) != MISSING;
+                break;
+            case 6:
+                if (isKey("sensor", keyStart)) {
+                    if (sensor == null) sensor = find(SENSOR_TYPES, query, valueStart, valueEnd);
+                    return sensor != null;
+                }
+                if (isKey("volume", keyStart)) return volume != MISSING || (volume = parseInt(valueStart, valueEnd)) != MISSING;
+                break;
+            case 9:
+                if (isKey("intensity", keyStart)) return intensity != MISSING || (intensity = parseInt(valueStart, valueEnd)) != MISSING;
+                if (isKey("frequency", keyStart)) return frequency != MISSING || (frequency = parseInt(valueStart, valueEnd)) != MISSING;
+                break;
+        }
+        // Ignore any other parameter, as the normal path does
+        return true;
+    }
+
+    private boolean isKey(String key, int keyStart) {
+        return query.startsWith(key, keyStart);
+    }
+
+    private boolean parseType(int start, int end) {
+        if (isValue("hummingbird", start, end)) {
+            type = RobotType.Hummingbird;
+        } else if (isValue("flutter", start, end)) {
+            type = RobotType.Flutter;
+        } else {
+            return false;
+        }
+        typeStart = start;
+        typeEnd = end;
+        return true;
+    }
+
+    private boolean isValue(String value, int start, int end) {
+        return end - start == value.length() && query.regionMatches(true, start, value, 0, value.length());
+    }
+
+    private boolean parseId(int start, int end) {
+        int hash = 0;
+        int i = start;
+        while (i < end) {
+            int c = decodedCharAt(i);
+            if (c < 0) return false;
+            hash = 31 * hash + c;
+            i += (query.charAt(i) == '%') ? 3 : 1;
+        }
+        idStart = start;
+        idEnd = end;
+        idHash = hash;
+        return true;
+    }
+
+    /**
+     * @return The (decoded) character at index i of the query, or -1 if it isn't a plain
+     * character or an ASCII percent-encoded one
+     */
+    private int decodedCharAt(int i) {
+        char c = query.charAt(i);
+        if (c == '+') return ' ';
+        if (c != '%') return c;
+        if (i + 2 >= query.length()) return -1;
+        int high = Character.digit(query.charAt(i + 1), 16);
+        int low = Character.digit(query.charAt(i + 2), 16);
+        if (high < 0 || low < 0 || high > 7) return -1;
+        return (high << 4) | low;
+    }
+
+    /**
+     * Parses an integer (like Integer.parseInt) from a region of the query
+     *
+     * @return The integer, or MISSING if the region isn't a valid integer
+     */
+    private int parseInt(int start, int end) {
+        boolean negative = (start < end) && query.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 9) return MISSING;
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = query.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return MISSING;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private static String find(String[] names, String s, int start, int end) {
+        for (String name : names) {
+            if (name.length() == end - start && s.startsWith(name, start)) {
+                return name;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package com.birdbraintechnologies.birdblox.httpservice.RequestHandlers;
+
+import com.birdbraintechnologies.birdblox.Robots.Robot;
+
+/**
+ * Index of the connected robots of one type, for the /robot/out and /robot/in fast path.
+ * Robots are looked up straight from a parsed RobotCommand (by the precomputed hash of their
+ * id), and each entry carries the response bodies for its robot, built once when the robot
+ * connects instead of on every request.
+ * <p>
+ * Lookups don't lock or allocate: the entries are replaced (copy-on-write) whenever a robot
+ * connects or disconnects.
+ */
+final class RobotIndex {
+
+    private volatile Entry[] entries = new Entry[0];
+
+    /**
+     * Adds a robot to the index (replacing any robot with the same id)
+     *
+     * @param entry Entry of the robot
+     */
+    synchronized void put(Entry entry) {
+        Entry[] current = entries;
+        Entry[] updated = new Entry[current.length + 1];
+        int count = 0;
+        for (Entry e : current) {
+            if (!e.id.equals(entry.id)) updated[count++] = e;
+        }
+        updated[count++] = entry;
+        entries = shrink(updated, count);
+    }
+
+    /**
+     * Removes a robot from the index (if it is in it)
+     *
+     * @param id Id of the robot
+     */
+    synchronized void remove(String id) {
+        Entry[] current = entries;
+        Entry[] updated = new Entry[current.length];
+        int count = 0;
+        for (Entry e : current) {
+            if (!e.id.equals(id)) updated[count++] = e;
+        }
+        entries = shrink(updated, count);
+    }
+
+    /**
+     * Finds the robot that a command is meant for
+     *
+     * @param command A parsed command
+     * @return Entry of the robot, or null if it isn't connected
+     */
+    Entry lookup(RobotCommand command) {
+        int hash = command.idHash();
+        for (Entry e : entries) {
+            if (e.hash == hash && command.idEquals(e.id)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private static Entry[] shrink(Entry[] entries, int count) {
+        if (count == entries.length) return entries;
+        Entry[] shrunk = new Entry[count];
+        System.arraycopy(entries, 0, shrunk, 0, count);
+        return shrunk;
+    }
+
+    /**
+     * A connected robot, with everything needed to answer its fast path requests
+     */
+    static final class Entry {
+        final String id;
+        final int hash;
+        final Robot robot;
+        final byte[] outputFailedBody;
+        final byte[] sensorFailedBody;
+
+        /**
+         * @param id    Id (MAC address) of the robot
+         * @param robot The robot
+         */
+        Entry(String id, Robot robot) {
+            this.id = id;
+            this.hash = id.hashCode();
+            this.robot = robot;
+            this.outputFailedBody = ("Failed to send to robot " + id + ".").getBytes();
+            this.sensorFailedBody = ("Failed to read sensors from robot " + id + ".").getBytes();
+        }
+    }
+}
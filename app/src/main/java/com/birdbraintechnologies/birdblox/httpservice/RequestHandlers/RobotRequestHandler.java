@@ -1,7 +1,6 @@
 package com.birdbraintechnologies.birdblox.httpservice.RequestHandlers;
 
 import android.app.AlertDialog;
-import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.ScanFilter;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -11,31 +10,40 @@ import android.os.ParcelUuid;
 import android.util.Log;
 
 import com.birdbraintechnologies.birdblox.Bluetooth.BluetoothHelper;
+import com.birdbraintechnologies.birdblox.Bluetooth.ConnectionTuning;
 import com.birdbraintechnologies.birdblox.Bluetooth.MelodySmartConnection;
 import com.birdbraintechnologies.birdblox.Bluetooth.UARTConnection;
 import com.birdbraintechnologies.birdblox.Bluetooth.UARTSettings;
 import com.birdbraintechnologies.birdblox.Robots.Flutter;
 import com.birdbraintechnologies.birdblox.Robots.Hummingbird;
 import com.birdbraintechnologies.birdblox.Robots.Robot;
+import com.birdbraintechnologies.birdblox.Robots.RobotStatusTracker;
 import com.birdbraintechnologies.birdblox.Robots.RobotType;
-import com.birdbraintechnologies.birdblox.Util.NamingHandler;
+import com.birdbraintechnologies.birdblox.Robots.SensorHistory;
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+import com.birdbraintechnologies.birdblox.Util.SensorTables;
+import com.birdbraintechnologies.birdblox.httpservice.FastPathHandler;
+import com.birdbraintechnologies.birdblox.httpservice.FrontendWebSocket;
 import com.birdbraintechnologies.birdblox.httpservice.HttpService;
-import com.birdbraintechnologies.birdblox.httpservice.RequestHandler;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
 import fi.iki.elonen.NanoHTTPD;
 
-import static com.birdbraintechnologies.birdblox.Bluetooth.BluetoothHelper.deviceList;
 import static com.birdbraintechnologies.birdblox.MainWebView.bbxEncode;
 import static com.birdbraintechnologies.birdblox.MainWebView.mainWebViewContext;
 import static com.birdbraintechnologies.birdblox.MainWebView.runJavascript;
@@ -46,7 +54,7 @@ import static fi.iki.elonen.NanoHTTPD.MIME_PLAINTEXT;
  * @author AppyFizz (Shreyan Bakshi)
  */
 
-public class RobotRequestHandler implements RequestHandler {
+public class RobotRequestHandler implements FastPathHandler {
     private final String TAG = this.getClass().getName();
 
     private static final String FIRMWARE_UPDATE_URL = "http://www.hummingbirdkit.com/learning/installing-birdblox#BurnFirmware";
@@ -67,6 +75,11 @@ public class RobotRequestHandler implements RequestHandler {
     // TODO: Remove this, it is the same across devices
     private static final UUID RX_CONFIG_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
 
+    /* Setting (see SettingsHandler) that makes Hummingbirds write output frames without response */
+    private static final String WRITE_WITHOUT_RESPONSE_SETTING = "writeWithoutResponse";
+    /* Setting (see SettingsHandler) with the time between two polls of a Flutter's sensors, in ms */
+    private static final String FLUTTER_SENSOR_POLL_INTERVAL_SETTING = "flutterSensorPollInterval";
+
     public static HashSet<String> hummingbirdsToConnect = new HashSet<>();
     public static HashSet<String> fluttersToConnect = new HashSet<>();
 
@@ -80,6 +93,17 @@ public class RobotRequestHandler implements RequestHandler {
     private static UARTSettings FLUARTSettings;
     private static HashMap<String, Flutter> connectedFlutters;
 
+    /* Connected robots, indexed for the /robot/out and /robot/in fast path */
+    private static RobotIndex hummingbirdIndex;
+    private static RobotIndex flutterIndex;
+
+    /* Pre-built bodies of successful /robot/out responses */
+    private static final byte[] HB_SENT_BODY = "Sent to robot hummingbird successfully.".getBytes();
+    private static final byte[] FL_SENT_BODY = "Sent to robot flutter successfully.".getBytes();
+
+    /* Routes under /robot/in that aren't single sensor reads */
+    private static final String[] SENSOR_SUBROUTES = {"all", "history", "stats", "subscribe", "unsubscribe"};
+
     public static String lastScanType;
 
     private AlertDialog.Builder builder;
@@ -92,6 +116,8 @@ public class RobotRequestHandler implements RequestHandler {
 
         connectedHummingbirds = new HashMap<>();
         connectedFlutters = new HashMap<>();
+        hummingbirdIndex = new RobotIndex();
+        flutterIndex = new RobotIndex();
 
         // Build Hummingbird UART settings
         HBUARTSettings = (new UARTSettings.Builder())
@@ -112,12 +138,11 @@ public class RobotRequestHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
 
         // Generate response body
         String responseBody = "";
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "startDiscover":
                 responseBody = startScan(robotTypeFromString(m.get("type").get(0)));
                 break;
@@ -136,36 +161,54 @@ public class RobotRequestHandler implements RequestHandler {
             case "out":
                 Robot robot = getRobotFromId(robotTypeFromString(m.get("type").get(0)), m.get("id").get(0));
                 if (robot == null) {
-                    runJavascript("CallbackManager.robot.updateStatus('" + m.get("id").get(0) + "', false);");
+                    RobotStatusTracker.report(m.get("id").get(0), false);
                     return NanoHTTPD.newFixedLengthResponse(
                             NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + m.get("id").get(0) + " was not found.");
-                } else if (!robot.setOutput(path[1], m)) {
-                    runJavascript("CallbackManager.robot.updateStatus('" + m.get("id").get(0) + "', false);");
+                } else if (!robot.setOutput(args.get(1), m)) {
+                    RobotStatusTracker.report(m.get("id").get(0), false);
                     return NanoHTTPD.newFixedLengthResponse(
                             NanoHTTPD.Response.Status.EXPECTATION_FAILED, MIME_PLAINTEXT, "Failed to send to robot " + m.get("id").get(0) + ".");
                 } else {
-                    runJavascript("CallbackManager.robot.updateStatus('" + m.get("id").get(0) + "', true);");
+                    RobotStatusTracker.report(m.get("id").get(0), true);
                     responseBody = "Sent to robot " + m.get("type").get(0) + " successfully.";
                 }
                 break;
             case "in":
+                if (args.size() > 1) {
+                    switch (args.get(1)) {
+                        case "all":
+                            return readAllSensors(m);
+                        case "history":
+                            return readSensorHistory(m);
+                        case "stats":
+                            return readSensorStats(m);
+                        case "subscribe":
+                            return subscribeToSensor(m);
+                        case "unsubscribe":
+                            return unsubscribeFromSensor(m);
+                    }
+                }
                 robot = getRobotFromId(robotTypeFromString(m.get("type").get(0)), m.get("id").get(0));
                 if (robot == null) {
-                    runJavascript("CallbackManager.robot.updateStatus('" + m.get("id").get(0) + "', false);");
+                    RobotStatusTracker.report(m.get("id").get(0), false);
                     return NanoHTTPD.newFixedLengthResponse(
                             NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + m.get("id").get(0) + " was not found.");
                 } else {
                     String sensorValue = robot.readSensor(m.get("sensor").get(0), m.get("port").get(0));
                     if (sensorValue == null) {
-                        runJavascript("CallbackManager.robot.updateStatus('" + m.get("id").get(0) + "', false);");
+                        RobotStatusTracker.report(m.get("id").get(0), false);
                         return NanoHTTPD.newFixedLengthResponse(
                                 NanoHTTPD.Response.Status.NO_CONTENT, MIME_PLAINTEXT, "Failed to read sensors from robot " + m.get("id").get(0) + ".");
                     } else {
-                        runJavascript("CallbackManager.robot.updateStatus('" + m.get("id").get(0) + "', true);");
+                        RobotStatusTracker.report(m.get("id").get(0), true);
                         responseBody = sensorValue;
                     }
                 }
                 break;
+            case "batch":
+                return runBatch(session);
+            case "connection":
+                return getConnectionInfo(m);
             case "showInfo":
                 responseBody = showRobotInfo(robotTypeFromString(m.get("type").get(0)), m.get("id").get(0));
                 break;
@@ -181,6 +224,71 @@ public class RobotRequestHandler implements RequestHandler {
                 NanoHTTPD.Response.Status.OK, MIME_PLAINTEXT, responseBody);
     }
 
+    /**
+     * Handles /robot/out and /robot/in requests for connected robots without allocating any
+     * intermediate Strings, Lists or Maps: the query string is parsed straight into primitives,
+     * the robot is found through its precomputed index entry, and the response bodies are
+     * pre-built. Anything else (including robots that aren't connected) is left to
+     * handleRequest.
+     */
+    @Override
+    public NanoHTTPD.Response handleFastPath(NanoHTTPD.IHTTPSession session, String path, int argsOffset) {
+        boolean out = path.startsWith("out/", argsOffset);
+        if (!out && !(path.startsWith("in", argsOffset)
+                && (path.length() == argsOffset + 2 || path.charAt(argsOffset + 2) == '/'))) {
+            return null;
+        }
+        // Multi-port reads, history and subscriptions are left to handleRequest
+        if (!out && isSensorSubroute(path, argsOffset + 3)) return null;
+        RobotCommand command = RobotCommand.forCurrentThread();
+        if (!command.parse(session.getQueryParameterString())) return null;
+        RobotIndex.Entry entry = (command.type == RobotType.Hummingbird ? hummingbirdIndex : flutterIndex).lookup(command);
+        if (entry == null) return null;
+
+        if (out) {
+            // Requests that wait for the output to be sent aren't worth optimizing
+            if (command.wait) return null;
+            String outputType = RobotCommand.outputTypeAt(path, argsOffset + 4);
+            int[] values = (outputType == null) ? null : command.valuesFor(outputType);
+            if (values == null) return null;
+            if (!entry.robot.setOutput(outputType, command.port, values)) {
+                RobotStatusTracker.report(entry.id, false);
+                return newBytesResponse(NanoHTTPD.Response.Status.EXPECTATION_FAILED, entry.outputFailedBody);
+            }
+            RobotStatusTracker.report(entry.id, true);
+            return newBytesResponse(NanoHTTPD.Response.Status.OK, sentBody(command));
+        }
+
+        if (command.sensor == null || command.port == RobotCommand.MISSING) return null;
+        String sensorValue = entry.robot.readSensor(command.sensor, command.port);
+        if (sensorValue == null) {
+            RobotStatusTracker.report(entry.id, false);
+            return newBytesResponse(NanoHTTPD.Response.Status.NO_CONTENT, entry.sensorFailedBody);
+        }
+        RobotStatusTracker.report(entry.id, true);
+        return NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.OK, MIME_PLAINTEXT, sensorValue);
+    }
+
+    private static boolean isSensorSubroute(String path, int offset) {
+        for (String subroute : SENSOR_SUBROUTES) {
+            if (path.startsWith(subroute, offset)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The body of a successful /robot/out response, with the robot type spelled as in the
+     * request (as handleRequest does)
+     */
+    private static byte[] sentBody(RobotCommand command) {
+        if (command.typeSpelledAs("hummingbird")) return HB_SENT_BODY;
+        if (command.typeSpelledAs("flutter")) return FL_SENT_BODY;
+        return ("Sent to robot " + command.typeName() + " successfully.").getBytes();
+    }
+
+    private static NanoHTTPD.Response newBytesResponse(NanoHTTPD.Response.Status status, byte[] body) {
+        return NanoHTTPD.newFixedLengthResponse(status, MIME_PLAINTEXT, new ByteArrayInputStream(body), body.length);
+    }
 
     // TODO: Properly define Robot Object
 
@@ -222,23 +330,409 @@ public class RobotRequestHandler implements RequestHandler {
                 }
             });
         }
-        List<BluetoothDevice> BLEDeviceList = (new ArrayList<>(deviceList.values()));
-        JSONArray robots = new JSONArray();
-        for (BluetoothDevice device : BLEDeviceList) {
-            String name = NamingHandler.GenerateName(service.getApplicationContext(), device.getAddress());
-            JSONObject robot = new JSONObject();
-            try {
-                robot.put("id", device.getAddress());
-                robot.put("name", name);
-            } catch (JSONException e) {
-                Log.e("JSON", "JSONException while discovering " + lastScanType);
-            }
-            robots.put(robot);
-        }
+        JSONArray robots = btHelper.getDiscoveredRobots();
         runJavascript("CallbackManager.robot.discovered('" + lastScanType + "', '" + bbxEncode(robots.toString()) + "');");
         return robots.toString();
     }
 
+    /**
+     * Runs an ordered list of output and sensor operations, possibly across several robots,
+     * in a single request. The POST body is a JSON array of operations, such as:
+     * <pre>
+     * [{"op": "out", "type": "hummingbird", "id": "...", "output": "led", "port": "1", "intensity": "50"},
+     *  {"op": "out", "type": "hummingbird", "id": "...", "output": "servo", "port": "2", "angle": "90"},
+     *  {"op": "in", "type": "hummingbird", "id": "...", "sensor": "light", "port": "1"}]
+     * </pre>
+     * The operations run in the order they are given, except that all the outputs for a robot
+     * are applied to its state together (so they are sent in the same frame), where the first of
+     * them is. The response is a JSON array with one result per operation, in order: true/false
+     * for outputs, and the sensor value (or null) for sensor reads. Operations without a valid
+     * "op" ("out" or "in") fail.
+     *
+     * @param session HttpRequest to get the POST body of.
+     * @return A response containing the results of all the operations.
+     */
+    private NanoHTTPD.Response runBatch(NanoHTTPD.IHTTPSession session) {
+        if (session.getMethod() != NanoHTTPD.Method.POST) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Please send a POST request.");
+        }
+        JSONArray ops;
+        try {
+            Map<String, String> postFiles = new HashMap<>();
+            session.parseBody(postFiles);
+            ops = new JSONArray(postFiles.get("postData"));
+        } catch (JSONException | IOException | NullPointerException | NanoHTTPD.ResponseException e) {
+            Log.e(TAG, "Error while parsing batch request: " + e.getMessage());
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid batch request.");
+        }
+
+        int count = ops.length();
+        Robot<?>[] robots = new Robot<?>[count];
+        String[] ids = new String[count];
+        /* Indices of the outputs for each robot, in the order the robots first appear */
+        Map<Robot<?>, List<Integer>> outputsByRobot = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            JSONObject op = ops.optJSONObject(i);
+            if (op == null) continue;
+            ids[i] = op.optString("id");
+            RobotType robotType = robotTypeFromString(op.optString("type"));
+            robots[i] = (robotType == null) ? null : getRobotFromId(robotType, ids[i]);
+            if (robots[i] != null && op.optString("op").equals("out")) {
+                List<Integer> outputs = outputsByRobot.get(robots[i]);
+                if (outputs == null) {
+                    outputs = new ArrayList<>();
+                    outputsByRobot.put(robots[i], outputs);
+                }
+                outputs.add(i);
+            }
+        }
+
+        Object[] results = new Object[count];
+        Map<String, Boolean> statusById = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            if (results[i] != null) continue;
+            JSONObject op = ops.optJSONObject(i);
+            String opName = (op == null) ? "" : op.optString("op");
+            if (opName.equals("in") && robots[i] != null) {
+                String sensorValue = robots[i].readSensor(op.optString("sensor"), op.optString("port"));
+                results[i] = (sensorValue == null) ? JSONObject.NULL : sensorValue;
+                reportBatchStatus(statusById, ids[i], sensorValue != null);
+            } else if (opName.equals("out") && robots[i] != null) {
+                // Apply all the outputs for this robot at once (this is the first of them)
+                List<Integer> outputs = outputsByRobot.get(robots[i]);
+                List<String> outputTypes = new ArrayList<>();
+                List<Map<String, List<String>>> outputArgs = new ArrayList<>();
+                for (int index : outputs) {
+                    outputTypes.add(ops.optJSONObject(index).optString("output"));
+                    outputArgs.add(toParameters(ops.optJSONObject(index)));
+                }
+                boolean[] outputResults = robots[i].setOutputs(outputTypes, outputArgs);
+                for (int o = 0; o < outputResults.length; o++) {
+                    results[outputs.get(o)] = outputResults[o];
+                    reportBatchStatus(statusById, ids[i], outputResults[o]);
+                }
+            } else {
+                results[i] = opName.equals("in") ? JSONObject.NULL : false;
+                if (op != null && robots[i] == null) statusById.put(ids[i], false);
+            }
+        }
+        JSONArray response = new JSONArray();
+        for (Object result : results) {
+            response.put(result);
+        }
+
+        // One status report per robot, instead of one per operation
+        for (Map.Entry<String, Boolean> e : statusById.entrySet()) {
+            RobotStatusTracker.report(e.getKey(), e.getValue());
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, "application/json", response.toString());
+    }
+
+    /**
+     * Records the result of a batch operation for a robot, which is only reported as successful
+     * if all of its operations were.
+     */
+    private static void reportBatchStatus(Map<String, Boolean> statusById, String id, boolean success) {
+        statusById.put(id, success && !Boolean.FALSE.equals(statusById.get(id)));
+    }
+
+    /**
+     * Reads every sensor port of a robot at once (/robot/in/all), from a single reading, e.g.
+     * <pre>
+     * /robot/in/all?type=hummingbird&amp;id=...&amp;sensors=light,distance,,temperature
+     * </pre>
+     * The sensors parameter gives the type of sensor connected to each port, starting at port 1
+     * (ports without a type are read as percentages). The response is a JSON array with the
+     * value of each port.
+     *
+     * @param m Parameters of the request.
+     * @return A response containing the values of all the ports.
+     */
+    private NanoHTTPD.Response readAllSensors(Map<String, List<String>> m) {
+        String id = firstParameter(m, "id");
+        String type = firstParameter(m, "type");
+        if (id == null || type == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid sensor request.");
+        }
+        Robot robot = getRobotFromId(robotTypeFromString(type), id);
+        if (robot == null) {
+            RobotStatusTracker.report(id, false);
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + id + " was not found.");
+        }
+        List<String> sensors = m.get("sensors");
+        String[] sensorTypes = (sensors == null || sensors.isEmpty()) ? null : sensors.get(0).split(",", -1);
+        String[] sensorValues = robot.readAllSensors(sensorTypes);
+        if (sensorValues == null) {
+            RobotStatusTracker.report(id, false);
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.NO_CONTENT, MIME_PLAINTEXT, "Failed to read sensors from robot " + id + ".");
+        }
+        RobotStatusTracker.report(id, true);
+        JSONArray response = new JSONArray();
+        for (String sensorValue : sensorValues) {
+            response.put(sensorValue);
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, "application/json", response.toString());
+    }
+
+    /**
+     * Returns recent readings of every sensor port of a robot (/robot/in/history), either the
+     * last n readings, or the readings received after a time (in milliseconds since the epoch):
+     * <pre>
+     * /robot/in/history?type=hummingbird&amp;id=...&amp;last=50&amp;sensors=light,distance
+     * /robot/in/history?type=hummingbird&amp;id=...&amp;since=1500000000000
+     * </pre>
+     * The response is a JSON object with the time of each reading, and the value of each port
+     * in each reading (converted as in /robot/in/all), oldest first:
+     * {"times": [t1, t2, ...], "values": [[port1, port2, ...], ...]}
+     *
+     * @param m Parameters of the request.
+     * @return A response containing the readings.
+     */
+    private NanoHTTPD.Response readSensorHistory(Map<String, List<String>> m) {
+        String id = firstParameter(m, "id");
+        String type = firstParameter(m, "type");
+        if (id == null || type == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid history request.");
+        }
+        Robot robot = getRobotFromId(robotTypeFromString(type), id);
+        if (robot == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + id + " was not found.");
+        }
+        SensorHistory.Samples samples;
+        try {
+            if (m.containsKey("since")) {
+                samples = robot.getSensorHistory().since(Long.parseLong(m.get("since").get(0)));
+            } else {
+                samples = robot.getSensorHistory().last(m.containsKey("last") ? Integer.parseInt(m.get("last").get(0)) : 1);
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid history request.");
+        }
+        List<String> sensors = m.get("sensors");
+        String[] sensorTypes = (sensors == null || sensors.isEmpty()) ? new String[0] : sensors.get(0).split(",", -1);
+        int[] tables = new int[samples.getPorts()];
+        for (int port = 0; port < tables.length; port++) {
+            tables[port] = SensorTables.tableFor(port < sensorTypes.length ? sensorTypes[port] : null);
+        }
+
+        JSONArray times = new JSONArray();
+        JSONArray values = new JSONArray();
+        for (int i = 0; i < samples.size(); i++) {
+            times.put(samples.time(i));
+            JSONArray reading = new JSONArray();
+            for (int port = 1; port <= tables.length; port++) {
+                reading.put(SensorTables.format(tables[port - 1], samples.get(i, port)));
+            }
+            values.put(reading);
+        }
+        JSONObject response = new JSONObject();
+        try {
+            response.put("times", times);
+            response.put("values", values);
+        } catch (JSONException e) {
+            Log.e(TAG, "Error while building sensor history: " + e.getMessage());
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, "application/json", response.toString());
+    }
+
+    /**
+     * Returns the minimum, maximum and mean of one sensor port of a robot over the last window
+     * milliseconds (/robot/in/stats), e.g.
+     * <pre>
+     * /robot/in/stats?type=hummingbird&amp;id=...&amp;port=1&amp;sensor=distance&amp;window=1000
+     * </pre>
+     * The response is a JSON object: {"count": n, "min": ..., "max": ..., "mean": ...} (with
+     * only the count if there were no readings in the window).
+     *
+     * @param m Parameters of the request.
+     * @return A response containing the summary of the readings.
+     */
+    private NanoHTTPD.Response readSensorStats(Map<String, List<String>> m) {
+        String id = firstParameter(m, "id");
+        String type = firstParameter(m, "type");
+        if (id == null || type == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid stats request.");
+        }
+        Robot robot = getRobotFromId(robotTypeFromString(type), id);
+        if (robot == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + id + " was not found.");
+        }
+        SensorHistory.Summary summary;
+        try {
+            int port = Integer.parseInt(m.get("port").get(0));
+            if (port < 1 || port > robot.getSensorHistory().getPorts())
+                throw new NumberFormatException("Invalid port " + port);
+            long window = Long.parseLong(m.get("window").get(0));
+            String sensorType = m.containsKey("sensor") ? m.get("sensor").get(0) : null;
+            summary = robot.getSensorHistory().summarize(port, sensorType, System.currentTimeMillis() - window);
+        } catch (NumberFormatException | NullPointerException e) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid stats request.");
+        }
+        JSONObject response = new JSONObject();
+        try {
+            response.put("count", summary.count);
+            if (summary.count > 0) {
+                response.put("min", summary.min);
+                response.put("max", summary.max);
+                response.put("mean", summary.mean);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error while building sensor stats: " + e.getMessage());
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, "application/json", response.toString());
+    }
+
+    /**
+     * Gets the negotiated parameters of a robot's connection (/robot/connection): its MTU, the
+     * largest write that fits in it, and its current connection priority ("high" while a
+     * program is using the robot, then "balanced" and "lowPower" as it stays idle).
+     *
+     * @param m Parameters of the request.
+     * @return A response containing the parameters, as JSON.
+     */
+    private NanoHTTPD.Response getConnectionInfo(Map<String, List<String>> m) {
+        String id = firstParameter(m, "id");
+        String type = firstParameter(m, "type");
+        if (id == null || type == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid connection request.");
+        }
+        Robot robot = getRobotFromId(robotTypeFromString(type), id);
+        if (robot == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + id + " was not found.");
+        }
+        ConnectionTuning tuning = robot.getConnectionTuning();
+        JSONObject response = new JSONObject();
+        try {
+            response.put("mtu", tuning.getMtu());
+            response.put("maxWriteLength", tuning.getMaxWriteLength());
+            response.put("priority", tuning.getPriorityName());
+        } catch (JSONException e) {
+            Log.e(TAG, "Error while building connection info: " + e.getMessage());
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, "application/json", response.toString());
+    }
+
+    /**
+     * Subscribes to changes of a sensor port (/robot/in/subscribe), so that the frontend is
+     * told when it changes instead of polling /robot/in (see SensorSubscriptions), e.g.
+     * <pre>
+     * /robot/in/subscribe?type=hummingbird&amp;id=...&amp;port=1&amp;sensor=light&amp;deadband=2
+     * /robot/in/subscribe?type=hummingbird&amp;id=...&amp;port=1&amp;sensor=light&amp;threshold=50&amp;deadband=1
+     * </pre>
+     * With a threshold, the deadband is its hysteresis. The response is the id of the
+     * subscription, which is included in its events.
+     *
+     * @param m Parameters of the request.
+     * @return A response containing the id of the subscription.
+     */
+    private NanoHTTPD.Response subscribeToSensor(Map<String, List<String>> m) {
+        String id = firstParameter(m, "id");
+        String type = firstParameter(m, "type");
+        if (id == null || type == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid subscription request.");
+        }
+        Robot robot = getRobotFromId(robotTypeFromString(type), id);
+        if (robot == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + id + " was not found.");
+        }
+        int subscriptionId;
+        try {
+            int port = Integer.parseInt(m.get("port").get(0));
+            if (port < 1 || port > robot.getSensorHistory().getPorts())
+                throw new NumberFormatException("Invalid port " + port);
+            String sensorType = m.containsKey("sensor") ? m.get("sensor").get(0) : null;
+            double deadband = m.containsKey("deadband") ? Double.parseDouble(m.get("deadband").get(0)) : 0;
+            if (m.containsKey("threshold")) {
+                double threshold = Double.parseDouble(m.get("threshold").get(0));
+                subscriptionId = robot.getSensorSubscriptions().subscribeThreshold(port, sensorType, threshold, deadband);
+            } else {
+                subscriptionId = robot.getSensorSubscriptions().subscribeDeadband(port, sensorType, deadband);
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid subscription request.");
+        }
+        return NanoHTTPD.newFixedLengthResponse(
+                NanoHTTPD.Response.Status.OK, MIME_PLAINTEXT, Integer.toString(subscriptionId));
+    }
+
+    /**
+     * Removes a sensor subscription (/robot/in/unsubscribe?type=...&amp;id=...&amp;subscription=...)
+     *
+     * @param m Parameters of the request.
+     * @return A response saying whether the subscription existed.
+     */
+    private NanoHTTPD.Response unsubscribeFromSensor(Map<String, List<String>> m) {
+        String id = firstParameter(m, "id");
+        String type = firstParameter(m, "type");
+        if (id == null || type == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid subscription request.");
+        }
+        Robot robot = getRobotFromId(robotTypeFromString(type), id);
+        if (robot == null) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Robot " + id + " was not found.");
+        }
+        try {
+            int subscriptionId = Integer.parseInt(m.get("subscription").get(0));
+            if (!robot.getSensorSubscriptions().unsubscribe(subscriptionId)) {
+                return NanoHTTPD.newFixedLengthResponse(
+                        NanoHTTPD.Response.Status.NOT_FOUND, MIME_PLAINTEXT, "Subscription " + subscriptionId + " was not found.");
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            return NanoHTTPD.newFixedLengthResponse(
+                    NanoHTTPD.Response.Status.BAD_REQUEST, MIME_PLAINTEXT, "Invalid subscription request.");
+        }
+        return NanoHTTPD.newFixedLengthResponse(NanoHTTPD.Response.Status.OK, MIME_PLAINTEXT, "");
+    }
+
+    /**
+     * @param m   Parameters of a request.
+     * @param key Name of the parameter.
+     * @return The first value of the parameter, or null if the request doesn't have it.
+     */
+    private static String firstParameter(Map<String, List<String>> m, String key) {
+        List<String> values = m.get(key);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    /**
+     * Converts a JSON operation into the parameter map that Robot.setOutput expects.
+     *
+     * @param op The JSON operation.
+     * @return Map from each key of the operation to its (single) value.
+     */
+    private static Map<String, List<String>> toParameters(JSONObject op) {
+        Map<String, List<String>> parameters = new HashMap<>();
+        Iterator<String> keys = op.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            parameters.put(key, Collections.singletonList(op.optString(key)));
+        }
+        return parameters;
+    }
+
     /**
      * Finds a robotId in the list of connected robots. Null if it does not exist.
      *
@@ -286,6 +780,29 @@ public class RobotRequestHandler implements RequestHandler {
         return "";
     }
 
+    /**
+     * @return True if the writeWithoutResponse setting is "true"
+     */
+    private static boolean writeWithoutResponseEnabled() {
+        return "true".equals(mainWebViewContext.getSharedPreferences(SettingsHandler.PREFS_NAME, 0)
+                .getString(WRITE_WITHOUT_RESPONSE_SETTING, "false"));
+    }
+
+    /**
+     * @return The flutterSensorPollInterval setting, or -1 if it is not set (or not a number)
+     */
+    private static int flutterSensorPollIntervalSetting() {
+        String value = mainWebViewContext.getSharedPreferences(SettingsHandler.PREFS_NAME, 0)
+                .getString(FLUTTER_SENSOR_POLL_INTERVAL_SETTING, null);
+        if (value == null) return -1;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.e("ConnectFL", "Invalid " + FLUTTER_SENSOR_POLL_INTERVAL_SETTING + " setting: " + value);
+            return -1;
+        }
+    }
+
     /**
      *
      * @param hummingbirdId
@@ -299,8 +816,11 @@ public class RobotRequestHandler implements RequestHandler {
                 public void run() {
                     UARTConnection hbConn = btHelper.connectToDeviceUART(hummingbirdId, HBUART);
                     if (hbConn != null && connectedHummingbirds != null) {
+                        hbConn.setWriteWithoutResponse(writeWithoutResponseEnabled());
                         Hummingbird hummingbird = new Hummingbird(hbConn);
                         connectedHummingbirds.put(hummingbirdId, hummingbird);
+                        hummingbirdIndex.put(new RobotIndex.Entry(hummingbirdId, hummingbird));
+                        pushTotalStatus(RobotType.Hummingbird);
                     }
                 }
             };
@@ -332,7 +852,11 @@ public class RobotRequestHandler implements RequestHandler {
                     MelodySmartConnection flConn = btHelper.connectToDeviceMelodySmart(FlutterId, FLUART);
                     if (flConn != null && connectedFlutters != null) {
                         Flutter flutter = new Flutter(flConn);
+                        int pollInterval = flutterSensorPollIntervalSetting();
+                        if (pollInterval > 0) flutter.setSensorPollInterval(pollInterval);
                         connectedFlutters.put(FlutterId, flutter);
+                        flutterIndex.put(new RobotIndex.Entry(FlutterId, flutter));
+                        pushTotalStatus(RobotType.Flutter);
                     }
                 }
             };
@@ -370,10 +894,11 @@ public class RobotRequestHandler implements RequestHandler {
         if (robotType == RobotType.Hummingbird) disconnectFromHummingbird(robotId);
         else disconnectFromFlutter(robotId);
 
-        runJavascript("CallbackManager.robot.updateStatus('" + bbxEncode(robotId) + "', false);");
+        RobotStatusTracker.report(robotId, false);
+        pushTotalStatus(robotType);
 
-        Log.d("TotStat", "Connected Hummingbirds: " + connectedHummingbirds.toString());
-        Log.d("TotStat", "Connected Flutters: " + connectedFlutters.toString());
+        DebugLog.d("TotStat", "Connected Hummingbirds: %s", connectedHummingbirds);
+        DebugLog.d("TotStat", "Connected Flutters: %s", connectedFlutters);
         return robotType.toString() + " disconnected successfully.";
     }
 
@@ -384,11 +909,12 @@ public class RobotRequestHandler implements RequestHandler {
         try {
             Hummingbird hummingbird = (Hummingbird) getRobotFromId(RobotType.Hummingbird, hummingbirdId);
             if (hummingbird != null) {
-                Log.d(TAG, "Disconnecting from hummingbird: " + hummingbirdId);
+                DebugLog.d(TAG, "Disconnecting from hummingbird: %s", hummingbirdId);
                 if (hummingbird.isConnected())
                     hummingbird.disconnect();
-                Log.d("TotStat", "Removing hummingbird: " + hummingbirdId);
+                DebugLog.d("TotStat", "Removing hummingbird: %s", hummingbirdId);
                 connectedHummingbirds.remove(hummingbirdId);
+                hummingbirdIndex.remove(hummingbirdId);
                 hummingbirdsToConnect.remove(hummingbirdId);
             }
         } catch (Exception e) {
@@ -403,11 +929,12 @@ public class RobotRequestHandler implements RequestHandler {
         try {
             Flutter flutter = (Flutter) getRobotFromId(RobotType.Flutter, flutterId);
             if (flutter != null) {
-                Log.d(TAG, "Disconnecting from flutter: " + flutterId);
+                DebugLog.d(TAG, "Disconnecting from flutter: %s", flutterId);
                 if (flutter.isConnected())
                     flutter.disconnect();
-                Log.d("TotStat", "Removing flutter: " + flutterId);
+                DebugLog.d("TotStat", "Removing flutter: %s", flutterId);
                 connectedFlutters.remove(flutterId);
+                flutterIndex.remove(flutterId);
                 fluttersToConnect.remove(flutterId);
             }
         } catch (Exception e) {
@@ -423,11 +950,22 @@ public class RobotRequestHandler implements RequestHandler {
         return (robotType == RobotType.Hummingbird) ? getTotalHBStatus() : getTotalFLStatus();
     }
 
+    /**
+     * Pushes the total status of the given robot type to the frontend WebSocket (if open),
+     * so that the frontend doesn't have to poll /robot/totalStatus for it.
+     *
+     * @param robotType The type of robots whose status changed.
+     */
+    private static void pushTotalStatus(RobotType robotType) {
+        String status = (robotType == RobotType.Hummingbird) ? getTotalHBStatus() : getTotalFLStatus();
+        FrontendWebSocket.broadcast("robot/totalStatus?type=" + robotType.toString().toLowerCase(), status);
+    }
+
     /**
      * @return
      */
-    private String getTotalHBStatus() {
-        Log.d("TotStat", "Connected Hummingbirds: " + connectedHummingbirds.toString());
+    private static String getTotalHBStatus() {
+        DebugLog.d("TotStat", "Connected Hummingbirds: %s", connectedHummingbirds);
         if (connectedHummingbirds.size() == 0) {
             return "2";  // No hummingbirds connected
         }
@@ -442,8 +980,8 @@ public class RobotRequestHandler implements RequestHandler {
     /**
      * @return
      */
-    private String getTotalFLStatus() {
-        Log.d("TotStat", "Connected Flutters: " + connectedFlutters.toString());
+    private static String getTotalFLStatus() {
+        DebugLog.d("TotStat", "Connected Flutters: %s", connectedFlutters);
         if (connectedFlutters.size() == 0) {
             return "2";  // No flutters connected
         }
@@ -27,11 +27,10 @@ public class SettingsHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
         // Generate response body
         String responseBody = "";
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "get":
                 responseBody = getSetting(m.get("key").get(0));
                 if (responseBody.equals(DEFAULT_VALUE)) {
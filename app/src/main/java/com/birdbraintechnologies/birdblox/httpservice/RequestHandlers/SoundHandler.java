@@ -53,11 +53,10 @@ public class SoundHandler implements RequestHandler, CancelableMediaPlayer.OnPre
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
         Map<String, List<String>> m = session.getParameters();
         // Generate response body
         String responseBody = "";
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "names":
                 if (m.get("type") == null || m.get("type").get(0).equals("effect"))
                     responseBody = listSounds(false);
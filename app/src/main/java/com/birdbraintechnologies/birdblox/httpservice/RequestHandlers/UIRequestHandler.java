@@ -35,8 +35,7 @@ public class UIRequestHandler implements RequestHandler {
 
     @Override
     public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
-        String[] path = args.get(0).split("/");
-        switch (path[0]) {
+        switch (args.get(0)) {
             case "contentLoaded":
 //                return loadContent();
                 break;
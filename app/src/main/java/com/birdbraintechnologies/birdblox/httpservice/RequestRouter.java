@@ -1,7 +1,7 @@
 package com.birdbraintechnologies.birdblox.httpservice;
 
-import android.util.Log;
-
+import com.birdbraintechnologies.birdblox.Util.DebugLog;
+import com.birdbraintechnologies.birdblox.Util.Metrics;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.DebugRequestHandler;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.DropboxRequestHandler;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.FileManagementHandler;
@@ -13,13 +13,6 @@ import com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.SettingsHa
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.SoundHandler;
 import com.birdbraintechnologies.birdblox.httpservice.RequestHandlers.UIRequestHandler;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import fi.iki.elonen.NanoHTTPD;
 
 /**
@@ -30,53 +23,70 @@ import fi.iki.elonen.NanoHTTPD;
  */
 class RequestRouter {
 
-    private HashMap<Pattern, RequestHandler> routes;
+    private RouteTable routes;
     private HttpService service;
 
     RequestRouter(HttpService service) {
-        this.routes = new HashMap<>();
+        this.routes = new RouteTable();
         this.service = service;
         initRoutes();
     }
 
     /**
      * Initializes all the routes in the router. Place all new routes in this method using the
-     * addRoute(regex, handler) function.
+     * addRoute(prefix, handler) function.
+     * <p>
+     * Routes are matched on their leading path segments. When several routes match a request
+     * (e.g. "sound" and "sound/recording"), the longest one is always chosen, regardless of the
+     * order in which they were added. Paths under /sound/ that start with "recording" but aren't
+     * under /sound/recording/ (e.g. /sound/recordings) don't go to the SoundHandler either.
      */
     private void initRoutes() {
-        // TODO: Make this have a match ordering
-        addRoute("^/robot/(.*)$", new RobotRequestHandler(service));
-        addRoute("^/tablet/(.*)$", new HostDeviceHandler(service));
-        addRoute("^/settings/(.*)$", new SettingsHandler(service));
-        addRoute("^/data/(.*)$", new FileManagementHandler(service));
-        addRoute("^/sound/recording/(.*)$", new RecordingHandler(service));
-        addRoute("^/sound/(?!recording)(.*)$", new SoundHandler(service));
-        addRoute("^/properties/(.*)$", new PropertiesHandler(service));
-        addRoute("^/cloud/(.*)$", new DropboxRequestHandler(service));
-        addRoute("^/ui/(.*)$", new UIRequestHandler(service));
-        addRoute("^/debug/(.*)$", new DebugRequestHandler(service));
+        addRoute("robot", new RobotRequestHandler(service));
+        addRoute("tablet", new HostDeviceHandler(service));
+        addRoute("settings", new SettingsHandler(service));
+        addRoute("data", new FileManagementHandler(service));
+        addRoute("sound/recording", new RecordingHandler(service));
+        addRoute("sound", new SoundHandler(service), "recording");
+        addRoute("properties", new PropertiesHandler(service));
+        addRoute("cloud", new DropboxRequestHandler(service));
+        addRoute("ui", new UIRequestHandler(service));
+        addRoute("debug", new DebugRequestHandler(service));
         /**
          * These were older command patterns (NOT to be used anymore):
-         * addRoute("^/hummingbird/(.*)$", new HummingbirdRequestHandler(service));
-         * addRoute("^/flutter/(.*)$", new FlutterRequestHandler(service));
+         * addRoute("hummingbird", new HummingbirdRequestHandler(service));
+         * addRoute("flutter", new FlutterRequestHandler(service));
          *
          * They have now been replaced with:
-         * addRoute("^/robot/(.*)$", new RobotRequestHandler(service));
+         * addRoute("robot", new RobotRequestHandler(service));
          */
     }
 
     /**
      * Adds a route to the router
      *
-     * @param regex   How to match this route
-     * @param handler RequestHandler responsible for anything that matches the regex
+     * @param prefix  Leading path segments matched by this route (e.g. "sound/recording")
+     * @param handler RequestHandler responsible for every request under the prefix
+     */
+    private void addRoute(String prefix, RequestHandler handler) {
+        routes.add(prefix, handler);
+    }
+
+    /**
+     * Adds a route to the router, that doesn't match some of the paths under its prefix
+     *
+     * @param prefix       Leading path segments matched by this route (e.g. "sound")
+     * @param handler      RequestHandler responsible for the requests under the prefix
+     * @param excludedArgs Requests whose path continues with this after the prefix (e.g.
+     *                     "recording") aren't handled by this route
      */
-    private void addRoute(String regex, RequestHandler handler) {
-        routes.put(Pattern.compile(regex), handler);
+    private void addRoute(String prefix, RequestHandler handler, String excludedArgs) {
+        routes.add(prefix, handler, excludedArgs);
     }
 
     /**
-     * Routes a given HttpRequest to the correct handler and returns the response
+     * Routes a given HttpRequest to the correct handler and returns the response.
+     * Records the time taken to route the request and to handle it (see Metrics).
      *
      * @param session HttpRequest from the server
      * @return Response to the request
@@ -85,22 +95,41 @@ class RequestRouter {
 
         String path = session.getUri();
 
-        Log.d("parametersURI", path);
+        DebugLog.v("parametersURI", path);
 
         // Route the request
-        for (Map.Entry<Pattern, RequestHandler> e : routes.entrySet()) {
-            Pattern p = e.getKey();
-            Matcher match = p.matcher(path);
-            if (match.matches()) {
-                // Generate args from the regex groups (if they exist)
-                List<String> args = new ArrayList<>();
-                for (int i = 1; i <= match.groupCount(); i++) {
-                    args.add(match.group(i));
-                }
-                return e.getValue().handleRequest(session, args);
+        long startNanos = System.nanoTime();
+        RouteTable.Route route = routes.lookup(path);
+        long routedNanos = System.nanoTime();
+        Metrics.routingTime.recordNanos(routedNanos - startNanos);
+        if (route == null) {
+            // No match
+            return null;
+        }
+        RequestHandler handler = route.getHandler();
+        NanoHTTPD.Response response = null;
+        try {
+            if (handler instanceof FastPathHandler) {
+                response = ((FastPathHandler) handler).handleFastPath(session, path, route.getArgsOffset());
+            }
+            if (response == null) {
+                // Hand the handler the remaining path, already split into segments
+                response = handler.handleRequest(session, RouteTable.splitPath(path, route.getArgsOffset()));
             }
+            return response;
+        } finally {
+            long handlerNanos = System.nanoTime() - routedNanos;
+            Metrics.handlerTime.recordNanos(handlerNanos);
+            route.statsFor(path).record(handlerNanos, isError(response));
         }
-        // No match
-        return null;
+    }
+
+    /**
+     * @param response Response returned by a RequestHandler (null if it failed or threw)
+     * @return Whether the response reports a failure
+     */
+    private static boolean isError(NanoHTTPD.Response response) {
+        return response == null || response.getStatus() == null
+                || response.getStatus().getRequestStatus() >= 400;
     }
 }
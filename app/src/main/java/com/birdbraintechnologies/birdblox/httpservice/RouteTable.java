@@ -0,0 +1,204 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prefix tree of route segments, used by the RequestRouter to find the handler for a request
+ * without running any regular expressions.
+ * <p>
+ * A route such as "sound/recording" matches every path that starts with "/sound/recording/".
+ * When more than one route matches a path, the longest (most specific) route always wins, so the
+ * order in which routes are added never changes the result of a lookup. A route can also exclude
+ * the paths whose arguments start with a given String (as "^/sound/(?!recording)(.*)$" did).
+ */
+class RouteTable {
+
+    private final Route root = new Route("");
+
+    /**
+     * Adds a route to the table
+     *
+     * @param prefix  Path segments (without leading or trailing slashes) that this route matches,
+     *                e.g. "robot" or "sound/recording"
+     * @param handler RequestHandler responsible for anything under the prefix
+     */
+    void add(String prefix, RequestHandler handler) {
+        add(prefix, handler, null);
+    }
+
+    /**
+     * Adds a route to the table, that doesn't match some of the paths under its prefix
+     *
+     * @param prefix       Path segments (without leading or trailing slashes) that this route
+     *                     matches, e.g. "sound"
+     * @param handler      RequestHandler responsible for anything under the prefix
+     * @param excludedArgs Paths whose arguments (what follows "/prefix/") start with this aren't
+     *                     matched by this route (e.g. "recording"), or null to match them all
+     */
+    void add(String prefix, RequestHandler handler, String excludedArgs) {
+        Route node = root;
+        for (String segment : prefix.split("/")) {
+            Route child = node.child(segment, 0, segment.length());
+            if (child == null) {
+                child = new Route(segment);
+                node.addChild(child);
+            }
+            node = child;
+        }
+        node.handler = handler;
+        node.prefix = prefix;
+        node.excludedArgs = excludedArgs;
+        // Arguments start after the leading slash, the prefix and the trailing slash
+        node.argsOffset = prefix.length() + 2;
+    }
+
+    /**
+     * Finds the most specific route that matches the given path. Does not allocate.
+     *
+     * @param path Request URI, e.g. "/robot/out/led"
+     * @return The matching Route, or null if no route matches the path
+     */
+    Route lookup(String path) {
+        if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+            return null;
+        }
+        Route node = root;
+        Route match = null;
+        int start = 1;
+        int end;
+        // Every matched segment must be followed by a slash, just like the old "^/prefix/(.*)$"
+        while ((end = path.indexOf('/', start)) >= 0) {
+            node = node.child(path, start, end - start);
+            if (node == null) {
+                break;
+            }
+            if (node.handler != null && (node.excludedArgs == null || !path.startsWith(node.excludedArgs, end + 1))) {
+                match = node;
+            }
+            start = end + 1;
+        }
+        return match;
+    }
+
+    /**
+     * Splits the part of the path following a route prefix into its segments. Behaves like
+     * path.substring(from).split("/"), without compiling a regex.
+     *
+     * @param path Request URI
+     * @param from Index of the first character after the route prefix
+     * @return List of path segments (contains a single empty String if there are none)
+     */
+    static List<String> splitPath(String path, int from) {
+        List<String> segments = new ArrayList<>(4);
+        int start = Math.min(from, path.length());
+        int end;
+        while ((end = path.indexOf('/', start)) >= 0) {
+            segments.add(path.substring(start, end));
+            start = end + 1;
+        }
+        segments.add(path.substring(start));
+        // Drop trailing empty segments (but always keep the first one)
+        for (int i = segments.size() - 1; i > 0 && segments.get(i).isEmpty(); i--) {
+            segments.remove(i);
+        }
+        return segments;
+    }
+
+    /* Keeps junk request paths from growing the per-route command caches */
+    private static final int MAX_CACHED_COMMANDS = 32;
+
+    /**
+     * A single node of the route tree
+     */
+    static final class Route {
+        private final String segment;
+        private Route[] children = new Route[0];
+        private RequestHandler handler;
+        private String prefix;
+        private String excludedArgs;
+        private int argsOffset;
+        /* Stats of the commands seen so far, so that looking them up doesn't allocate */
+        private volatile CommandStats[] commandStats = new CommandStats[0];
+
+        private Route(String segment) {
+            this.segment = segment;
+        }
+
+        RequestHandler getHandler() {
+            return handler;
+        }
+
+        /**
+         * @return Path segments matched by this route, as given to add() (e.g. "sound/recording")
+         */
+        String getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * @return Index (in the request URI) of the first character after this route's prefix
+         */
+        int getArgsOffset() {
+            return argsOffset;
+        }
+
+        /**
+         * Gets the Metrics of the command (first path segment after this route's prefix) of a
+         * request to this route. Doesn't allocate once the command has been seen before.
+         *
+         * @param path Request URI
+         * @return Stats of the command
+         */
+        Metrics.RouteStats statsFor(String path) {
+            int start = Math.min(argsOffset, path.length());
+            int end = path.indexOf('/', start);
+            if (end < 0) end = path.length();
+            CommandStats[] known = commandStats;
+            for (CommandStats stats : known) {
+                if (stats.command.length() == end - start && path.regionMatches(start, stats.command, 0, end - start)) {
+                    return stats.stats;
+                }
+            }
+            String command = path.substring(start, end);
+            Metrics.RouteStats stats = Metrics.route(prefix, command);
+            synchronized (this) {
+                if (commandStats.length < MAX_CACHED_COMMANDS) {
+                    CommandStats[] grown = new CommandStats[commandStats.length + 1];
+                    System.arraycopy(commandStats, 0, grown, 0, commandStats.length);
+                    grown[commandStats.length] = new CommandStats(command, stats);
+                    commandStats = grown;
+                }
+            }
+            return stats;
+        }
+
+        private Route child(String s, int offset, int length) {
+            for (Route child : children) {
+                if (child.segment.length() == length && s.regionMatches(offset, child.segment, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private void addChild(Route child) {
+            Route[] grown = new Route[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, children.length);
+            grown[children.length] = child;
+            children = grown;
+        }
+    }
+
+    private static final class CommandStats {
+        private final String command;
+        private final Metrics.RouteStats stats;
+
+        private CommandStats(String command, Metrics.RouteStats stats) {
+            this.command = command;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * Wraps the body of a response to measure how long NanoHTTPD takes to write it out: NanoHTTPD
+ * closes the response (and so its body) once it has been sent.
+ * <p>
+ * Each connection thread handles one request at a time, and sends its response on that same
+ * thread, so a single instance per thread is reused for every response (instead of allocating
+ * a new wrapper per request).
+ */
+class TimedResponseBody extends InputStream {
+
+    private static final ThreadLocal<TimedResponseBody> perThread = new ThreadLocal<TimedResponseBody>() {
+        @Override
+        protected TimedResponseBody initialValue() {
+            return new TimedResponseBody();
+        }
+    };
+
+    private InputStream data;
+    private long startNanos;
+
+    private TimedResponseBody() {
+    }
+
+    /**
+     * Starts timing the writing of the given response, which must be sent by the calling thread.
+     *
+     * @param response Response that is about to be sent
+     */
+    static void attach(NanoHTTPD.Response response) {
+        InputStream data = response.getData();
+        if (data == null) return;
+        TimedResponseBody body = perThread.get();
+        body.data = data;
+        body.startNanos = System.nanoTime();
+        response.setData(body);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return data.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return data.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return data.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return data.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        InputStream data = this.data;
+        if (data == null) return;
+        this.data = null;
+        Metrics.writeTime.recordNanos(System.nanoTime() - startNanos);
+        data.close();
+    }
+}
@@ -0,0 +1,176 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/**
+ * A request that arrived over the frontend WebSocket, presented as an HttpSession, so that it
+ * can be handled by the same RequestHandlers as a normal HTTP request.
+ */
+class WebSocketSession implements NanoHTTPD.IHTTPSession {
+
+    /**
+     * Handles a request and sends its response back over the WebSocket
+     */
+    interface Handler {
+        void handle(WebSocketSession session);
+    }
+
+    private final String id;
+    private final String target;
+    private final Handler handler;
+    private final String uri;
+    private final String queryString;
+    private final String body;
+    private final NanoHTTPD.IHTTPSession handshake;
+    private Map<String, List<String>> parameters;
+
+    /**
+     * @param id        Id of the request, echoed in its response
+     * @param target    Request path, with an optional query string (e.g. "/robot/in?id=...")
+     * @param body      POST body of the request, or null for a GET request
+     * @param handshake The HttpSession that opened the WebSocket
+     * @param handler   Handles the request when it is executed
+     */
+    WebSocketSession(String id, String target, String body, NanoHTTPD.IHTTPSession handshake, Handler handler) {
+        this.id = id;
+        this.target = target;
+        this.handler = handler;
+        int query = target.indexOf('?');
+        this.uri = (query >= 0) ? target.substring(0, query) : target;
+        this.queryString = (query >= 0) ? target.substring(query + 1) : null;
+        this.body = body;
+        this.handshake = handshake;
+    }
+
+    /**
+     * Handles the request and sends back its response. The request was already read from its
+     * WebSocket frame, so unlike an HTTP session there is nothing left to read from the socket.
+     */
+    @Override
+    public void execute() {
+        handler.handle(this);
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return The path of the request, with its query string
+     */
+    String getTarget() {
+        return target;
+    }
+
+    @Override
+    public NanoHTTPD.CookieHandler getCookies() {
+        return handshake.getCookies();
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+        return handshake.getHeaders();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(body == null ? new byte[0] : body.getBytes());
+    }
+
+    @Override
+    public NanoHTTPD.Method getMethod() {
+        return (body == null) ? NanoHTTPD.Method.GET : NanoHTTPD.Method.POST;
+    }
+
+    @Override
+    @Deprecated
+    public Map<String, String> getParms() {
+        Map<String, String> parms = new HashMap<>();
+        for (Map.Entry<String, List<String>> e : getParameters().entrySet()) {
+            parms.put(e.getKey(), e.getValue().get(0));
+        }
+        return parms;
+    }
+
+    @Override
+    public Map<String, List<String>> getParameters() {
+        if (parameters == null) {
+            parameters = decodeParameters(queryString);
+        }
+        return parameters;
+    }
+
+    @Override
+    public String getQueryParameterString() {
+        return queryString;
+    }
+
+    @Override
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Places the body of the request in "postData", like NanoHTTPD does for an HTTP POST.
+     */
+    @Override
+    public void parseBody(Map<String, String> files) {
+        if (body != null) {
+            files.put("postData", body);
+        }
+    }
+
+    @Override
+    public String getRemoteIpAddress() {
+        return handshake.getRemoteIpAddress();
+    }
+
+    @Override
+    public String getRemoteHostName() {
+        return handshake.getRemoteHostName();
+    }
+
+    /**
+     * Decodes a percent-encoded query string into a map of parameters.
+     *
+     * @param queryString The query string (may be null)
+     * @return Map from each parameter name to its values
+     */
+    private static Map<String, List<String>> decodeParameters(String queryString) {
+        if (queryString == null || queryString.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> parameters = new HashMap<>();
+        for (String pair : queryString.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String key = decodePercent(eq >= 0 ? pair.substring(0, eq) : pair).trim();
+            String value = (eq >= 0) ? decodePercent(pair.substring(eq + 1)) : "";
+            List<String> values = parameters.get(key);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                parameters.put(key, values);
+            }
+            values.add(value);
+        }
+        return parameters;
+    }
+
+    private static String decodePercent(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return s;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.birdbraintechnologies.birdblox;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The *Benchmark tests measure and print timings, so they are skipped unless asked for, with:
+ * gradlew test -Dbenchmarks=true --tests '*Benchmark*' -i
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Skips the calling test, unless the benchmarks were asked for
+     */
+    public static void assumeEnabled() {
+        assumeTrue("Benchmarks only run with -Dbenchmarks=true", Boolean.getBoolean("benchmarks"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Prints how many writes and round trips setting every Flutter output takes with and without
+ * pipelining (run with: gradlew test -Dbenchmarks=true --tests '*CommandPipelineBenchmark*' -i).
+ */
+public class CommandPipelineBenchmark {
+
+    /* Setting every output of a Flutter: 3 TriLEDs, 3 servos and the buzzer */
+    private static final String[] COMMANDS = {"sl1,64,64,64\r", "sl2,0,32,a\r", "sl3,64,0,0\r",
+            "ss1,e1\r", "ss2,70\r", "ss3,0\r", "sz,64,4e20\r"};
+    private static final int MAX_WRITE_LENGTH = 20;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void writesAndRoundTrips_beforeAndAfter() {
+        int[] ends = ends(COMMANDS);
+        int writes = 0;
+        for (int first = 0; first < COMMANDS.length; writes++) {
+            first = CommandPipeline.pack(ends, COMMANDS.length, first, MAX_WRITE_LENGTH);
+        }
+        assertEquals(5, writes);
+
+        // Each write and each response takes (at least) one connection interval
+        System.out.println(String.format("Setting every Flutter output: %d writes and %d response waits "
+                        + "(~%d connection intervals) one command at a time, %d writes and 1 response wait "
+                        + "(~%d connection intervals) pipelined",
+                COMMANDS.length, COMMANDS.length, 2 * COMMANDS.length, writes, writes + 1));
+    }
+
+    private static int[] ends(String... commands) {
+        int[] ends = new int[commands.length];
+        int end = 0;
+        for (int i = 0; i < commands.length; i++) {
+            end += commands[i].length();
+            ends[i] = end;
+        }
+        return ends;
+    }
+}
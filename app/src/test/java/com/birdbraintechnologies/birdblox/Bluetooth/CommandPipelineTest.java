@@ -0,0 +1,86 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how pipelined commands are packed into writes and how their responses are matched.
+ */
+public class CommandPipelineTest {
+
+    /* Setting every output of a Flutter: 3 TriLEDs, 3 servos and the buzzer */
+    private static final String[] COMMANDS = {"sl1,64,64,64\r", "sl2,0,32,a\r", "sl3,64,0,0\r",
+            "ss1,e1\r", "ss2,70\r", "ss3,0\r", "sz,64,4e20\r"};
+    private static final int MAX_WRITE_LENGTH = 20;
+
+    @Test
+    public void pack_fillsWritesUpToTheMaximum() {
+        int[] ends = ends("ss1,e1\r", "ss2,70\r", "ss3,0\r", "sl1,64,64,64\r");
+        assertEquals(3, CommandPipeline.pack(ends, 4, 0, MAX_WRITE_LENGTH));
+        assertEquals(4, CommandPipeline.pack(ends, 4, 2, MAX_WRITE_LENGTH));
+        assertEquals(4, CommandPipeline.pack(ends, 4, 3, MAX_WRITE_LENGTH));
+        // A command longer than a write goes on its own
+        assertEquals(1, CommandPipeline.pack(ends, 4, 0, 4));
+        assertEquals(4, CommandPipeline.pack(ends, 4, 0, 512));
+    }
+
+    @Test
+    public void responses_matchedInOrder() throws InterruptedException {
+        CommandPipeline pipeline = new CommandPipeline();
+        boolean[] results = new boolean[5];
+        assertFalse(pipeline.offer("OK".getBytes()));
+
+        pipeline.begin(results);
+        pipeline.expect(5);
+        // Several responses in a notification, and a response split across two
+        assertTrue(pipeline.offer("OKFA".getBytes()));
+        assertTrue(pipeline.offer("IL\rOK".getBytes()));
+        assertFalse(pipeline.await(0));
+        // Anything else is one failed response
+        assertTrue(pipeline.offer("ERR".getBytes()));
+        assertTrue(pipeline.offer("OK".getBytes()));
+        assertTrue(pipeline.await(0));
+        assertEquals(3, pipeline.end());
+        assertArrayEquals(new boolean[]{true, false, true, false, true}, results);
+        assertEquals(1, pipeline.getUnexpected());
+        assertFalse(pipeline.offer("OK".getBytes()));
+    }
+
+    @Test
+    public void cancel_failsUnwrittenCommands() throws InterruptedException {
+        CommandPipeline pipeline = new CommandPipeline();
+        boolean[] results = new boolean[3];
+        pipeline.begin(results);
+        pipeline.expect(1);
+        pipeline.offer("OK".getBytes());
+        pipeline.expect(2);
+        pipeline.cancel(2);
+        assertTrue(pipeline.await(0));
+        assertEquals(1, pipeline.end());
+        assertArrayEquals(new boolean[]{true, false, false}, results);
+    }
+
+    @Test
+    public void pack_everyFlutterOutputInFewerWrites() {
+        int[] ends = ends(COMMANDS);
+        int writes = 0;
+        for (int first = 0; first < COMMANDS.length; writes++) {
+            first = CommandPipeline.pack(ends, COMMANDS.length, first, MAX_WRITE_LENGTH);
+        }
+        assertEquals(5, writes);
+    }
+
+    private static int[] ends(String... commands) {
+        int[] ends = new int[commands.length];
+        int end = 0;
+        for (int i = 0; i < commands.length; i++) {
+            end += commands[i].length();
+            ends[i] = end;
+        }
+        return ends;
+    }
+}
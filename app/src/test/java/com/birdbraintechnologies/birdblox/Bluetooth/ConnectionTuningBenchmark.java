@@ -0,0 +1,49 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Prints how long marking a connection active takes once it is at high priority (run with:
+ * gradlew test -Dbenchmarks=true --tests '*ConnectionTuningBenchmark*' -i).
+ */
+public class ConnectionTuningBenchmark {
+
+    private static final int ITERATIONS = 10000000;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void markActive_cost() {
+        RecordingRequester requests = new RecordingRequester();
+        ConnectionTuning tuning = new ConnectionTuning(requests);
+        for (int i = 0; i < ITERATIONS / 10; i++) tuning.markActive(i);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) tuning.markActive(i);
+        double perCall = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        assertEquals(1, requests.priorities.size());
+        System.out.println(String.format("Connection tuning: markActive %.1f ns per request at high priority", perCall));
+    }
+
+    private static class RecordingRequester implements ConnectionTuning.PriorityRequester {
+        final List<Integer> priorities = new ArrayList<>();
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            priorities.add(priority);
+            return true;
+        }
+    }
+}
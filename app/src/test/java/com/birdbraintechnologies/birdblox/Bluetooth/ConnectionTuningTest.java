@@ -0,0 +1,73 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks when the connection priority changes as a robot is used and left idle, and how the
+ * negotiated MTU limits writes.
+ */
+public class ConnectionTuningTest {
+
+    @Test
+    public void priority_followsActivity() {
+        RecordingRequester requests = new RecordingRequester();
+        ConnectionTuning tuning = new ConnectionTuning(requests);
+        assertEquals("balanced", tuning.getPriorityName());
+
+        // Only the first use of a running program asks for high priority
+        tuning.markActive(0);
+        tuning.markActive(100);
+        tuning.checkIdle(1000);
+        assertEquals(1, requests.priorities.size());
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_HIGH, tuning.getPriority());
+
+        tuning.checkIdle(100 + ConnectionTuning.BALANCED_AFTER_IDLE_IN_MILLIS);
+        assertEquals("balanced", tuning.getPriorityName());
+        tuning.checkIdle(100 + ConnectionTuning.LOW_POWER_AFTER_IDLE_IN_MILLIS - 1);
+        assertEquals("balanced", tuning.getPriorityName());
+        tuning.checkIdle(100 + ConnectionTuning.LOW_POWER_AFTER_IDLE_IN_MILLIS);
+        assertEquals("lowPower", tuning.getPriorityName());
+
+        // Stopping the program drops back to balanced right away
+        tuning.markActive(100000);
+        tuning.markIdle(100001);
+        assertEquals("balanced", tuning.getPriorityName());
+        assertEquals(5, requests.priorities.size());
+    }
+
+    @Test
+    public void mtu_onlyChangesOnSuccess() {
+        ConnectionTuning tuning = new ConnectionTuning(new RecordingRequester());
+        assertEquals(20, tuning.getMaxWriteLength());
+        tuning.onMtuChanged(185, false);
+        assertEquals(ConnectionTuning.DEFAULT_MTU, tuning.getMtu());
+        tuning.onMtuChanged(185, true);
+        assertEquals(182, tuning.getMaxWriteLength());
+    }
+
+    @Test
+    public void markActive_requestsHighPriorityOnce() {
+        RecordingRequester requests = new RecordingRequester();
+        ConnectionTuning tuning = new ConnectionTuning(requests);
+        for (int i = 0; i < 1000; i++) tuning.markActive(i);
+        assertEquals(1, requests.priorities.size());
+        assertEquals(BluetoothGatt.CONNECTION_PRIORITY_HIGH, (int) requests.priorities.get(0));
+    }
+
+    private static class RecordingRequester implements ConnectionTuning.PriorityRequester {
+        final List<Integer> priorities = new ArrayList<>();
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            priorities.add(priority);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prints how long a scan of a room full of robots takes to process when every scan result names
+ * and reports the whole list, compared to updating the discovery cache and reporting the
+ * changes a few times per second (run with:
+ * gradlew test -Dbenchmarks=true --tests '*DiscoveryCacheBenchmark*' -i).
+ */
+public class DiscoveryCacheBenchmark {
+
+    private static final int ROBOTS = 30;
+    private static final int RESULTS = 3000;
+    /* About 300 advertisements per second from 30 robots, reported every 250 ms */
+    private static final int RESULTS_PER_REPORT = 75;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void scan_beforeAndAfter() {
+        String[] addresses = new String[ROBOTS];
+        for (int i = 0; i < ROBOTS; i++) {
+            addresses[i] = String.format("AA:BB:CC:DD:%02X:%02X", i, 255 - i);
+        }
+
+        // Before: every result names every known device and reports the whole list
+        CountingNames names = new CountingNames();
+        HashMap<String, String> deviceList = new HashMap<>();
+        long start = System.nanoTime();
+        long reported = 0;
+        for (int i = 0; i < RESULTS; i++) {
+            String address = addresses[i % ROBOTS];
+            deviceList.put(address, address);
+            List<String> devices = new ArrayList<>(deviceList.values());
+            StringBuilder robots = new StringBuilder("[");
+            for (String device : devices) {
+                appendRobot(robots, device, names.nameFor(device), 0);
+            }
+            reported += robots.append(']').length();
+        }
+        double before = (System.nanoTime() - start) / 1e6;
+        int namesBefore = names.generated;
+
+        // After: every result updates its own entry, and the changes are reported periodically
+        names = new CountingNames();
+        DiscoveryCache cache = new DiscoveryCache(names);
+        int reports = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < RESULTS; i++) {
+            cache.onResult(addresses[i % ROBOTS], -60 - (i % 7), i);
+            if (i % RESULTS_PER_REPORT == 0) {
+                cache.expire(i);
+                if (cache.takeChanges() > 0) {
+                    StringBuilder robots = new StringBuilder("[");
+                    for (DiscoveryCache.Entry entry : cache.snapshot()) {
+                        appendRobot(robots, entry.address, entry.name, entry.rssi);
+                    }
+                    reported += robots.append(']').length();
+                    reports++;
+                }
+            }
+        }
+        double after = (System.nanoTime() - start) / 1e6;
+
+        assertEquals(ROBOTS, names.generated);
+        assertTrue(reported > 0);
+        System.out.println(String.format("Discovery of %d robots: %.1f ms and %d names for %d scan results "
+                        + "reporting every time, %.1f ms and %d names with the cache (%d reports)",
+                ROBOTS, before, namesBefore, RESULTS, after, names.generated, reports));
+    }
+
+    private static void appendRobot(StringBuilder robots, String address, String name, int rssi) {
+        if (robots.length() > 1) robots.append(',');
+        robots.append("{\"id\":\"").append(address).append("\",\"name\":\"").append(name)
+                .append("\",\"rssi\":").append(rssi).append('}');
+    }
+
+    /**
+     * Names devices the way NamingHandler does, loading the name tables for every name
+     */
+    private static class CountingNames implements DiscoveryCache.NameSource {
+        int generated = 0;
+
+        @Override
+        public String nameFor(String address) {
+            generated++;
+            LinkedHashMap<String, String[]> tables = new LinkedHashMap<>();
+            for (String table : new String[]{"first", "middle", "last"}) {
+                String[] names = new String[256];
+                for (int i = 0; i < names.length; i++) names[i] = table + i;
+                tables.put(table, names);
+            }
+            String mac = address.substring(9);
+            int i = Integer.parseInt(mac.substring(6), 16);
+            long mid = Long.parseLong(mac.substring(1, 2).concat(mac.substring(3, 5)), 16);
+            int offset = i % 16;
+            return tables.get("first")[(i + offset) % 256] + " " + tables.get("middle")[(int) (mid % 64) + offset]
+                    + " " + tables.get("last")[(int) (mid / 64) + offset];
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what counts as a change to the list of discovered robots, and that a busy scan names
+ * each robot only once.
+ */
+public class DiscoveryCacheTest {
+
+    private static final int ROBOTS = 30;
+    private static final int RESULTS = 3000;
+    /* About 300 advertisements per second from 30 robots, reported every 250 ms */
+    private static final int RESULTS_PER_REPORT = 75;
+
+    @Test
+    public void changes_addedRemovedAndRssi() {
+        CountingNames names = new CountingNames();
+        DiscoveryCache cache = new DiscoveryCache(names);
+        assertTrue(cache.onResult("AA:BB:CC:DD:EE:01", -60, 0));
+        assertTrue(cache.onResult("AA:BB:CC:DD:EE:02", -70, 0));
+        assertEquals(2, cache.takeChanges());
+
+        // Small RSSI changes are noise, and a device seen again keeps its name
+        assertFalse(cache.onResult("AA:BB:CC:DD:EE:01", -62, 1000));
+        assertEquals(0, cache.takeChanges());
+        cache.onResult("AA:BB:CC:DD:EE:01", -55, 2000);
+        assertEquals(1, cache.takeChanges());
+        assertEquals(2, names.generated);
+
+        // The second robot stopped advertising at 0
+        cache.expire(DiscoveryCache.DEVICE_TTL_IN_MILLIS - 1);
+        assertEquals(0, cache.takeChanges());
+        cache.expire(DiscoveryCache.DEVICE_TTL_IN_MILLIS);
+        assertEquals(1, cache.takeChanges());
+        List<DiscoveryCache.Entry> robots = cache.snapshot();
+        assertEquals(1, robots.size());
+        assertEquals("AA:BB:CC:DD:EE:01", robots.get(0).address);
+        assertEquals(-55, robots.get(0).rssi);
+    }
+
+    @Test
+    public void scan_namesEachRobotOnceAndReportsPeriodically() {
+        String[] addresses = new String[ROBOTS];
+        for (int i = 0; i < ROBOTS; i++) {
+            addresses[i] = String.format("AA:BB:CC:DD:%02X:%02X", i, 255 - i);
+        }
+        CountingNames names = new CountingNames();
+        DiscoveryCache cache = new DiscoveryCache(names);
+        int reports = 0;
+        for (int i = 0; i < RESULTS; i++) {
+            cache.onResult(addresses[i % ROBOTS], -60 - (i % 7), i);
+            if (i % RESULTS_PER_REPORT == 0) {
+                cache.expire(i);
+                if (cache.takeChanges() > 0) reports++;
+            }
+        }
+        assertEquals(ROBOTS, names.generated);
+        assertEquals(ROBOTS, cache.size());
+        assertTrue(reports > 0);
+        assertTrue(reports <= RESULTS / RESULTS_PER_REPORT + 1);
+    }
+
+    @Test
+    public void clear_emptiesListAndChanges() {
+        DiscoveryCache cache = new DiscoveryCache(new CountingNames());
+        cache.onResult("AA:BB:CC:DD:EE:01", -60, 0);
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.takeChanges());
+    }
+
+    /**
+     * Names devices after their address, counting how many names were generated
+     */
+    private static class CountingNames implements DiscoveryCache.NameSource {
+        int generated = 0;
+
+        @Override
+        public String nameFor(String address) {
+            generated++;
+            return "Robot " + address.substring(12);
+        }
+    }
+}
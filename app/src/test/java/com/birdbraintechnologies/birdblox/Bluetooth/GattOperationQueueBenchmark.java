@@ -0,0 +1,180 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prints how long callers are blocked writing through the GATT operation queue, compared to
+ * blocking synchronized writes, against a simulated Bluetooth stack (run with:
+ * gradlew test -Dbenchmarks=true --tests '*GattOperationQueueBenchmark*' -i).
+ */
+public class GattOperationQueueBenchmark {
+
+    private static final int LATENCY_IN_MILLIS = 2;
+
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(2);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void blockedCallers_beforeAndAfter() throws InterruptedException {
+        int writers = 4;
+        int writesEach = 50;
+
+        // Before: each caller holds the connection until its write completes
+        final SimulatedStack blockingStack = new SimulatedStack();
+        final Object connectionLock = new Object();
+        long blockedBefore = runWriters(writers, writesEach, new Writer() {
+            @Override
+            public void write(int value) throws InterruptedException {
+                synchronized (connectionLock) {
+                    final CountDownLatch done = new CountDownLatch(1);
+                    while (!blockingStack.start(value, new Runnable() {
+                        @Override
+                        public void run() {
+                            done.countDown();
+                        }
+                    })) {
+                        // The old busy-spin
+                    }
+                    done.await();
+                }
+            }
+        });
+
+        // After: callers submit to the queue and carry on
+        final SimulatedStack stack = new SimulatedStack();
+        final GattOperationQueue queue = stack.queue = new GattOperationQueue(scheduler);
+        final List<GattOperation> submitted = Collections.synchronizedList(new ArrayList<GattOperation>());
+        long blockedAfter = runWriters(writers, writesEach, new Writer() {
+            @Override
+            public void write(int value) {
+                submitted.add(queue.submit(stack.write(value, 1000)));
+            }
+        });
+        long start = System.nanoTime();
+        for (GattOperation operation : submitted) {
+            assertTrue(operation.await(5000));
+        }
+        double drainMillis = (System.nanoTime() - start) / 1e6;
+
+        System.out.println(String.format("GATT writes (%d callers x %d writes, %d ms each): callers blocked "
+                        + "%.1f ms in total with synchronized writes, %.1f ms with the queue "
+                        + "(which then drained in %.1f ms)",
+                writers, writesEach, LATENCY_IN_MILLIS, blockedBefore / 1e6, blockedAfter / 1e6, drainMillis));
+    }
+
+    private interface Writer {
+        void write(int value) throws InterruptedException;
+    }
+
+    /**
+     * Runs the writers at the same time
+     *
+     * @return Total time the writers spent in write(), in nanoseconds
+     */
+    private static long runWriters(int writers, final int writesEach, final Writer writer) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        final long[] blocked = new long[writers];
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            final int index = w;
+            threads[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < writesEach; i++) {
+                            long start = System.nanoTime();
+                            writer.write(next.getAndIncrement());
+                            blocked[index] += System.nanoTime() - start;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        long total = 0;
+        for (int w = 0; w < writers; w++) {
+            threads[w].join();
+            total += blocked[w];
+        }
+        return total;
+    }
+
+    /**
+     * A Bluetooth stack that accepts one operation at a time, and completes it after
+     * LATENCY_IN_MILLIS from another thread
+     */
+    private class SimulatedStack {
+        GattOperationQueue queue;
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger rejections = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        volatile boolean dropCallbacks = false;
+        private boolean busy = false;
+
+        GattOperation write(final int value, long timeoutMillis) {
+            return new GattOperation(timeoutMillis, false, null) {
+                @Override
+                protected boolean start() {
+                    final boolean drop = dropCallbacks;
+                    return SimulatedStack.this.start(value, new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!drop) queue.onOperationComplete(true, null);
+                        }
+                    });
+                }
+            };
+        }
+
+        synchronized boolean start(final int value, final Runnable callback) {
+            attempts.incrementAndGet();
+            if (rejections.get() > 0) {
+                rejections.decrementAndGet();
+                return false;
+            }
+            if (busy) {
+                overlaps.incrementAndGet();
+                return false;
+            }
+            busy = true;
+            written.add(value);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SimulatedStack.this) {
+                        busy = false;
+                    }
+                    callback.run();
+                }
+            }, LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        }
+    }
+}
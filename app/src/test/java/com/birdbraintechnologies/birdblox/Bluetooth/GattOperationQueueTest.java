@@ -0,0 +1,223 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the GATT operation queue runs operations one at a time and in order, retries
+ * without spinning, and honours deadlines and cancellation, against a simulated Bluetooth stack.
+ */
+public class GattOperationQueueTest {
+
+    private static final int LATENCY_IN_MILLIS = 2;
+
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(2);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void operations_runOneAtATimeInOrder() throws InterruptedException {
+        SimulatedStack stack = new SimulatedStack();
+        GattOperationQueue queue = stack.queue = new GattOperationQueue(scheduler);
+        List<GattOperation> submitted = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            submitted.add(queue.submit(stack.write(i, 1000)));
+        }
+        for (GattOperation operation : submitted) {
+            assertTrue(operation.await(1000));
+        }
+        assertEquals(0, stack.overlaps.get());
+        Integer[] expected = new Integer[20];
+        for (int i = 0; i < expected.length; i++) expected[i] = i;
+        assertArrayEquals(expected, stack.written.toArray());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void busyStack_retriedWithoutSpinning() throws InterruptedException {
+        SimulatedStack stack = new SimulatedStack();
+        GattOperationQueue queue = stack.queue = new GattOperationQueue(scheduler);
+        stack.rejections.set(10);
+        GattOperation operation = queue.submit(stack.write(1, 1000));
+        assertTrue(operation.await(1000));
+        // One attempt per retry delay, rather than a tight loop
+        assertEquals(11, stack.attempts.get());
+    }
+
+    @Test
+    public void deadline_failsOperationAndStartsNext() throws InterruptedException {
+        SimulatedStack stack = new SimulatedStack();
+        GattOperationQueue queue = stack.queue = new GattOperationQueue(scheduler);
+        stack.dropCallbacks = true;
+        GattOperation lost = queue.submit(stack.write(1, 50));
+        stack.dropCallbacks = false;
+        GattOperation next = queue.submit(stack.write(2, 1000));
+        assertFalse(lost.await(1000));
+        assertTrue(lost.isDone());
+        assertTrue(next.await(1000));
+    }
+
+    @Test
+    public void cancel_removesPendingOperation() throws InterruptedException {
+        SimulatedStack stack = new SimulatedStack();
+        GattOperationQueue queue = stack.queue = new GattOperationQueue(scheduler);
+        GattOperation first = queue.submit(stack.write(1, 1000));
+        GattOperation second = queue.submit(stack.write(2, 1000));
+        GattOperation third = queue.submit(stack.write(3, 1000));
+        assertTrue(queue.cancel(second));
+        assertTrue(first.await(1000));
+        assertTrue(third.await(1000));
+        assertFalse(second.isSuccessful());
+        assertTrue(second.isCancelled());
+        assertArrayEquals(new Integer[]{1, 3}, stack.written.toArray());
+        assertFalse(queue.cancel(first));
+    }
+
+    @Test
+    public void response_matchedEvenBeforeWriteCallback() throws InterruptedException {
+        final GattOperationQueue queue = new GattOperationQueue(scheduler);
+        GattOperation operation = queue.submit(new GattOperation(1000, true, null) {
+            @Override
+            protected boolean start() {
+                return true;
+            }
+        });
+        queue.onNotification(new byte[]{4});
+        assertFalse(operation.isDone());
+        queue.onOperationComplete(true, null);
+        assertTrue(operation.await(0));
+        assertArrayEquals(new byte[]{4}, operation.getValue());
+
+        queue.close();
+        assertFalse(queue.submit(new GattOperation(1000, false, null) {
+            @Override
+            protected boolean start() {
+                return true;
+            }
+        }).await(0));
+    }
+
+    @Test
+    public void concurrentCallers_allWritesDeliveredOnce() throws InterruptedException {
+        int writers = 4;
+        int writesEach = 25;
+        final SimulatedStack stack = new SimulatedStack();
+        final GattOperationQueue queue = stack.queue = new GattOperationQueue(scheduler);
+        final List<GattOperation> submitted = Collections.synchronizedList(new ArrayList<GattOperation>());
+        runWriters(writers, writesEach, new Writer() {
+            @Override
+            public void write(int value) {
+                submitted.add(queue.submit(stack.write(value, 5000)));
+            }
+        });
+        for (GattOperation operation : submitted) {
+            assertTrue(operation.await(5000));
+        }
+        assertEquals(0, stack.overlaps.get());
+        List<Integer> written = new ArrayList<>(stack.written);
+        Collections.sort(written);
+        assertEquals(writers * writesEach, written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertEquals(i, (int) written.get(i));
+        }
+    }
+
+    private interface Writer {
+        void write(int value) throws InterruptedException;
+    }
+
+    /**
+     * Runs the writers at the same time, each writing the next value writesEach times
+     */
+    private static void runWriters(int writers, final int writesEach, final Writer writer) throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; w++) {
+            threads[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < writesEach; i++) {
+                            writer.write(next.getAndIncrement());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads[w].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * A Bluetooth stack that accepts one operation at a time, and completes it after
+     * LATENCY_IN_MILLIS from another thread
+     */
+    private class SimulatedStack {
+        GattOperationQueue queue;
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger rejections = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        volatile boolean dropCallbacks = false;
+        private boolean busy = false;
+
+        GattOperation write(final int value, long timeoutMillis) {
+            return new GattOperation(timeoutMillis, false, null) {
+                @Override
+                protected boolean start() {
+                    final boolean drop = dropCallbacks;
+                    return SimulatedStack.this.start(value, new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!drop) queue.onOperationComplete(true, null);
+                        }
+                    });
+                }
+            };
+        }
+
+        synchronized boolean start(final int value, final Runnable callback) {
+            attempts.incrementAndGet();
+            if (rejections.get() > 0) {
+                rejections.decrementAndGet();
+                return false;
+            }
+            if (busy) {
+                overlaps.incrementAndGet();
+                return false;
+            }
+            busy = true;
+            written.add(value);
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (SimulatedStack.this) {
+                        busy = false;
+                    }
+                    callback.run();
+                }
+            }, LATENCY_IN_MILLIS, TimeUnit.MILLISECONDS);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+import com.birdbraintechnologies.birdblox.Robots.SensorHistory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints how long the GATT callback takes per notification when it runs the listeners itself,
+ * compared to handing the notification to the RX pipeline (run with:
+ * gradlew test -Dbenchmarks=true --tests '*RxPipelineBenchmark*' -i).
+ */
+public class RxPipelineBenchmark {
+
+    private static final int FRAMES = 200000;
+
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void callbackTime_beforeAndAfter() throws InterruptedException {
+        byte[][] frames = new byte[64][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new byte[]{(byte) i, (byte) (2 * i), (byte) (3 * i), (byte) (4 * i)};
+        }
+
+        // Before: the listener (recording the frame and formatting an event) runs in the callback
+        SensorListener inline = new SensorListener(FRAMES);
+        for (int i = 0; i < FRAMES / 10; i++) inline.onStreamFrame(frames[i % frames.length]);
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) inline.onStreamFrame(frames[i % frames.length]);
+        double before = (System.nanoTime() - start) / (double) FRAMES;
+
+        // After: the callback only copies the frame into the ring
+        SensorListener listener = new SensorListener(FRAMES);
+        RxPipeline pipeline = new RxPipeline("RX-benchmark", new GattOperationQueue(scheduler), listener);
+        pipeline.start();
+        long offered = 0;
+        long dropped = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            if (pipeline.offer(frames[i % frames.length])) offered++;
+            else dropped++;
+        }
+        double after = (System.nanoTime() - start) / (double) FRAMES;
+        pipeline.close();
+        listener.await(offered);
+
+        System.out.println(String.format("RX notification: %.0f ns in the GATT callback running the listener, "
+                + "%.0f ns handing it to the pipeline (offered back to back, %d of %d overflowed the ring; BLE notifications arrive milliseconds apart)",
+                before, after, dropped, FRAMES));
+    }
+
+    /**
+     * What a robot does with a sensor frame: records it, and formats an event from it
+     */
+    private static class SensorListener implements RxPipeline.StreamListener {
+        final SensorHistory history = new SensorHistory(4, 1024);
+        final CountDownLatch received;
+        long time = 0;
+        int sink;
+
+        SensorListener(int frames) {
+            received = new CountDownLatch(frames);
+        }
+
+        @Override
+        public void onStreamFrame(byte[] frame) {
+            history.record(++time, frame);
+            sink += String.format("%d %d", frame[0], frame[1]).length();
+            received.countDown();
+        }
+
+        void await(long frames) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (received.getCount() > 0 && FRAMES - received.getCount() < frames
+                    && System.currentTimeMillis() < deadline) {
+                received.await(10, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the RX pipeline routes a command's response to it and every other frame to the
+ * stream listener, in order, and drops frames only when its ring is full.
+ */
+public class RxPipelineTest {
+
+    private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1);
+
+    @After
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void streamFrames_notMistakenForResponse() throws InterruptedException {
+        GattOperationQueue operations = new GattOperationQueue(scheduler);
+        final List<Byte> stream = Collections.synchronizedList(new ArrayList<Byte>());
+        RxPipeline pipeline = new RxPipeline("RX-test", operations, new RxPipeline.StreamListener() {
+            @Override
+            public void onStreamFrame(byte[] frame) {
+                stream.add(frame[0]);
+            }
+        });
+        pipeline.start();
+
+        // A command whose response starts with 'V', sent while sensor frames are streaming
+        GattOperation command = operations.submit(new GattOperation(1000, true, null) {
+            @Override
+            protected boolean start() {
+                return true;
+            }
+
+            @Override
+            protected boolean isResponse(byte[] frame) {
+                return frame[0] == 'V';
+            }
+        });
+        pipeline.offer(new byte[]{1, 10, 20, 30});
+        pipeline.offer(new byte[]{'V', 2, 2, 'b'});
+        pipeline.offer(new byte[]{2, 10, 20, 30});
+        operations.onOperationComplete(true, null);
+        pipeline.offer(new byte[]{3, 10, 20, 30});
+
+        assertTrue(command.await(1000));
+        assertArrayEquals(new byte[]{'V', 2, 2, 'b'}, command.getValue());
+        pipeline.close();
+        for (int i = 0; i < 100 && stream.size() < 3; i++) Thread.sleep(10);
+        assertArrayEquals(new Byte[]{1, 2, 3}, stream.toArray());
+    }
+
+    @Test
+    public void fullRing_dropsNewFrames() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        RxPipeline pipeline = new RxPipeline("RX-test", new GattOperationQueue(scheduler), listener);
+
+        // Nothing takes frames from the ring until the pipeline is started
+        for (int i = 0; i < RxPipeline.CAPACITY; i++) {
+            assertTrue(pipeline.offer(new byte[]{(byte) i}));
+        }
+        assertFalse(pipeline.offer(new byte[]{-1}));
+        pipeline.start();
+        pipeline.close();
+        assertFalse(pipeline.offer(new byte[]{-2}));
+
+        assertTrue(listener.await(RxPipeline.CAPACITY));
+        for (int i = 0; i < RxPipeline.CAPACITY; i++) {
+            assertEquals((byte) i, (byte) listener.frames.get(i));
+        }
+    }
+
+    @Test
+    public void listenerError_keepsPipelineRunning() throws InterruptedException {
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public void onStreamFrame(byte[] frame) {
+                super.onStreamFrame(frame);
+                if (frame[0] == 1) throw new IllegalStateException("Listener failed");
+            }
+        };
+        RxPipeline pipeline = new RxPipeline("RX-test", new GattOperationQueue(scheduler), listener);
+        pipeline.start();
+        pipeline.offer(new byte[]{1});
+        pipeline.offer(new byte[]{2});
+        pipeline.close();
+        assertTrue(listener.await(2));
+        assertArrayEquals(new Byte[]{1, 2}, listener.frames.toArray());
+    }
+
+    /**
+     * Records the first byte of every stream frame
+     */
+    private static class RecordingListener implements RxPipeline.StreamListener {
+        final List<Byte> frames = Collections.synchronizedList(new ArrayList<Byte>());
+
+        @Override
+        public void onStreamFrame(byte[] frame) {
+            frames.add(frame[0]);
+        }
+
+        boolean await(int count) throws InterruptedException {
+            for (int i = 0; i < 100 && frames.size() < count; i++) Thread.sleep(10);
+            return frames.size() == count;
+        }
+    }
+}
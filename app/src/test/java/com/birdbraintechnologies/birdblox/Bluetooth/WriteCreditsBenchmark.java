@@ -0,0 +1,101 @@
+package com.birdbraintechnologies.birdblox.Bluetooth;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prints the frames per second and latency of a stream of output frames written with and
+ * without response, on a simulated link (run with:
+ * gradlew test -Dbenchmarks=true --tests '*WriteCreditsBenchmark*' -i).
+ * <p>
+ * The simulated link has a connection event every INTERVAL_IN_MICROS. An acknowledged write goes
+ * on air in the next event and is acknowledged in the one after, and only then can the next one
+ * be written. Writes without response complete as soon as the stack buffers them (in a buffer of
+ * STACK_BUFFER frames), and PACKETS_PER_EVENT of them go on air in each event.
+ */
+public class WriteCreditsBenchmark {
+
+    private static final long INTERVAL_IN_MICROS = 15000;
+    private static final int PACKETS_PER_EVENT = 4;
+    private static final int STACK_BUFFER = 8;
+    /* How often the sender can write, when nothing holds it back */
+    private static final long STEP_IN_MICROS = 250;
+    private static final long DURATION_IN_MICROS = 10000000;
+
+    private static final int ACKNOWLEDGED = 0;
+    private static final int NO_RESPONSE = 1;
+    private static final int NO_RESPONSE_WITH_CREDITS = 2;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void frameStream_beforeAndAfter() {
+        long[] acknowledged = simulate(ACKNOWLEDGED);
+        long[] noResponse = simulate(NO_RESPONSE);
+        long[] withCredits = simulate(NO_RESPONSE_WITH_CREDITS);
+
+        assertEquals(0, acknowledged[2]);
+        assertTrue(noResponse[2] > 0);
+        assertEquals(0, withCredits[2]);
+        assertTrue(withCredits[0] > 2 * acknowledged[0]);
+
+        System.out.println(String.format("Output frames on a simulated %d ms link: acknowledged %s; "
+                        + "without response %s; without response, with credits %s",
+                INTERVAL_IN_MICROS / 1000, describe(acknowledged), describe(noResponse), describe(withCredits)));
+    }
+
+    /**
+     * @return Frames delivered, their total latency (from being written to going on air) in
+     * microseconds, and frames dropped
+     */
+    private static long[] simulate(int mode) {
+        ArrayDeque<Long> buffer = new ArrayDeque<>();
+        WriteCredits credits = new WriteCredits(PACKETS_PER_EVENT, TimeUnit.MICROSECONDS.toNanos(INTERVAL_IN_MICROS), 0);
+        long delivered = 0;
+        long latency = 0;
+        long dropped = 0;
+        long readyAt = 0;
+        for (long t = 0; t < DURATION_IN_MICROS; t += STEP_IN_MICROS) {
+            if (t > 0 && t % INTERVAL_IN_MICROS == 0) {
+                int packets = (mode == ACKNOWLEDGED) ? 1 : PACKETS_PER_EVENT;
+                for (int i = 0; i < packets && !buffer.isEmpty(); i++) {
+                    latency += t - buffer.poll();
+                    delivered++;
+                    if (mode == ACKNOWLEDGED) {
+                        // Acknowledged in the next event
+                        readyAt = t + INTERVAL_IN_MICROS;
+                    }
+                }
+            }
+            if (t < readyAt) continue;
+            if (mode == ACKNOWLEDGED) {
+                buffer.add(t);
+                readyAt = Long.MAX_VALUE;
+            } else if (mode == NO_RESPONSE_WITH_CREDITS && !credits.tryAcquire(TimeUnit.MICROSECONDS.toNanos(t))) {
+                // Waits for the next interval
+            } else if (buffer.size() >= STACK_BUFFER) {
+                dropped++;
+            } else {
+                buffer.add(t);
+            }
+        }
+        return new long[]{delivered, latency, dropped};
+    }
+
+    private static String describe(long[] result) {
+        double seconds = DURATION_IN_MICROS / 1e6;
+        return String.format("%.0f frames/s, %.1f ms latency, %d dropped", result[0] / seconds,
+                (result[0] > 0) ? result[1] / 1000.0 / result[0] : 0, result[2]);
+    }
+}
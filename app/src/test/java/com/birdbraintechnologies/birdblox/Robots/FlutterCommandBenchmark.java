@@ -0,0 +1,67 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Prints how long encoding a Flutter command takes with String.format and with byte templates
+ * (run with: gradlew test -Dbenchmarks=true --tests '*FlutterCommandBenchmark*' -i).
+ */
+public class FlutterCommandBenchmark {
+
+    private static final char CR = (char) 0x0D;
+    private static final String SET_SERVO_CMD = "ss%d,%x";
+    private static final String SET_BUZZER_CMD = "sz,%x,%x" + CR;
+    private static final String SET_TRI_CMD = "sl%d,%x,%x,%x" + CR;
+
+    private static final int ITERATIONS = 1000000;
+
+    /* Keeps the JIT from dropping the loops */
+    private static int sink;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void encoding_beforeAndAfter() {
+        byte[] out = new byte[Flutter.MAX_COMMAND_LENGTH];
+        formatCommands(ITERATIONS / 10);
+        encodeCommands(out, ITERATIONS / 10);
+
+        long start = System.nanoTime();
+        formatCommands(ITERATIONS);
+        double before = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        start = System.nanoTime();
+        encodeCommands(out, ITERATIONS);
+        double after = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        System.out.println(String.format("Flutter TriLED command: String.format %.1f ns, byte template %.1f ns", before, after));
+    }
+
+    private static void formatCommands(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            byte v = (byte) (i % 101);
+            sink += String.format(SET_TRI_CMD, 1 + i % 3, v, v, v).getBytes().length;
+        }
+    }
+
+    private static void encodeCommands(byte[] out, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            byte v = (byte) (i % 101);
+            sink += Flutter.encodeTriLED(1 + i % 3, v, v, v, out);
+        }
+    }
+
+    private static void assertEncoded(String expected, byte[] out, int length) {
+        assertArrayEquals(expected, expected.getBytes(), Arrays.copyOf(out, length));
+    }
+}
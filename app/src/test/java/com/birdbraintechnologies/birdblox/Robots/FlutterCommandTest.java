@@ -0,0 +1,58 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks that the Flutter commands encoded from byte templates are exactly those that
+ * String.format used to build.
+ */
+public class FlutterCommandTest {
+
+    private static final char CR = (char) 0x0D;
+    private static final String SET_SERVO_CMD = "ss%d,%x";
+    private static final String SET_BUZZER_CMD = "sz,%x,%x" + CR;
+    private static final String SET_TRI_CMD = "sl%d,%x,%x,%x" + CR;
+
+    private final byte[] out = new byte[Flutter.MAX_COMMAND_LENGTH];
+
+    @Test
+    public void encodeTriLED_matchesStringFormat() {
+        for (int port = 1; port <= 3; port++) {
+            for (int value = 0; value <= 100; value++) {
+                byte v = (byte) value;
+                byte w = (byte) (100 - value);
+                assertEncoded(String.format(SET_TRI_CMD, port, v, w, (byte) (value / 2)),
+                        Flutter.encodeTriLED(port, v, w, (byte) (value / 2), out));
+            }
+        }
+    }
+
+    @Test
+    public void encodeServo_matchesStringFormat() {
+        for (int port = 1; port <= 3; port++) {
+            for (int angle = 0; angle <= 225; angle++) {
+                assertEncoded(String.format(SET_SERVO_CMD, port, (byte) angle), Flutter.encodeServo(port, (byte) angle, out));
+            }
+        }
+    }
+
+    @Test
+    public void encodeBuzzer_matchesStringFormat() {
+        for (int volume = 0; volume <= 100; volume += 7) {
+            for (int frequency = 0; frequency <= 20000; frequency += 123) {
+                assertEncoded(String.format(SET_BUZZER_CMD, (byte) volume, (short) frequency),
+                        Flutter.encodeBuzzer((byte) volume, (short) frequency, out));
+            }
+        }
+        assertEncoded(String.format(SET_BUZZER_CMD, (byte) 100, (short) 20000),
+                Flutter.encodeBuzzer((byte) 100, (short) 20000, out));
+    }
+
+    private void assertEncoded(String expected, int length) {
+        assertArrayEquals(expected, expected.getBytes(), Arrays.copyOf(out, length));
+    }
+}
@@ -0,0 +1,57 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Prints how long parsing a Flutter sensor response takes with String.split and straight from
+ * its bytes (run with:
+ * gradlew test -Dbenchmarks=true --tests '*FlutterSensorReadingBenchmark*' -i).
+ */
+public class FlutterSensorReadingBenchmark {
+
+    private static final String[] RESPONSES = {"r,57,32,100", "r,0,5,99\r", "r,12.5,0,7", "r, 3,40,61"};
+    private static final int ITERATIONS = 1000000;
+
+    /* Keeps the JIT from dropping the loops */
+    private static double sink;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void parse_beforeAndAfter() {
+        byte[][] responses = new byte[RESPONSES.length][];
+        for (int i = 0; i < responses.length; i++) responses[i] = RESPONSES[i].getBytes();
+        parseWithSplit(responses, ITERATIONS / 10);
+        parseBytes(responses, ITERATIONS / 10);
+
+        long start = System.nanoTime();
+        parseWithSplit(responses, ITERATIONS);
+        double before = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        start = System.nanoTime();
+        parseBytes(responses, ITERATIONS);
+        double after = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        System.out.println(String.format("Flutter sensor response: String.split %.1f ns, parsed from bytes %.1f ns", before, after));
+    }
+
+    private static void parseWithSplit(byte[][] responses, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            String[] split = new String(responses[i % responses.length]).split(",");
+            for (int port = 1; port <= 3; port++) sink += Double.parseDouble(split[port]);
+        }
+    }
+
+    private static void parseBytes(byte[][] responses, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            Flutter.SensorReading reading = Flutter.SensorReading.parse(responses[i % responses.length], 3);
+            for (int port = 0; port < 3; port++) sink += reading.percents[port];
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Util.DeviceUtil;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that Flutter sensor responses are parsed as they were with String.split.
+ */
+public class FlutterSensorReadingTest {
+
+    private static final String[] RESPONSES = {"r,57,32,100", "r,0,5,99\r", "r,12.5,0,7", "r, 3,40,61"};
+
+    @Test
+    public void parse_matchesSplit() {
+        for (String response : RESPONSES) {
+            Flutter.SensorReading reading = Flutter.SensorReading.parse(response.getBytes(), 3);
+            String[] split = response.split(",");
+            for (int port = 1; port <= 3; port++) {
+                double percent = Double.parseDouble(split[port]);
+                assertEquals(percent, reading.percents[port - 1], 0);
+                assertEquals(DeviceUtil.PercentToRaw(percent), reading.raw[port - 1]);
+            }
+        }
+    }
+
+    @Test
+    public void parse_rejectsMalformedResponses() {
+        assertNull(Flutter.SensorReading.parse(new byte[0], 3));
+        assertNull(Flutter.SensorReading.parse("r,57,32".getBytes(), 3));
+        assertNull(Flutter.SensorReading.parse("r,57,x,1".getBytes(), 3));
+    }
+
+    @Test
+    public void formatPercent_dropsWholeFractions() {
+        assertEquals("57", Flutter.SensorReading.formatPercent(57));
+        assertEquals("12.5", Flutter.SensorReading.formatPercent(12.5));
+    }
+}
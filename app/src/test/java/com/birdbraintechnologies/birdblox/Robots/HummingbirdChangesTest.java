@@ -0,0 +1,75 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.HBState;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the individual peripheral commands that Hummingbird.encodeChanges sends instead of a
+ * whole setAll frame, and that it falls back to setAll when that is shorter or needed.
+ */
+public class HummingbirdChangesTest {
+
+    private final byte[] from = new HBState().setAll().clone();
+    private final byte[] to = from.clone();
+    private final byte[] out = new byte[HBState.SETALL_LENGTH];
+
+    @Test
+    public void noChanges_encodeNothing() {
+        assertEquals(0, Hummingbird.encodeChanges(from, to, out));
+    }
+
+    @Test
+    public void fewChanges_encodeIndividualCommands() {
+        to[HBState.LEDS_OFFSET + 2] = 40;
+        to[HBState.TRILEDS_OFFSET + 3] = 10;
+        to[HBState.TRILEDS_OFFSET + 5] = 20;
+        to[HBState.SERVOS_OFFSET] = 90;
+        assertEncoded(new byte[]{'O', '1', 10, 0, 20, 'L', '2', 40, 'S', '0', 90});
+    }
+
+    @Test
+    public void changesNotShorter_useSetAll() {
+        // Both TriLEDs (10 bytes) and three LEDs (9 bytes) are as long as a setAll frame
+        for (int i = 0; i < 6; i++) {
+            to[HBState.TRILEDS_OFFSET + i] = 50;
+        }
+        for (int i = 0; i < 3; i++) {
+            to[HBState.LEDS_OFFSET + i] = 50;
+        }
+        assertEquals(-1, Hummingbird.encodeChanges(from, to, out));
+
+        // One LED fewer is shorter again
+        to[HBState.LEDS_OFFSET + 2] = from[HBState.LEDS_OFFSET + 2];
+        assertEquals(16, Hummingbird.encodeChanges(from, to, out));
+    }
+
+    @Test
+    public void servoOff_usesSetAll() {
+        from[HBState.SERVOS_OFFSET + 1] = 90;
+        to[HBState.SERVOS_OFFSET + 1] = (byte) 255;
+        assertEquals(-1, Hummingbird.encodeChanges(from, to, out));
+    }
+
+    @Test
+    public void motorSpeed_becomesDirectionAndByte() {
+        // setAll has the speed as a percentage, with the sign in the top bit
+        to[HBState.MOTORS_OFFSET] = (byte) (0x80 | 40);
+        to[HBState.MOTORS_OFFSET + 1] = 100;
+        assertEncoded(new byte[]{'M', '0', '1', 102, 'M', '1', '0', (byte) 255});
+
+        to[HBState.MOTORS_OFFSET] = (byte) (0x80 | 100);
+        to[HBState.MOTORS_OFFSET + 1] = 1;
+        assertEncoded(new byte[]{'M', '0', '1', (byte) 255, 'M', '1', '0', 3});
+    }
+
+    private void assertEncoded(byte[] expected) {
+        int length = Hummingbird.encodeChanges(from, to, out);
+        assertArrayEquals(expected, Arrays.copyOf(out, length));
+    }
+}
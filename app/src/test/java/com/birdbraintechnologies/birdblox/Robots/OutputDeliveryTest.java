@@ -0,0 +1,71 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Robots.RobotStates.HBState;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when callers waiting for their outputs to be sent (wait=true) are released, including
+ * when an output is set to the value that the robot already has.
+ */
+public class OutputDeliveryTest {
+
+    private static final int TIMEOUT_IN_MILLIS = 5000;
+
+    private final HBState oldState = new HBState();
+    private final HBState newState = new HBState();
+    private final OutputDelivery delivery = new OutputDelivery(new ReentrantLock());
+
+    @Test
+    public void repeatedWait_returnsImmediately() throws InterruptedException {
+        newState.getLED(1).setValue(50);
+        oldState.copy(newState);
+        assertTrue(delivery.markDeliveredIfUnchanged(oldState, newState));
+
+        // Setting the same value again changes the version, but leaves nothing to send
+        long before = newState.getVersion();
+        newState.getLED(1).setValue(50);
+        long version = newState.getVersion();
+        assertTrue(version > before);
+        assertTrue(delivery.markDeliveredIfUnchanged(oldState, newState));
+
+        long start = System.nanoTime();
+        assertTrue(delivery.await(version, TIMEOUT_IN_MILLIS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(TIMEOUT_IN_MILLIS / 5));
+    }
+
+    @Test
+    public void changedState_isNotMarked() throws InterruptedException {
+        oldState.copy(newState);
+        newState.getLED(1).setValue(50);
+        assertFalse(delivery.markDeliveredIfUnchanged(oldState, newState));
+        assertFalse(delivery.await(newState.getVersion(), 50));
+    }
+
+    @Test
+    public void await_returnsOnceDelivered() throws InterruptedException {
+        newState.getMotor(1).setValue(-40);
+        final long version = newState.getVersion();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                delivery.markDelivered(version);
+            }
+        }).start();
+        assertTrue(delivery.await(version, TIMEOUT_IN_MILLIS));
+    }
+
+    @Test
+    public void markDelivered_neverGoesBack() throws InterruptedException {
+        delivery.markDelivered(10);
+        delivery.markDelivered(4);
+        assertTrue(delivery.await(10, 0));
+        assertFalse(delivery.await(11, 0));
+    }
+}
@@ -0,0 +1,132 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+import com.birdbraintechnologies.birdblox.Util.Metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prints how many threads and wakeups per second idle robots cost, with the old model (two
+ * threads per robot: a 32 ms send tick and a 1 s monitor) and with the shared RobotScheduler
+ * (a 4 s keepalive per robot, and one shared health check tick), for 1, 5 and 20 simulated
+ * robots (run with: gradlew test -Dbenchmarks=true --tests '*RobotSchedulerBenchmark*' -i).
+ */
+public class RobotSchedulerBenchmark {
+
+    private static final int[] ROBOT_COUNTS = {1, 5, 20};
+    private static final int WINDOW_IN_MILLIS = 2000;
+
+    private static final int OLD_SEND_INTERVAL_IN_MILLIS = 32;
+    private static final int MONITOR_INTERVAL_IN_MILLIS = 1000;
+    private static final int KEEPALIVE_INTERVAL_IN_MILLIS = 4000;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void threadsAndWakeups_beforeAndAfter() throws InterruptedException {
+        for (int robots : ROBOT_COUNTS) {
+            double oldWakeups = runOld(robots);
+            int newThreads = countSchedulerThreads();
+            double newWakeups = runShared(robots);
+            newThreads = Math.max(newThreads, countSchedulerThreads());
+
+            System.out.println(String.format("%2d robots: old %2d threads, %6.1f wakeups/s; shared %d threads, %4.1f wakeups/s",
+                    robots, 2 * robots, oldWakeups, newThreads, newWakeups));
+            assertTrue(newWakeups < oldWakeups);
+        }
+    }
+
+    /**
+     * Two single-threaded schedulers per robot, as each Hummingbird used to have
+     */
+    private double runOld(int robots) throws InterruptedException {
+        final AtomicLong wakeups = new AtomicLong();
+        Runnable tick = new Runnable() {
+            @Override
+            public void run() {
+                wakeups.incrementAndGet();
+            }
+        };
+        List<ScheduledExecutorService> threads = new ArrayList<>();
+        for (int i = 0; i < robots; i++) {
+            ScheduledExecutorService send = new ScheduledThreadPoolExecutor(1);
+            ScheduledExecutorService monitor = new ScheduledThreadPoolExecutor(1);
+            send.scheduleAtFixedRate(tick, 0, OLD_SEND_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+            monitor.scheduleAtFixedRate(tick, 0, MONITOR_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+            threads.add(send);
+            threads.add(monitor);
+        }
+        long start = System.nanoTime();
+        long before = wakeups.get();
+        Thread.sleep(WINDOW_IN_MILLIS);
+        double rate = (wakeups.get() - before) / ((System.nanoTime() - start) / 1e9);
+        for (ScheduledExecutorService thread : threads) {
+            thread.shutdownNow();
+        }
+        return rate;
+    }
+
+    /**
+     * Idle robots on the shared scheduler: a keepalive every 4 s (at a random phase, as robots
+     * connect at different times) and a health check each
+     */
+    private double runShared(int robots) throws InterruptedException {
+        AtomicLong wakeups = Metrics.counter("robot_scheduler_wakeups");
+        Random random = new Random(robots);
+        List<SimulatedRobot> simulated = new ArrayList<>();
+        for (int i = 0; i < robots; i++) {
+            SimulatedRobot robot = new SimulatedRobot();
+            RobotScheduler.addHealthCheck(robot.healthCheck);
+            RobotScheduler.schedule(robot.keepalive, random.nextInt(KEEPALIVE_INTERVAL_IN_MILLIS));
+            simulated.add(robot);
+        }
+        long start = System.nanoTime();
+        long before = wakeups.get();
+        Thread.sleep(WINDOW_IN_MILLIS);
+        double rate = (wakeups.get() - before) / ((System.nanoTime() - start) / 1e9);
+        for (SimulatedRobot robot : simulated) {
+            robot.stopped = true;
+            RobotScheduler.removeHealthCheck(robot.healthCheck);
+        }
+        return rate;
+    }
+
+    private static int countSchedulerThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("RobotScheduler-")) count++;
+        }
+        return count;
+    }
+
+    private static class SimulatedRobot {
+        volatile boolean stopped = false;
+
+        final Runnable healthCheck = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        final Runnable keepalive = new Runnable() {
+            @Override
+            public void run() {
+                if (!stopped) RobotScheduler.schedule(this, KEEPALIVE_INTERVAL_IN_MILLIS);
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the tasks of many robots share the scheduler's single thread, that health checks
+ * run until they are removed, and that blocking tasks are handed over to a robot's I/O executor.
+ */
+public class RobotSchedulerTest {
+
+    private static final int ROBOTS = 20;
+    private static final int TIMEOUT_IN_MILLIS = 3000;
+
+    @Test
+    public void schedule_runsEveryRobotOnOneThread() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(ROBOTS);
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        for (int i = 0; i < ROBOTS; i++) {
+            RobotScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                }
+            }, i);
+        }
+        assertTrue(done.await(TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, threads.size());
+        assertTrue(threads.iterator().next().startsWith("RobotScheduler-"));
+    }
+
+    @Test
+    public void healthCheck_runsUntilRemoved() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch ran = new CountDownLatch(1);
+        Runnable healthCheck = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                ran.countDown();
+            }
+        };
+        RobotScheduler.addHealthCheck(healthCheck);
+        try {
+            assertTrue(ran.await(TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS));
+        } finally {
+            RobotScheduler.removeHealthCheck(healthCheck);
+        }
+        int runsWhenRemoved = runs.get();
+        Thread.sleep(1500);
+        assertEquals(runsWhenRemoved, runs.get());
+    }
+
+    @Test
+    public void scheduleOnIo_runsTasksInOrderOnTheIoThread() throws InterruptedException {
+        ExecutorService io = RobotScheduler.newIoExecutor("RobotSchedulerTest-io");
+        final CountDownLatch done = new CountDownLatch(3);
+        final List<String> runs = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 3; i++) {
+            final int task = i;
+            RobotScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    runs.add(task + " " + Thread.currentThread().getName());
+                    done.countDown();
+                }
+            }, 0, io);
+        }
+        assertTrue(done.await(TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals("0 RobotSchedulerTest-io", runs.get(0));
+        assertEquals("1 RobotSchedulerTest-io", runs.get(1));
+        assertEquals("2 RobotSchedulerTest-io", runs.get(2));
+    }
+
+    @Test
+    public void scheduleOnIo_afterShutdownIsDropped() throws InterruptedException {
+        ExecutorService io = RobotScheduler.newIoExecutor("RobotSchedulerTest-closed");
+        io.shutdown();
+        final AtomicInteger runs = new AtomicInteger();
+        RobotScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        }, 0, io);
+
+        // The scheduler keeps running the other robots' tasks
+        final CountDownLatch next = new CountDownLatch(1);
+        RobotScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                next.countDown();
+            }
+        }, 0);
+        assertTrue(next.await(TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(0, runs.get());
+    }
+}
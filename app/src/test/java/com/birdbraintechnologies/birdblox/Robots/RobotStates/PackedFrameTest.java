@@ -0,0 +1,79 @@
+package com.birdbraintechnologies.birdblox.Robots.RobotStates;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bytes and versions of a PackedFrame, and when a copy of a frame still counts as
+ * equal to it.
+ */
+public class PackedFrameTest {
+
+    private static final byte[] DEFAULTS = {0x41, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 255, (byte) 255};
+
+    @Test
+    public void set_changesBytesAndVersion() {
+        PackedFrame frame = new PackedFrame(DEFAULTS);
+        long version = frame.version();
+        frame.set(8, (byte) 7, (byte) 8, (byte) 9);
+        assertNotEquals(version, frame.version());
+        assertEquals(0, frame.version() & 1);
+
+        byte[] bytes = new byte[frame.length()];
+        assertEquals(frame.version(), frame.encode(bytes));
+        assertArrayEquals(new byte[]{0x41, 0, 0, 0, 0, 0, 0, 0, 7, 8, 9}, bytes);
+
+        frame.reset();
+        frame.encode(bytes);
+        assertArrayEquals(DEFAULTS, bytes);
+    }
+
+    @Test
+    public void copyFrom_equalUntilEitherChanges() {
+        PackedFrame source = new PackedFrame(DEFAULTS);
+        PackedFrame copy = new PackedFrame(DEFAULTS);
+        source.set(3, (byte) 50);
+        assertFalse(copy.contentEquals(source));
+
+        copy.copyFrom(source);
+        assertTrue(copy.contentEquals(source));
+        assertTrue(source.contentEquals(copy));
+
+        source.set(3, (byte) 60);
+        assertFalse(copy.contentEquals(source));
+        assertFalse(source.contentEquals(copy));
+
+        // Changed back, so the versions differ but the bytes are the same again
+        source.set(3, (byte) 50);
+        assertTrue(copy.contentEquals(source));
+
+        copy.set(10, (byte) 0);
+        assertFalse(copy.contentEquals(source));
+    }
+
+    @Test
+    public void load_equalToSourceOnlyAsOfTheEncodedVersion() {
+        PackedFrame source = new PackedFrame(DEFAULTS);
+        PackedFrame sent = new PackedFrame(DEFAULTS);
+        byte[] bytes = new byte[source.length()];
+
+        source.set(1, (byte) 10, (byte) 20, (byte) 30);
+        long version = source.encode(bytes);
+        sent.load(bytes, source, version);
+        assertTrue(sent.contentEquals(source));
+
+        // Changed after it was encoded, so what was sent is out of date
+        source.set(5, (byte) 1);
+        assertFalse(sent.contentEquals(source));
+
+        version = source.encode(bytes);
+        source.set(6, (byte) 2);
+        sent.load(bytes, source, version);
+        assertFalse(sent.contentEquals(source));
+    }
+}
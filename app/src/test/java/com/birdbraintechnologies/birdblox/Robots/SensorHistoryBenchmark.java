@@ -0,0 +1,42 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prints how long recording a reading in the sensor history takes (run with:
+ * gradlew test -Dbenchmarks=true --tests '*SensorHistoryBenchmark*' -i).
+ */
+public class SensorHistoryBenchmark {
+
+    private static final int PORTS = 4;
+    private static final int CAPACITY = 64;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void record_timing() {
+        SensorHistory history = new SensorHistory(PORTS, 1024);
+        byte[] frame = frame(0);
+        int iterations = 5000000;
+        for (int i = 0; i < iterations; i++) history.record(i, frame);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) history.record(i, frame);
+        double perRecord = (System.nanoTime() - start) / (double) iterations;
+        System.out.println(String.format("Sensor history: %.1f ns per recorded reading", perRecord));
+        assertTrue(history.last(1).size() == 1);
+    }
+
+    private static byte[] frame(int i) {
+        byte[] frame = new byte[PORTS + 1];
+        for (int port = 0; port < frame.length; port++) frame[port] = (byte) (i + port);
+        return frame;
+    }
+}
@@ -0,0 +1,105 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Util.DeviceUtil;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the sensor history queries, including while a writer is overwriting the readings
+ * being read.
+ */
+public class SensorHistoryTest {
+
+    private static final int PORTS = 4;
+    private static final int CAPACITY = 64;
+
+    @Test
+    public void queries_afterWrapAround() {
+        SensorHistory history = new SensorHistory(PORTS, CAPACITY);
+        for (int i = 0; i < 200; i++) {
+            history.record(1000 + i, frame(i));
+        }
+
+        SensorHistory.Samples last = history.last(10);
+        assertEquals(10, last.size());
+        assertEquals(1190, last.time(0));
+        assertEquals(1199, last.time(9));
+        assertEquals((byte) 199, last.get(9, 1));
+        assertEquals((byte) 202, last.get(9, 4));
+
+        // Only the readings still in the buffer are returned
+        assertEquals(CAPACITY - 1, history.last(1000).size());
+
+        SensorHistory.Samples since = history.since(1195);
+        assertEquals(4, since.size());
+        assertEquals(1196, since.time(0));
+        assertEquals(0, history.since(1199).size());
+
+        SensorHistory.Summary summary = history.summarize(1, "light", 1189);
+        assertEquals(10, summary.count);
+        assertEquals(DeviceUtil.RawToPercent((byte) 190), summary.min, 1e-9);
+        assertEquals(DeviceUtil.RawToPercent((byte) 199), summary.max, 1e-9);
+        assertEquals(DeviceUtil.RawToPercent((byte) 194) + 0.5 / 2.55, summary.mean, 1e-9);
+        assertEquals(0, history.summarize(1, "light", 5000).count);
+    }
+
+    @Test
+    public void readers_neverSeeTornReadings() throws InterruptedException {
+        final SensorHistory history = new SensorHistory(PORTS, CAPACITY);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                byte[] frame = new byte[PORTS];
+                for (int i = 0; i < 200000; i++) {
+                    for (int port = 0; port < PORTS; port++) frame[port] = (byte) i;
+                    history.record(i, frame);
+                }
+                done.set(true);
+            }
+        };
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get() && failure.get() == null) {
+                    SensorHistory.Samples samples = history.last(CAPACITY);
+                    for (int i = 0; i < samples.size(); i++) {
+                        for (int port = 1; port <= PORTS; port++) {
+                            if (samples.get(i, port) != (byte) samples.time(i))
+                                failure.set("Torn reading at time " + samples.time(i));
+                        }
+                        if (i > 0 && samples.time(i) != samples.time(i - 1) + 1)
+                            failure.set("Out of order readings at time " + samples.time(i));
+                    }
+                }
+            }
+        };
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void queries_beforeAnyReading() {
+        SensorHistory history = new SensorHistory(PORTS, CAPACITY);
+        assertEquals(0, history.last(1).size());
+        assertEquals(0, history.since(0).size());
+        assertEquals(0, history.summarize(1, "light", 0).count);
+    }
+
+    private static byte[] frame(int i) {
+        byte[] frame = new byte[PORTS + 1];
+        for (int port = 0; port < frame.length; port++) frame[port] = (byte) (i + port);
+        return frame;
+    }
+}
@@ -0,0 +1,65 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prints how long evaluating a reading against the sensor subscriptions takes, and how many
+ * events a slowly varying sensor causes compared to polling it (run with:
+ * gradlew test -Dbenchmarks=true --tests '*SensorSubscriptionsBenchmark*' -i).
+ */
+public class SensorSubscriptionsBenchmark {
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void evaluation_costAndEvents() {
+        RecordingListener events = new RecordingListener();
+        SensorSubscriptions subscriptions = new SensorSubscriptions(events);
+        for (int port = 1; port <= 4; port++) {
+            subscriptions.subscribeDeadband(port, "distance", 2);
+            subscriptions.subscribeThreshold(port, "light", 50, 1);
+        }
+
+        // A slowly varying reading on every port, as from a light sensor
+        int readings = 2000000;
+        byte[][] frames = new byte[1024][];
+        for (int i = 0; i < frames.length; i++) {
+            int raw = (int) (128 + 100 * Math.sin(i * 2 * Math.PI / frames.length));
+            frames[i] = frame(raw, raw, raw, raw);
+        }
+        for (int i = 0; i < readings; i++) subscriptions.evaluate(frames[i % frames.length]);
+        events.values.clear();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < readings; i++) subscriptions.evaluate(frames[i % frames.length]);
+        double perReading = (System.nanoTime() - start) / (double) readings;
+
+        System.out.println(String.format("Sensor subscriptions: %.1f ns per reading with 8 subscriptions, "
+                        + "%d events for %d readings (polling the 8 would take %d requests)",
+                perReading, events.values.size(), readings, 8L * readings));
+    }
+
+    private static byte[] frame(int... raw) {
+        byte[] frame = new byte[raw.length];
+        for (int i = 0; i < raw.length; i++) frame[i] = (byte) raw[i];
+        return frame;
+    }
+
+    private static class RecordingListener implements SensorSubscriptions.Listener {
+        final List<String> values = new ArrayList<>();
+
+        @Override
+        public void onSensorEvent(int subscriptionId, String value, boolean threshold, boolean above) {
+            values.add(subscriptionId + " " + value + (threshold ? (above ? " above" : " below") : ""));
+        }
+    }
+}
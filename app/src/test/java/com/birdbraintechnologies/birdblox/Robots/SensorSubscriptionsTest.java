@@ -0,0 +1,100 @@
+package com.birdbraintechnologies.birdblox.Robots;
+
+import com.birdbraintechnologies.birdblox.Util.DeviceUtil;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which readings push events for deadband and threshold subscriptions.
+ */
+public class SensorSubscriptionsTest {
+
+    @Test
+    public void deadband_pushesOnlyLargeEnoughChanges() {
+        RecordingListener events = new RecordingListener();
+        SensorSubscriptions subscriptions = new SensorSubscriptions(events);
+        int id = subscriptions.subscribeDeadband(2, "light", 5);
+
+        // The first reading is always pushed, then only changes of at least 5%
+        subscriptions.evaluate(frame(0, 100));
+        subscriptions.evaluate(frame(0, 105));
+        subscriptions.evaluate(frame(0, 112));
+        subscriptions.evaluate(frame(0, 113));
+        subscriptions.evaluate(frame(0, 100));
+        assertEquals(3, events.values.size());
+        assertEquals(id + " " + DeviceUtil.RawToPercent((byte) 100), events.values.get(0));
+        assertEquals(id + " " + DeviceUtil.RawToPercent((byte) 113), events.values.get(1));
+        assertEquals(id + " " + DeviceUtil.RawToPercent((byte) 100), events.values.get(2));
+    }
+
+    @Test
+    public void threshold_pushesCrossingsWithHysteresis() {
+        RecordingListener events = new RecordingListener();
+        SensorSubscriptions subscriptions = new SensorSubscriptions(events);
+        int id = subscriptions.subscribeThreshold(1, "sensor", 50, 2);
+
+        // 50% is raw 127.5; with 2% of hysteresis, crossings happen above 52% and below 48%
+        subscriptions.evaluate(frame(100, 0));
+        subscriptions.evaluate(frame(130, 0));
+        subscriptions.evaluate(frame(134, 0));
+        subscriptions.evaluate(frame(125, 0));
+        subscriptions.evaluate(frame(122, 0));
+        assertEquals(3, events.values.size());
+        assertEquals(id + " " + DeviceUtil.RawToPercent((byte) 100) + " below", events.values.get(0));
+        assertEquals(id + " " + DeviceUtil.RawToPercent((byte) 134) + " above", events.values.get(1));
+        assertEquals(id + " " + DeviceUtil.RawToPercent((byte) 122) + " below", events.values.get(2));
+    }
+
+    @Test
+    public void unsubscribe_stopsEvents() {
+        RecordingListener events = new RecordingListener();
+        SensorSubscriptions subscriptions = new SensorSubscriptions(events);
+        int id = subscriptions.subscribeDeadband(1, "light", 1);
+        subscriptions.evaluate(frame(10));
+        assertTrue(subscriptions.unsubscribe(id));
+        subscriptions.evaluate(frame(255));
+        assertEquals(1, events.values.size());
+        assertTrue(!subscriptions.unsubscribe(id));
+    }
+
+    @Test
+    public void slowlyVaryingSensor_pushesFewerEventsThanReadings() {
+        RecordingListener events = new RecordingListener();
+        SensorSubscriptions subscriptions = new SensorSubscriptions(events);
+        for (int port = 1; port <= 4; port++) {
+            subscriptions.subscribeDeadband(port, "distance", 2);
+            subscriptions.subscribeThreshold(port, "light", 50, 1);
+        }
+
+        // A slowly varying reading on every port, as from a light sensor
+        int readings = 1024;
+        for (int i = 0; i < readings; i++) {
+            int raw = (int) (128 + 100 * Math.sin(i * 2 * Math.PI / readings));
+            subscriptions.evaluate(frame(raw, raw, raw, raw));
+        }
+        // Polling the 8 subscriptions would take 8 requests per reading
+        assertTrue(events.values.size() > 8);
+        assertTrue(events.values.size() < readings);
+    }
+
+    private static byte[] frame(int... raw) {
+        byte[] frame = new byte[raw.length];
+        for (int i = 0; i < raw.length; i++) frame[i] = (byte) raw[i];
+        return frame;
+    }
+
+    private static class RecordingListener implements SensorSubscriptions.Listener {
+        final List<String> values = new ArrayList<>();
+
+        @Override
+        public void onSensorEvent(int subscriptionId, String value, boolean threshold, boolean above) {
+            values.add(subscriptionId + " " + value + (threshold ? (above ? " above" : " below") : ""));
+        }
+    }
+}
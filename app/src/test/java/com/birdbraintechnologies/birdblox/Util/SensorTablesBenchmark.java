@@ -0,0 +1,68 @@
+package com.birdbraintechnologies.birdblox.Util;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Prints how long a sensor read's conversion takes with DeviceUtil and with the sensor tables
+ * (run with: gradlew test -Dbenchmarks=true --tests '*SensorTablesBenchmark*' -i).
+ */
+public class SensorTablesBenchmark {
+
+    private static final String[] SENSOR_TYPES = {"distance", "temperature", "voltage", "light", "sound", "sensor"};
+    private static final int WARMUP = 200000;
+    private static final int ITERATIONS = 2000000;
+
+    /* Keeps the JIT from dropping the loops */
+    private static int sink;
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void conversion_beforeAndAfter() {
+        convertWithDeviceUtil(WARMUP);
+        convertWithTables(WARMUP);
+
+        long start = System.nanoTime();
+        convertWithDeviceUtil(ITERATIONS);
+        double before = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        start = System.nanoTime();
+        convertWithTables(ITERATIONS);
+        double after = (System.nanoTime() - start) / (double) ITERATIONS;
+
+        System.out.println(String.format("Sensor conversion: DeviceUtil + Double.toString %.1f ns, tables %.1f ns", before, after));
+    }
+
+    private static void convertWithDeviceUtil(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            byte raw = (byte) i;
+            String value;
+            switch (SENSOR_TYPES[i % SENSOR_TYPES.length]) {
+                case "distance":
+                    value = Double.toString(DeviceUtil.RawToDist(raw));
+                    break;
+                case "temperature":
+                    value = Double.toString(DeviceUtil.RawToTemp(raw));
+                    break;
+                case "voltage":
+                    value = Double.toString(DeviceUtil.RawToVoltage(raw));
+                    break;
+                default:
+                    value = Double.toString(DeviceUtil.RawToPercent(raw));
+            }
+            sink += value.length();
+        }
+    }
+
+    private static void convertWithTables(int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            sink += SensorTables.format(SENSOR_TYPES[i % SENSOR_TYPES.length], (byte) i).length();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.birdbraintechnologies.birdblox.Util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the sensor tables give exactly the same values and Strings as converting with
+ * DeviceUtil.
+ */
+public class SensorTablesTest {
+
+    @Test
+    public void format_matchesDeviceUtil() {
+        for (int i = 0; i < 256; i++) {
+            byte raw = (byte) i;
+            assertEquals(Double.toString(DeviceUtil.RawToDist(raw)), SensorTables.format("distance", raw));
+            assertEquals(Double.toString(DeviceUtil.RawToTemp(raw)), SensorTables.format("temperature", raw));
+            assertEquals(Double.toString(DeviceUtil.RawToVoltage(raw)), SensorTables.format("voltage", raw));
+            assertEquals(Double.toString(DeviceUtil.RawToPercent(raw)), SensorTables.format("light", raw));
+        }
+    }
+
+    @Test
+    public void format_unknownSensorIsPercent() {
+        for (int i = 0; i < 256; i++) {
+            byte raw = (byte) i;
+            assertEquals(Double.toString(DeviceUtil.RawToPercent(raw)), SensorTables.format((String) null, raw));
+            assertEquals(Double.toString(DeviceUtil.RawToPercent(raw)), SensorTables.format("sensor", raw));
+        }
+    }
+
+    @Test
+    public void value_matchesDeviceUtil() {
+        for (int i = 0; i < 256; i++) {
+            byte raw = (byte) i;
+            assertEquals(DeviceUtil.RawToDist(raw), SensorTables.value(SensorTables.DISTANCE, raw), 0);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.birdbraintechnologies.birdblox.httpservice.RequestHandlers;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+import com.birdbraintechnologies.birdblox.Robots.RobotType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.birdbraintechnologies.birdblox.Robots.RobotType.robotTypeFromString;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prints how many bytes the old /robot/out handling and the fast path allocate per request (run
+ * with: gradlew test -Dbenchmarks=true --tests '*RobotFastPathBenchmark*' -i).
+ */
+public class RobotFastPathBenchmark {
+
+    private static final String ID = "F4:05:2B:1E:A2:07";
+    private static final String PATH = "/robot/out/triled";
+    private static final String QUERY = "type=hummingbird&id=F4%3A05%3A2B%3A1E%3AA2%3A07&port=1&red=100&green=50&blue=0";
+
+    private static final int ITERATIONS = 200000;
+
+    private final RobotIndex index = new RobotIndex();
+    private final Map<String, Object> connectedRobots = new HashMap<>();
+    private final Map<String, List<String>> parameters = new HashMap<>();
+
+    public RobotFastPathBenchmark() {
+        index.put(new RobotIndex.Entry("00:00:00:00:00:01", null));
+        index.put(new RobotIndex.Entry(ID, null));
+        connectedRobots.put(ID, new Object());
+        // What NanoHTTPD decodes the query string into (before any handler runs)
+        for (String pair : QUERY.split("&")) {
+            String[] kv = pair.split("=");
+            List<String> values = new ArrayList<>();
+            values.add(kv[0].equals("id") ? ID : kv[1]);
+            parameters.put(kv[0], values);
+        }
+    }
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void allocations_beforeAndAfter() {
+        // Warm up both paths before measuring them
+        int checksum = runOld(ITERATIONS / 10) + runNew(ITERATIONS / 10);
+
+        long before = allocatedBytes();
+        checksum += runOld(ITERATIONS);
+        long oldBytes = allocatedBytes() - before;
+
+        before = allocatedBytes();
+        checksum += runNew(ITERATIONS);
+        long newBytes = allocatedBytes() - before;
+
+        assertTrue(checksum != 0);
+        System.out.println(String.format("Old /robot/out handling: %.1f bytes/request", (double) oldBytes / ITERATIONS));
+        System.out.println(String.format("Fast path:               %.1f bytes/request", (double) newBytes / ITERATIONS));
+    }
+
+    /**
+     * The work that the old handleRequest and setOutput did per /robot/out request
+     */
+    private int runOld(int iterations) {
+        int checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            String[] path = PATH.substring("/robot/".length()).split("/");
+            Map<String, List<String>> m = parameters;
+            RobotType type = robotTypeFromString(m.get("type").get(0));
+            Object robot = connectedRobots.get(m.get("id").get(0));
+            int port = Integer.parseInt(m.get("port").get(0));
+            int red = Integer.parseInt(m.get("red").get(0));
+            int green = Integer.parseInt(m.get("green").get(0));
+            int blue = Integer.parseInt(m.get("blue").get(0));
+            String script = "CallbackManager.robot.updateStatus('" + m.get("id").get(0) + "', true);";
+            byte[] body = ("Sent to robot " + m.get("type").get(0) + " successfully.").getBytes();
+            checksum += path[1].length() + type.ordinal() + (robot == null ? 0 : 1) + port + red + green + blue
+                    + script.length() + body.length;
+        }
+        return checksum;
+    }
+
+    /**
+     * The work that the fast path does per /robot/out request
+     */
+    private int runNew(int iterations) {
+        int checksum = 0;
+        for (int i = 0; i < iterations; i++) {
+            RobotCommand command = RobotCommand.forCurrentThread();
+            command.parse(QUERY);
+            RobotIndex.Entry entry = index.lookup(command);
+            String outputType = RobotCommand.outputTypeAt(PATH, "/robot/out/".length());
+            int[] values = command.valuesFor(outputType);
+            checksum += outputType.length() + command.type.ordinal() + command.port + values[0] + values[1] + values[2]
+                    + entry.outputFailedBody.length;
+        }
+        return checksum;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,109 @@
+package com.birdbraintechnologies.birdblox.httpservice.RequestHandlers;
+
+import com.birdbraintechnologies.birdblox.Robots.RobotType;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the parsing of the /robot/out and /robot/in fast path.
+ */
+public class RobotFastPathTest {
+
+    private static final String ID = "F4:05:2B:1E:A2:07";
+    private static final String PATH = "/robot/out/triled";
+    private static final String QUERY = "type=hummingbird&id=F4%3A05%3A2B%3A1E%3AA2%3A07&port=1&red=100&green=50&blue=0";
+
+    private final RobotIndex index = new RobotIndex();
+
+    public RobotFastPathTest() {
+        index.put(new RobotIndex.Entry("00:00:00:00:00:01", null));
+        index.put(new RobotIndex.Entry(ID, null));
+    }
+
+    @Test
+    public void parse_outputCommand() {
+        RobotCommand command = RobotCommand.forCurrentThread();
+        assertTrue(command.parse(QUERY));
+        assertSame(RobotType.Hummingbird, command.type);
+        assertEquals(1, command.port);
+        assertEquals(ID.hashCode(), command.idHash());
+        assertTrue(command.idEquals(ID));
+        assertFalse(command.idEquals(ID + "0"));
+        assertEquals(ID, index.lookup(command).id);
+
+        String outputType = RobotCommand.outputTypeAt(PATH, "/robot/out/".length());
+        assertEquals("triled", outputType);
+        assertArrayEquals(new int[]{100, 50, 0}, command.valuesFor(outputType));
+        assertNull(command.valuesFor("servo"));
+        assertNotNull(command.valuesFor("stop"));
+        assertFalse(command.wait);
+        assertTrue(command.parse(QUERY + "&wait=true"));
+        assertTrue(command.wait);
+    }
+
+    @Test
+    public void parse_sensorCommandAndFallbacks() {
+        RobotCommand command = RobotCommand.forCurrentThread();
+        assertTrue(command.parse("type=Flutter&id=abc&port=2&sensor=light"));
+        assertSame(RobotType.Flutter, command.type);
+        assertEquals("light", command.sensor);
+        assertEquals(2, command.port);
+        assertNull(index.lookup(command));
+
+        // Anything unusual is left to the normal path
+        assertFalse(command.parse("type=hummingbird&id=abc&port=1&intensity=50.5"));
+        assertFalse(command.parse("type=hummingbird&id=abc&sensor=unknown"));
+        assertFalse(command.parse("type=robot&id=abc"));
+        assertFalse(command.parse("id=abc&port=1"));
+        assertFalse(command.parse(null));
+        assertNull(RobotCommand.outputTypeAt("/robot/out/laser", "/robot/out/".length()));
+
+        index.remove(ID);
+        assertTrue(command.parse(QUERY));
+        assertNull(index.lookup(command));
+        index.put(new RobotIndex.Entry(ID, null));
+    }
+
+    @Test
+    public void parse_repeatedParametersKeepFirstValue() {
+        RobotCommand command = RobotCommand.forCurrentThread();
+        assertTrue(command.parse(QUERY + "&wait=0&port=2&red=0&type=flutter&wait=true"));
+        assertSame(RobotType.Hummingbird, command.type);
+        assertEquals(1, command.port);
+        assertArrayEquals(new int[]{100, 50, 0}, command.valuesFor("triled"));
+        assertFalse(command.wait);
+        // Later values aren't even parsed, as the normal path ignores them
+        assertTrue(command.parse(QUERY + "&port=x"));
+        assertEquals(1, command.port);
+    }
+
+    @Test
+    public void typeName_spelledAsInRequest() {
+        RobotCommand command = RobotCommand.forCurrentThread();
+        assertTrue(command.parse(QUERY));
+        assertTrue(command.typeSpelledAs("hummingbird"));
+        assertTrue(command.parse("type=HummingBird&id=abc&port=1"));
+        assertSame(RobotType.Hummingbird, command.type);
+        assertFalse(command.typeSpelledAs("hummingbird"));
+        assertEquals("HummingBird", command.typeName());
+    }
+
+    @Test
+    public void forCurrentThread_reusesCommand() {
+        RobotCommand command = RobotCommand.forCurrentThread();
+        assertSame(command, RobotCommand.forCurrentThread());
+        assertTrue(command.parse("type=Flutter&id=abc&port=2&sensor=light"));
+        assertTrue(command.parse(QUERY));
+        // Nothing is left over from the previous request
+        assertNull(command.sensor);
+        assertEquals(1, command.port);
+    }
+}
@@ -0,0 +1,108 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import com.birdbraintechnologies.birdblox.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Prints the per-request routing cost of the old regex router and of the RouteTable (run with:
+ * gradlew test -Dbenchmarks=true --tests '*RouteTableBenchmark*' -i).
+ */
+public class RouteTableBenchmark {
+
+    private static final String[] PREFIXES = {"robot", "tablet", "settings", "data", "sound/recording",
+            "sound", "properties", "cloud", "ui", "debug"};
+    private static final String[] REGEXES = {"^/robot/(.*)$", "^/tablet/(.*)$", "^/settings/(.*)$",
+            "^/data/(.*)$", "^/sound/recording/(.*)$", "^/sound/(?!recording)(.*)$",
+            "^/properties/(.*)$", "^/cloud/(.*)$", "^/ui/(.*)$", "^/debug/(.*)$"};
+    private static final String[] PATHS = {"/robot/out/led", "/robot/in", "/robot/out/triled",
+            "/sound/recording/start", "/sound/play", "/tablet/shake", "/debug/log", "/robot/"};
+
+    private static final int ITERATIONS = 2000000;
+
+    private final RouteTable table = new RouteTable();
+    private final Map<Pattern, RequestHandler> regexRoutes = new LinkedHashMap<>();
+
+    public RouteTableBenchmark() {
+        for (int i = 0; i < PREFIXES.length; i++) {
+            RequestHandler handler = new NullHandler();
+            table.add(PREFIXES[i], handler, PREFIXES[i].equals("sound") ? "recording" : null);
+            regexRoutes.put(Pattern.compile(REGEXES[i]), handler);
+        }
+    }
+
+    @Before
+    public void onlyWhenAskedFor() {
+        Benchmarks.assumeEnabled();
+    }
+
+    @Test
+    public void routingCost_beforeAndAfter() {
+        // Warm up both routers before timing them
+        runRegex(ITERATIONS / 10);
+        runTable(ITERATIONS / 10);
+
+        long start = System.nanoTime();
+        int regexHits = runRegex(ITERATIONS);
+        long regexNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int tableHits = runTable(ITERATIONS);
+        long tableNanos = System.nanoTime() - start;
+
+        assertEquals(regexHits, tableHits);
+        System.out.println(String.format("Regex router: %.1f ns/request", (double) regexNanos / ITERATIONS));
+        System.out.println(String.format("Route table:  %.1f ns/request", (double) tableNanos / ITERATIONS));
+    }
+
+    /**
+     * Does the work of the old RequestRouter.routeAndDispatch, plus the split done by handlers
+     */
+    private int runRegex(int iterations) {
+        int hits = 0;
+        for (int i = 0; i < iterations; i++) {
+            String path = PATHS[i % PATHS.length];
+            for (Pattern p : regexRoutes.keySet()) {
+                Matcher match = p.matcher(path);
+                if (match.matches()) {
+                    List<String> args = new ArrayList<>();
+                    for (int g = 1; g <= match.groupCount(); g++) {
+                        args.add(match.group(g));
+                    }
+                    hits += args.get(0).split("/").length;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private int runTable(int iterations) {
+        int hits = 0;
+        for (int i = 0; i < iterations; i++) {
+            String path = PATHS[i % PATHS.length];
+            RouteTable.Route route = table.lookup(path);
+            hits += RouteTable.splitPath(path, route.getArgsOffset()).size();
+        }
+        return hits;
+    }
+
+    private static class NullHandler implements RequestHandler {
+        @Override
+        public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
+            return null;
+        }
+    }
+}
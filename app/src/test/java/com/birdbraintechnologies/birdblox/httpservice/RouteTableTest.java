@@ -0,0 +1,106 @@
+package com.birdbraintechnologies.birdblox.httpservice;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the RouteTable routes exactly like the old regex router did.
+ */
+public class RouteTableTest {
+
+    private static final String[] PREFIXES = {"robot", "tablet", "settings", "data", "sound/recording",
+            "sound", "properties", "cloud", "ui", "debug"};
+    private static final String[] REGEXES = {"^/robot/(.*)$", "^/tablet/(.*)$", "^/settings/(.*)$",
+            "^/data/(.*)$", "^/sound/recording/(.*)$", "^/sound/(?!recording)(.*)$",
+            "^/properties/(.*)$", "^/cloud/(.*)$", "^/ui/(.*)$", "^/debug/(.*)$"};
+    private static final String[] PATHS = {"/robot/out/led", "/robot/in", "/robot/out/triled",
+            "/sound/recording/start", "/sound/play", "/tablet/shake", "/debug/log", "/robot/"};
+
+    private final RequestHandler[] handlers = new RequestHandler[PREFIXES.length];
+    private final RouteTable table = new RouteTable();
+    private final Map<Pattern, RequestHandler> regexRoutes = new HashMap<>();
+
+    public RouteTableTest() {
+        for (int i = 0; i < PREFIXES.length; i++) {
+            handlers[i] = new NamedHandler(PREFIXES[i]);
+            table.add(PREFIXES[i], handlers[i], PREFIXES[i].equals("sound") ? "recording" : null);
+            regexRoutes.put(Pattern.compile(REGEXES[i]), handlers[i]);
+        }
+    }
+
+    @Test
+    public void routes_matchRegexRouter() throws Exception {
+        for (String path : PATHS) {
+            RouteTable.Route route = table.lookup(path);
+            Matcher old = regexMatch(path);
+            assertSame(path, regexRoutes.get(old.pattern()), route.getHandler());
+            assertEquals(path, Arrays.asList(old.group(1).split("/")),
+                    RouteTable.splitPath(path, route.getArgsOffset()));
+        }
+        assertNull(table.lookup("/unknown/route"));
+        assertNull(table.lookup("/robot"));
+        assertNull(table.lookup(""));
+    }
+
+    @Test
+    public void lookup_excludedArgsNotRouted() {
+        for (String path : new String[]{"/sound/recordingX/start", "/sound/recordings/", "/sound/recording"}) {
+            assertNull(path, regexMatch(path));
+            assertNull(path, table.lookup(path));
+        }
+        assertEquals("sound", table.lookup("/sound/record/").getHandler().toString());
+    }
+
+    @Test
+    public void lookup_longestPrefixWins() {
+        RouteTable.Route route = table.lookup("/sound/recording/start");
+        assertEquals("sound/recording", route.getHandler().toString());
+        assertEquals(Arrays.asList("start"), RouteTable.splitPath("/sound/recording/start", route.getArgsOffset()));
+        route = table.lookup("/sound/play");
+        assertEquals("sound", route.getHandler().toString());
+        assertEquals(Arrays.asList("play"), RouteTable.splitPath("/sound/play", route.getArgsOffset()));
+    }
+
+    /**
+     * The routing loop of the old RequestRouter.routeAndDispatch
+     */
+    private Matcher regexMatch(String path) {
+        for (Pattern p : regexRoutes.keySet()) {
+            Matcher match = p.matcher(path);
+            if (match.matches()) {
+                return match;
+            }
+        }
+        return null;
+    }
+
+    private static class NamedHandler implements RequestHandler {
+        private final String name;
+
+        NamedHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public NanoHTTPD.Response handleRequest(NanoHTTPD.IHTTPSession session, List<String> args) {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}